@@ -6,6 +6,7 @@ import android.text.InputType;
 
 import androidx.appcompat.app.AlertDialog;
 import androidx.preference.EditTextPreference;
+import androidx.preference.ListPreference;
 import androidx.preference.Preference;
 import androidx.preference.PreferenceFragmentCompat;
 import androidx.preference.SwitchPreferenceCompat;
@@ -14,6 +15,8 @@ import com.google.android.material.snackbar.Snackbar;
 import com.tbruyelle.rxpermissions3.RxPermissions;
 
 import github.umer0586.smsserver.R;
+import github.umer0586.smsserver.httpserver.RequestLog;
+import github.umer0586.smsserver.httpserver.WebhookNotifier;
 import github.umer0586.smsserver.setting.AppSettings;
 import github.umer0586.smsserver.util.IpUtil;
 import github.umer0586.smsserver.util.WifiUtil;
@@ -40,6 +43,12 @@ public class SettingsFragment extends PreferenceFragmentCompat {
             handleSecureConnectionPref();
             handlePasswordPref();
             handleHotspotPref();
+            handleAsyncModePref();
+            handleSendRatePref();
+            handleConnectionPrefs();
+            handleWebhookPref();
+            handleRequestLogPrefs();
+            handleSimulatorPrefs();
 
 
         }
@@ -92,6 +101,127 @@ public class SettingsFragment extends PreferenceFragmentCompat {
         }));
     }
 
+    private void handleAsyncModePref()
+    {
+        SwitchPreferenceCompat asyncModePref = findPreference(getString(R.string.pref_key_async_mode));
+        asyncModePref.setOnPreferenceChangeListener(((preference, newValue) -> {
+
+            boolean switchState = (boolean)newValue;
+            appSettings.enableAsyncMode(switchState);
+
+            return true;
+        }));
+
+        handleNumberPref(R.string.pref_key_max_retries, 0, 10, appSettings::saveMaxRetries);
+        handleNumberPref(R.string.pref_key_max_in_flight, 1, 16, appSettings::saveMaxInFlight);
+    }
+
+    private void handleSendRatePref()
+    {
+        handleNumberPref(R.string.pref_key_send_rate, 0, Integer.MAX_VALUE, appSettings::saveSendRate);
+        handleNumberPref(R.string.pref_key_send_burst, 1, Integer.MAX_VALUE, appSettings::saveSendBurst);
+    }
+
+    private void handleConnectionPrefs()
+    {
+        handleNumberPref(R.string.pref_key_worker_count, 1, 256, appSettings::saveWorkerCount);
+        handleNumberPref(R.string.pref_key_max_connections, 1, 1024, appSettings::saveMaxConnections);
+        handleNumberPref(R.string.pref_key_accept_backlog, 1, 1024, appSettings::saveAcceptBacklog);
+        handleNumberPref(R.string.pref_key_idle_timeout, 1, 300, appSettings::saveIdleTimeoutSeconds);
+    }
+
+    private void handleWebhookPref()
+    {
+        EditTextPreference webhookPref = findPreference(getString(R.string.pref_key_webhook_url));
+
+        if(webhookPref.getText() != null && !webhookPref.getText().isEmpty())
+            webhookPref.setSummary(webhookPref.getText());
+
+        webhookPref.setOnBindEditTextListener(editText -> editText.setInputType(InputType.TYPE_CLASS_TEXT | InputType.TYPE_TEXT_VARIATION_URI));
+
+        webhookPref.setOnPreferenceChangeListener((preference, newValue) -> {
+
+            String webhookUrl = newValue.toString().trim();
+
+            if(webhookUrl.isEmpty())
+            {
+                appSettings.saveWebhookUrl(null);
+                preference.setSummary("Not set");
+                return true;
+            }
+
+            if(WebhookNotifier.isValidUrl(webhookUrl))
+            {
+                appSettings.saveWebhookUrl(webhookUrl);
+                preference.setSummary(webhookUrl);
+                return true;
+            }
+
+            showAlertDialog("Invalid Input","Please enter an http or https URL");
+            return false;
+        });
+    }
+
+    private void handleRequestLogPrefs()
+    {
+        ListPreference levelPref = findPreference(getString(R.string.pref_key_request_log_level));
+        levelPref.setOnPreferenceChangeListener((preference, newValue) -> {
+
+            appSettings.saveRequestLogLevel(RequestLog.Level.valueOf(newValue.toString()));
+            return true;
+        });
+
+        handleNumberPref(R.string.pref_key_request_log_sample_rate, 1, 10000, appSettings::saveRequestLogSampleRate);
+    }
+
+    private void handleSimulatorPrefs()
+    {
+        SwitchPreferenceCompat simulatorPref = findPreference(getString(R.string.pref_key_simulator));
+        simulatorPref.setOnPreferenceChangeListener(((preference, newValue) -> {
+
+            appSettings.enableSimulator((boolean)newValue);
+            return true;
+        }));
+
+        handleNumberPref(R.string.pref_key_simulator_min_latency, 0, 60000, appSettings::saveSimulatorMinLatency);
+        handleNumberPref(R.string.pref_key_simulator_max_latency, 0, 60000, appSettings::saveSimulatorMaxLatency);
+        handleNumberPref(R.string.pref_key_simulator_failure_percent, 0, 100, appSettings::saveSimulatorFailurePercent);
+        handleNumberPref(R.string.pref_key_simulator_rate_limit, 0, Integer.MAX_VALUE, appSettings::saveSimulatorRateLimit);
+    }
+
+    /**
+     * Accepts only whole numbers between min and max (inclusive) and saves them via numberSaver
+     */
+    private void handleNumberPref(int keyResId, int min, int max, NumberSaver numberSaver)
+    {
+        EditTextPreference numberPref = findPreference(getString(keyResId));
+        numberPref.setOnBindEditTextListener(editText -> editText.setInputType(InputType.TYPE_CLASS_NUMBER));
+
+        numberPref.setOnPreferenceChangeListener((preference, newValue) -> {
+
+            try {
+
+                int number = Integer.parseInt(newValue.toString());
+
+                if (number >= min && number <= max)
+                {
+                    numberSaver.save(number);
+                    return true;
+                }
+
+            } catch (NumberFormatException e) {
+                e.printStackTrace();
+            }
+
+            if(max == Integer.MAX_VALUE)
+                showAlertDialog("Invalid Input","Please enter a number not less than " + min);
+            else
+                showAlertDialog("Invalid Input","Please enter a number between " + min + " and " + max);
+
+            return false;
+        });
+    }
+
     private void handlePasswordPref()
         {
             SwitchPreferenceCompat passwordSwitchPref = findPreference(getString(R.string.pref_key_password_switch));
@@ -149,7 +279,8 @@ public class SettingsFragment extends PreferenceFragmentCompat {
             smsPermissionPref.setOnPreferenceClickListener(preference -> {
 
                 rxPermissions
-                        .request(Manifest.permission.SEND_SMS)
+                        // READ_PHONE_STATE lets server list SIM subscriptions on multi SIM devices
+                        .request(Manifest.permission.SEND_SMS, Manifest.permission.READ_PHONE_STATE)
                         .subscribe(granted -> {
                             if (granted)  // Always true pre-M
                                 Snackbar.make(requireView(),"Permission granted",Snackbar.LENGTH_SHORT).show();
@@ -229,6 +360,9 @@ public class SettingsFragment extends PreferenceFragmentCompat {
 
         }
 
+    @FunctionalInterface
+    private interface NumberSaver {
+        void save(int number);
     }
 
-
+    }
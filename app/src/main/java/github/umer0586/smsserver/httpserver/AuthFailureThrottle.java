@@ -0,0 +1,165 @@
+package github.umer0586.smsserver.httpserver;
+
+import androidx.annotation.NonNull;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Counts failed password checks per client IP and turns a client away once it failed too often within a window,
+ * until that window ends. Server checks it before reading request body, so a client guessing passwords costs a
+ * worker thread only a header read.
+ *
+ * Each client is a single AtomicLong holding start of its current window (upper bits, milliseconds since this
+ * throttle was created) and failure count (lower 24 bits), updated by compare and set, so concurrent requests never
+ * wait on a lock and a check is a map lookup plus a volatile read. A successful password check forgets the client.
+ * At most MAX_CLIENTS are tracked, clients whose window ended are dropped when that limit is reached and failures of
+ * new clients are not counted while every tracked client is still within its window.
+ * */
+public class AuthFailureThrottle {
+
+    public static final int DEFAULT_MAX_FAILURES = 10;
+    public static final long DEFAULT_WINDOW_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private static final int MAX_CLIENTS = 1024;
+
+    private static final int COUNT_BITS = 24;
+    private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+
+    private final int maxFailures;
+    private final long windowMillis;
+    private final long createdNanos = System.nanoTime();
+
+    private final ConcurrentHashMap<String, AtomicLong> clients = new ConcurrentHashMap<>();
+
+    public AuthFailureThrottle()
+    {
+        this(DEFAULT_MAX_FAILURES, DEFAULT_WINDOW_MILLIS);
+    }
+
+    /**
+     * @param maxFailures failed password checks allowed per client within a window
+     * @param windowMillis length of window, client which reached maxFailures is turned away until its window ends
+     */
+    public AuthFailureThrottle(int maxFailures, long windowMillis)
+    {
+        if(maxFailures <= 0 || maxFailures > COUNT_MASK || windowMillis <= 0)
+            throw new IllegalArgumentException("maxFailures and windowMillis must be positive");
+
+        this.maxFailures = maxFailures;
+        this.windowMillis = windowMillis;
+    }
+
+    /**
+     * @return milliseconds until client may try again, 0 when client is not turned away
+     */
+    public long getBlockedMillis(@NonNull String clientIp)
+    {
+        final AtomicLong client = clients.get(clientIp);
+
+        if(client == null)
+            return 0;
+
+        final long state = client.get();
+        final long remainingMillis = windowStart(state) + windowMillis - nowMillis();
+
+        return count(state) >= maxFailures && remainingMillis > 0 ? remainingMillis : 0;
+    }
+
+    public void onFailure(@NonNull String clientIp)
+    {
+        AtomicLong client = clients.get(clientIp);
+
+        if(client == null)
+        {
+            if(clients.size() >= MAX_CLIENTS && !removeExpired())
+                return;
+
+            final AtomicLong newClient = new AtomicLong(state(nowMillis(), 0));
+            client = clients.putIfAbsent(clientIp, newClient);
+
+            if(client == null)
+                client = newClient;
+        }
+
+        final long now = nowMillis();
+
+        while (true)
+        {
+            final long state = client.get();
+
+            final long newState = windowStart(state) + windowMillis <= now
+                    ? state(now, 1)
+                    : state(windowStart(state), Math.min(COUNT_MASK, count(state) + 1));
+
+            if(client.compareAndSet(state, newState))
+                return;
+        }
+    }
+
+    public void onSuccess(@NonNull String clientIp)
+    {
+        clients.remove(clientIp);
+    }
+
+    /**
+     * @return number of clients currently turned away
+     */
+    public int getBlockedCount()
+    {
+        final long now = nowMillis();
+        int blocked = 0;
+
+        for (AtomicLong client : clients.values())
+        {
+            final long state = client.get();
+
+            if(count(state) >= maxFailures && windowStart(state) + windowMillis > now)
+                blocked++;
+        }
+
+        return blocked;
+    }
+
+    /**
+     * @return true when at least one client was removed
+     */
+    private boolean removeExpired()
+    {
+        final long now = nowMillis();
+        boolean removed = false;
+
+        for (Iterator<AtomicLong> iterator = clients.values().iterator(); iterator.hasNext(); )
+        {
+            if(windowStart(iterator.next().get()) + windowMillis <= now)
+            {
+                iterator.remove();
+                removed = true;
+            }
+        }
+
+        return removed;
+    }
+
+    private long nowMillis()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - createdNanos);
+    }
+
+    private static long state(long windowStartMillis, long count)
+    {
+        return (windowStartMillis << COUNT_BITS) | count;
+    }
+
+    private static long windowStart(long state)
+    {
+        return state >>> COUNT_BITS;
+    }
+
+    private static long count(long state)
+    {
+        return state & COUNT_MASK;
+    }
+}
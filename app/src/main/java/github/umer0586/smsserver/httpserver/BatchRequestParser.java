@@ -0,0 +1,157 @@
+package github.umer0586.smsserver.httpserver;
+
+import androidx.annotation.NonNull;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import github.umer0586.smsserver.smssender.SMSPriority;
+import github.umer0586.smsserver.smssender.SMSRequest;
+import github.umer0586.smsserver.smssender.SMSSenderPool;
+
+/*
+ * Parses body of /sendSMSBatch request. Body is either a JSON array of {"phone" : "...", "message" : "...", "sim" : 1}
+ * objects, optionally with "callback_url" and "priority" (application/json) or one such object per line (application/x-ndjson).
+ * All items are validated in one pass so a batch is either accepted completely or rejected with
+ * the list of invalid items before any SMS is sent
+ * */
+public class BatchRequestParser {
+
+    public static final int MAX_BATCH_SIZE = 1000;
+
+    // room for MAX_BATCH_SIZE items of a few hundred bytes each
+    public static final int MAX_BODY_SIZE = 1024 * 1024;
+
+    private final List<SMSRequest> smsRequests = new ArrayList<>();
+    private final List<String> errors = new ArrayList<>();
+
+    private BatchRequestParser()
+    {
+    }
+
+    public static BatchRequestParser parseJson(@NonNull String body)
+    {
+        BatchRequestParser parser = new BatchRequestParser();
+
+        try
+        {
+            JSONArray items = new JSONArray(body);
+
+            for (int i = 0; i < items.length(); i++)
+                parser.parseItem(i, items.optJSONObject(i));
+
+        } catch (JSONException e)
+        {
+            parser.errors.add("body is not a JSON array : " + e.getMessage());
+        }
+
+        return parser;
+    }
+
+    public static BatchRequestParser parseNdjson(@NonNull String body)
+    {
+        BatchRequestParser parser = new BatchRequestParser();
+
+        int index = 0;
+
+        for (String line : body.split("\n"))
+        {
+            if(line.trim().isEmpty())
+                continue;
+
+            try
+            {
+                parser.parseItem(index, new JSONObject(line));
+            } catch (JSONException e)
+            {
+                parser.errors.add("item " + index + " : invalid JSON");
+            }
+
+            index++;
+        }
+
+        return parser;
+    }
+
+    private void parseItem(int index, JSONObject item)
+    {
+        if(item == null)
+        {
+            errors.add("item " + index + " : not a JSON object");
+            return;
+        }
+
+        String phone = optString(item, "phone");
+        String message = optString(item, "message");
+        int sim = optSim(item);
+        String callbackUrl = optString(item, "callback_url");
+        SMSPriority priority = SMSPriority.parse(optString(item, "priority"));
+
+        if(phone == null || phone.isEmpty())
+            errors.add("item " + index + " : <phone> missing");
+        else if(message == null)
+            errors.add("item " + index + " : <message> missing");
+        else if(sim < 0)
+            errors.add("item " + index + " : <sim> must be a SIM slot number");
+        else if(callbackUrl != null && !WebhookNotifier.isValidUrl(callbackUrl))
+            errors.add("item " + index + " : <callback_url> must be an http or https URL");
+        else if(priority == null)
+            errors.add("item " + index + " : <priority> must be high, normal or bulk");
+        else
+            smsRequests.add(new SMSRequest(phone, message, sim, callbackUrl, priority));
+    }
+
+    /**
+     * @return value of key, null when key is missing or JSON null (optString() would give "null" for that)
+     */
+    private static String optString(JSONObject item, String key)
+    {
+        return item.isNull(key) ? null : item.optString(key);
+    }
+
+    /**
+     * @return SIM slot of item, ANY_SIM when not given and -1 when given but not a whole number
+     */
+    private static int optSim(JSONObject item)
+    {
+        if(item.isNull("sim"))
+            return SMSSenderPool.ANY_SIM;
+
+        final Object sim = item.opt("sim");
+
+        if(sim instanceof Integer)
+            return (Integer) sim;
+
+        if(sim instanceof String)
+        {
+            try
+            {
+                return Integer.parseInt(((String) sim).trim());
+            } catch (NumberFormatException e)
+            {
+                return -1;
+            }
+        }
+
+        return -1;
+    }
+
+    public boolean hasErrors()
+    {
+        return !errors.isEmpty();
+    }
+
+    public List<String> getErrors()
+    {
+        return errors;
+    }
+
+    public List<SMSRequest> getSMSRequests()
+    {
+        return smsRequests;
+    }
+}
@@ -0,0 +1,126 @@
+package github.umer0586.smsserver.httpserver;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import fi.iki.elonen.NanoHTTPD;
+
+/*
+ * Replacement for NanoHTTPD's DefaultAsyncRunner which starts a new thread for every connection.
+ * Connections are served by a fixed number of worker threads, connections beyond the worker count wait in
+ * a bounded queue and connections beyond maxConnections are answered with 503 (Service Unavailable) and closed
+ * right away, so a flood of clients can't exhaust memory with threads parked in SMSSender
+ * */
+public class BoundedAsyncRunner implements NanoHTTPD.AsyncRunner {
+
+    private static final String TAG = BoundedAsyncRunner.class.getSimpleName();
+
+    // seconds client is asked to wait before retrying a rejected connection
+    private static final int RETRY_AFTER_SECONDS = 1;
+
+    private final ThreadPoolExecutor executor;
+    private final List<NanoHTTPD.ClientHandler> running = new ArrayList<>();
+
+    private final AtomicInteger rejectedCount = new AtomicInteger();
+
+    /**
+     * @param workerCount number of threads serving connections
+     * @param maxConnections number of connections served or waiting for a worker, must not be less than workerCount
+     */
+    public BoundedAsyncRunner(int workerCount, int maxConnections)
+    {
+        final AtomicInteger threadCount = new AtomicInteger();
+
+        executor = new ThreadPoolExecutor(
+                workerCount,
+                workerCount,
+                60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, maxConnections - workerCount)),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "NanoHttpd Request Processor (#" + threadCount.incrementAndGet() + ")");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+        );
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    @Override
+    public void exec(NanoHTTPD.ClientHandler clientHandler)
+    {
+        synchronized (running)
+        {
+            running.add(clientHandler);
+        }
+
+        try
+        {
+            executor.execute(clientHandler);
+
+        } catch (RejectedExecutionException e)
+        {
+            closed(clientHandler);
+            rejectedCount.incrementAndGet();
+            Log.w(TAG, "connection limit reached, rejecting connection");
+
+            if(clientHandler instanceof SMSServer.RejectableClientHandler)
+                ((SMSServer.RejectableClientHandler) clientHandler).reject(RETRY_AFTER_SECONDS);
+            else
+                clientHandler.close();
+        }
+    }
+
+    @Override
+    public void closed(NanoHTTPD.ClientHandler clientHandler)
+    {
+        synchronized (running)
+        {
+            running.remove(clientHandler);
+        }
+    }
+
+    @Override
+    public void closeAll()
+    {
+        List<NanoHTTPD.ClientHandler> handlers;
+
+        synchronized (running)
+        {
+            handlers = new ArrayList<>(running);
+        }
+
+        for (NanoHTTPD.ClientHandler clientHandler : handlers)
+            clientHandler.close();
+    }
+
+    public void shutdown()
+    {
+        closeAll();
+        executor.shutdownNow();
+    }
+
+    public int getActiveConnectionCount()
+    {
+        synchronized (running)
+        {
+            return running.size();
+        }
+    }
+
+    public int getBusyWorkerCount()
+    {
+        return executor.getActiveCount();
+    }
+
+    public int getRejectedConnectionCount()
+    {
+        return rejectedCount.get();
+    }
+}
@@ -0,0 +1,213 @@
+package github.umer0586.smsserver.httpserver;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import org.json.JSONObject;
+
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Fans sms status events out to Server-Sent Events (text/event-stream) subscribers of /events.
+ *
+ * publish() never blocks : each subscriber has its own bounded buffer and when a slow subscriber's buffer
+ * is full either its oldest events are dropped (subscriber is told how many with a "dropped" event) or
+ * it is disconnected, depending on its OverflowPolicy. So a slow consumer never holds up sending.
+ *
+ * A subscriber is the body (InputStream) of a chunked response, the worker thread serving it blocks in read()
+ * until next event. Since every subscriber occupies a worker thread number of subscribers is capped
+ * */
+public class EventStream {
+
+    private static final String TAG = EventStream.class.getSimpleName();
+
+    public static final int SUBSCRIBER_BUFFER_SIZE = 256;
+
+    // comment line sent when there was no event for a while, detects clients which went away
+    private static final long HEARTBEAT_MILLIS = 15 * 1000;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final byte[] HEARTBEAT = ": keep-alive\n\n".getBytes(UTF_8);
+    private static final byte[] WAKE_UP = new byte[0];
+
+    public enum OverflowPolicy {
+        DROP_OLDEST,
+        DISCONNECT
+    }
+
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+    private final AtomicLong lastEventId = new AtomicLong();
+    private final int maxSubscribers;
+
+    public EventStream(int maxSubscribers)
+    {
+        this.maxSubscribers = maxSubscribers;
+    }
+
+    /**
+     * @return subscriber to be used as response body, null when maximum number of subscribers is reached
+     */
+    public synchronized Subscriber subscribe(@NonNull OverflowPolicy overflowPolicy)
+    {
+        if(subscribers.size() >= maxSubscribers)
+            return null;
+
+        Subscriber subscriber = new Subscriber(overflowPolicy);
+        subscribers.add(subscriber);
+
+        return subscriber;
+    }
+
+    /**
+     * Queues event for every subscriber without blocking
+     *
+     * @param event event name e.g "sent"
+     */
+    public void publish(@NonNull String event, @NonNull JSONObject data)
+    {
+        // nothing is formatted when no one is listening
+        if(subscribers.isEmpty())
+            return;
+
+        final byte[] bytes = ("id: " + lastEventId.incrementAndGet() + "\n"
+                + "event: " + event + "\n"
+                + "data: " + data + "\n\n").getBytes(UTF_8);
+
+        for (Subscriber subscriber : subscribers)
+            subscriber.offer(bytes);
+    }
+
+    public int getSubscriberCount()
+    {
+        return subscribers.size();
+    }
+
+    public void closeAll()
+    {
+        for (Subscriber subscriber : subscribers)
+            subscriber.close();
+    }
+
+    public class Subscriber extends InputStream {
+
+        private final BlockingQueue<byte[]> buffer = new ArrayBlockingQueue<>(SUBSCRIBER_BUFFER_SIZE);
+        private final OverflowPolicy overflowPolicy;
+
+        // events dropped since subscriber last read
+        private final AtomicInteger droppedCount = new AtomicInteger();
+
+        private volatile boolean closed = false;
+
+        private byte[] current = WAKE_UP;
+        private int position = 0;
+
+        private Subscriber(OverflowPolicy overflowPolicy)
+        {
+            this.overflowPolicy = overflowPolicy;
+        }
+
+        private void offer(byte[] event)
+        {
+            if(buffer.offer(event))
+                return;
+
+            if(overflowPolicy == OverflowPolicy.DISCONNECT)
+            {
+                Log.w(TAG, "event subscriber can't keep up, disconnecting");
+                close();
+                return;
+            }
+
+            // make room by dropping oldest events, loop because other publishers race for the freed slot
+            while (!buffer.offer(event))
+            {
+                if(buffer.poll() != null)
+                    droppedCount.incrementAndGet();
+            }
+        }
+
+        @Override
+        public int read()
+        {
+            byte[] oneByte = new byte[1];
+            return read(oneByte, 0, 1) == -1 ? -1 : oneByte[0] & 0xff;
+        }
+
+        @Override
+        public int read(@NonNull byte[] bytes, int offset, int length)
+        {
+            while (position == current.length)
+            {
+                current = next();
+                position = 0;
+
+                if(current == null)
+                    return -1;
+            }
+
+            final int count = Math.min(length, current.length - position);
+            System.arraycopy(current, position, bytes, offset, count);
+            position += count;
+
+            return count;
+        }
+
+        /**
+         * Blocks until next event, returns heartbeat when there is none for a while
+         *
+         * @return null when subscriber is closed
+         */
+        private byte[] next()
+        {
+            if(closed)
+                return null;
+
+            final int dropped = droppedCount.getAndSet(0);
+
+            if(dropped > 0)
+                return ("event: dropped\ndata: {\"count\":" + dropped + "}\n\n").getBytes(UTF_8);
+
+            final byte[] event;
+
+            try
+            {
+                event = buffer.poll(HEARTBEAT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+
+            if(closed)
+                return null;
+
+            return event != null ? event : HEARTBEAT;
+        }
+
+        /**
+         * Called by NanoHTTPD once response ends or client goes away, and on server stop
+         */
+        @Override
+        public void close()
+        {
+            if(closed)
+                return;
+
+            closed = true;
+            subscribers.remove(this);
+
+            // wake up worker thread blocked in read()
+            buffer.clear();
+            buffer.offer(WAKE_UP);
+        }
+    }
+}
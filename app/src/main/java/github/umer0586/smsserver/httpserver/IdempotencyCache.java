@@ -0,0 +1,275 @@
+package github.umer0586.smsserver.httpserver;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import fi.iki.elonen.NanoHTTPD;
+
+/*
+ * Remembers Idempotency-Key of recent /sendSMS requests so that a retried request gets response of
+ * the original one instead of sending sms again.
+ *
+ * Keys are first checked against a Bloom filter : a key it has never seen (the common case, every fresh request)
+ * is answered without touching the exact map. Filter has two generations which rotate every window so keys
+ * older than two windows are forgotten without ever removing bits. Keys the filter may have seen are looked
+ * up in a bounded map holding original response (or in-flight marker) of keys used within the last window.
+ *
+ * Each key is stored with a SHA-256 fingerprint of every field of its request, so a key reused for a request
+ * which differs in any field (even priority or callback URL) is told apart instead of replaying wrong response.
+ * */
+public class IdempotencyCache {
+
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+    public static final long DEFAULT_WINDOW_MILLIS = 60 * 60 * 1000;
+
+    public static final int MAX_KEY_LENGTH = 255;
+
+    // 2^17 bits (16 KB) per generation, ~2% false positives at 10000 keys per window
+    private static final int BLOOM_BITS = 1 << 17;
+    private static final int BLOOM_HASH_COUNT = 4;
+
+    private final int maxEntries;
+    private final long windowMillis;
+
+    private BitSet currentKeys = new BitSet(BLOOM_BITS);
+    private BitSet previousKeys = new BitSet(BLOOM_BITS);
+    private long generationStartedAt = System.currentTimeMillis();
+
+    // insertion ordered, eldest entry is oldest
+    private final LinkedHashMap<String, Record> records;
+
+    public IdempotencyCache()
+    {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_WINDOW_MILLIS);
+    }
+
+    public IdempotencyCache(int maxEntries, long windowMillis)
+    {
+        this.maxEntries = maxEntries;
+        this.windowMillis = windowMillis;
+
+        records = new LinkedHashMap<String, Record>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Record> eldest)
+            {
+                return size() > IdempotencyCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Claims key for a new request unless it was used within window
+     *
+     * @param fingerprint from {@link #fingerprint(String...)}, identifies request content so that a key reused
+     *                    for a different request can be detected
+     * @param messageId id of sms which will be sent for this key
+     * @return record of earlier request with this key, null when caller has claimed the key and must send
+     *         and then call complete() or abandon()
+     */
+    public synchronized Record begin(@NonNull String key, @NonNull byte[] fingerprint, @NonNull String messageId)
+    {
+        final long now = System.currentTimeMillis();
+
+        rotate(now);
+        evictExpired(now);
+
+        if(mightContain(key))
+        {
+            Record record = records.get(key);
+
+            if(record != null)
+                return record;
+        }
+
+        add(key);
+        records.put(key, new Record(fingerprint, messageId, now));
+
+        return null;
+    }
+
+    /**
+     * Stores response of request which claimed key, later requests with this key get this response
+     */
+    public synchronized void complete(@NonNull String key, @NonNull NanoHTTPD.Response.IStatus status, @NonNull String body)
+    {
+        Record record = records.get(key);
+
+        if(record != null)
+        {
+            record.body = body;
+            record.status = status;
+        }
+    }
+
+    /**
+     * Releases key of a request which didn't send anything (e.g rejected because queue is full) so it can be retried
+     */
+    public synchronized void abandon(@NonNull String key)
+    {
+        records.remove(key);
+    }
+
+    /**
+     * @param fields every field of request in a fixed order, null for absent ones
+     * @return SHA-256 of fields, each length prefixed so that neither boundaries nor absent fields are ambiguous
+     */
+    @NonNull
+    public static byte[] fingerprint(@Nullable String... fields)
+    {
+        final MessageDigest sha256;
+
+        try
+        {
+            sha256 = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e)
+        {
+            // every java and android platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+
+        for (String field : fields)
+        {
+            final byte[] bytes = field != null ? field.getBytes(StandardCharsets.UTF_8) : null;
+            final int length = bytes != null ? bytes.length : -1;
+
+            sha256.update(new byte[]{(byte) (length >>> 24), (byte) (length >>> 16), (byte) (length >>> 8), (byte) length});
+
+            if(bytes != null)
+                sha256.update(bytes);
+        }
+
+        return sha256.digest();
+    }
+
+    private void rotate(long now)
+    {
+        if(now - generationStartedAt < windowMillis)
+            return;
+
+        if(now - generationStartedAt >= 2 * windowMillis)
+        {
+            // no request for two windows, both generations are stale
+            currentKeys.clear();
+            previousKeys.clear();
+        }
+        else
+        {
+            BitSet recycled = previousKeys;
+            recycled.clear();
+
+            previousKeys = currentKeys;
+            currentKeys = recycled;
+        }
+
+        generationStartedAt = now;
+    }
+
+    private void evictExpired(long now)
+    {
+        Iterator<Record> iterator = records.values().iterator();
+
+        while (iterator.hasNext() && now - iterator.next().createdAt >= windowMillis)
+            iterator.remove();
+    }
+
+    private boolean mightContain(String key)
+    {
+        final int hash1 = key.hashCode();
+        final int hash2 = fnv1a(key);
+
+        boolean inCurrent = true;
+        boolean inPrevious = true;
+
+        for (int i = 0; i < BLOOM_HASH_COUNT; i++)
+        {
+            final int bit = bitIndex(hash1, hash2, i);
+            inCurrent &= currentKeys.get(bit);
+            inPrevious &= previousKeys.get(bit);
+        }
+
+        return inCurrent || inPrevious;
+    }
+
+    private void add(String key)
+    {
+        final int hash1 = key.hashCode();
+        final int hash2 = fnv1a(key);
+
+        for (int i = 0; i < BLOOM_HASH_COUNT; i++)
+            currentKeys.set(bitIndex(hash1, hash2, i));
+    }
+
+    // double hashing, i-th hash is hash1 + i * hash2
+    private static int bitIndex(int hash1, int hash2, int i)
+    {
+        return (hash1 + i * hash2) & (BLOOM_BITS - 1);
+    }
+
+    private static int fnv1a(String key)
+    {
+        int hash = 0x811c9dc5;
+
+        for (int i = 0; i < key.length(); i++)
+        {
+            hash ^= key.charAt(i);
+            hash *= 0x01000193;
+        }
+
+        // odd so that double hashing visits distinct bits
+        return hash | 1;
+    }
+
+    public static class Record {
+
+        private final byte[] fingerprint;
+        private final String messageId;
+        private final long createdAt;
+
+        // set once original request completes, body is written before status
+        private volatile String body;
+        private volatile NanoHTTPD.Response.IStatus status;
+
+        private Record(byte[] fingerprint, String messageId, long createdAt)
+        {
+            this.fingerprint = fingerprint;
+            this.messageId = messageId;
+            this.createdAt = createdAt;
+        }
+
+        /**
+         * @return true when request with given fingerprint is the one which used this key first
+         */
+        public boolean matches(@NonNull byte[] fingerprint)
+        {
+            return MessageDigest.isEqual(this.fingerprint, fingerprint);
+        }
+
+        public String getMessageId()
+        {
+            return messageId;
+        }
+
+        public boolean isCompleted()
+        {
+            return status != null;
+        }
+
+        public NanoHTTPD.Response.IStatus getStatus()
+        {
+            return status;
+        }
+
+        public String getBody()
+        {
+            return body;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package github.umer0586.smsserver.httpserver;
+
+import androidx.annotation.NonNull;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+
+/*
+ * Checks passwords sent by clients against the configured one without keeping it in plain text.
+ *
+ * Password is hashed once (salted SHA-256, salt is random per instance) when set. Every candidate is hashed
+ * the same way and both hashes are compared in constant time, so neither length nor position of the first
+ * wrong character shows in response time.
+ * */
+public class PasswordVerifier {
+
+    private static final int SALT_LENGTH = 16;
+
+    // MessageDigest is not thread safe and getInstance() walks security providers, keep one per worker thread
+    private static final ThreadLocal<MessageDigest> SHA_256 = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue()
+        {
+            try
+            {
+                return MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e)
+            {
+                // every java and android platform is required to support SHA-256
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    private final byte[] salt = new byte[SALT_LENGTH];
+    private final byte[] passwordHash;
+
+    public PasswordVerifier(@NonNull String password)
+    {
+        new SecureRandom().nextBytes(salt);
+        passwordHash = hash(password);
+    }
+
+    /**
+     * @return true when candidate is the configured password
+     */
+    public boolean matches(@NonNull String candidate)
+    {
+        return constantTimeEquals(passwordHash, hash(candidate));
+    }
+
+    private byte[] hash(String password)
+    {
+        MessageDigest sha256 = SHA_256.get();
+        sha256.update(salt);
+
+        return sha256.digest(password.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // MessageDigest.isEqual only became constant time in later platform versions, hashes are always the same length
+    private static boolean constantTimeEquals(byte[] a, byte[] b)
+    {
+        int difference = a.length ^ b.length;
+
+        for (int i = 0; i < a.length && i < b.length; i++)
+            difference |= a[i] ^ b[i];
+
+        return difference == 0;
+    }
+}
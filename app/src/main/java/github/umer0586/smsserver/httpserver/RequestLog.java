@@ -0,0 +1,242 @@
+package github.umer0586.smsserver.httpserver;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import fi.iki.elonen.NanoHTTPD;
+
+/*
+ * Access log of HTTP requests, written to logcat by a background thread.
+ *
+ * Worker threads only decide whether a request is logged and, if so, put a small entry in a bounded ring buffer
+ * without blocking, entries are formatted and written by the writer thread. When the buffer is full entries are
+ * dropped (and counted) rather than slowing requests down.
+ *
+ * What is logged depends on level :
+ *   OFF   nothing
+ *   ERROR requests answered with 4xx or 5xx (default, successful requests cost a few field reads)
+ *   INFO  errors plus one in sampleRate successful requests
+ *   DEBUG every request along with its headers
+ * Passwords in query string and credential headers are never written.
+ * */
+public class RequestLog {
+
+    private static final String TAG = RequestLog.class.getSimpleName();
+
+    public enum Level {
+        OFF,
+        ERROR,
+        INFO,
+        DEBUG
+    }
+
+    public static final Level DEFAULT_LEVEL = Level.ERROR;
+    public static final int DEFAULT_SAMPLE_RATE = 100;
+
+    private static final int BUFFER_SIZE = 1024;
+
+    private static final String REDACTED = "***";
+
+    private final BlockingQueue<Entry> buffer = new ArrayBlockingQueue<>(BUFFER_SIZE);
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    private volatile Level level = DEFAULT_LEVEL;
+    private volatile int sampleRate = DEFAULT_SAMPLE_RATE;
+
+    private Thread writerThread;
+    private volatile boolean running = false;
+
+    /**
+     * @param sampleRate at INFO level one in sampleRate successful requests is logged
+     */
+    public void setLevel(@NonNull Level level, int sampleRate)
+    {
+        this.level = level;
+        this.sampleRate = Math.max(1, sampleRate);
+    }
+
+    public Level getLevel()
+    {
+        return level;
+    }
+
+    public synchronized void start()
+    {
+        if(running)
+            return;
+
+        running = true;
+        writerThread = new Thread(this::writeLoop, TAG);
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    public synchronized void stop()
+    {
+        running = false;
+
+        if(writerThread != null)
+        {
+            writerThread.interrupt();
+            writerThread = null;
+        }
+    }
+
+    /**
+     * Called on worker thread once response of request is ready, never blocks
+     */
+    public void log(@NonNull NanoHTTPD.IHTTPSession session, @NonNull NanoHTTPD.Response response, long durationNanos)
+    {
+        final Level level = this.level;
+
+        if(level == Level.OFF || !running)
+            return;
+
+        final int statusCode = response.getStatus().getRequestStatus();
+        final boolean isError = statusCode >= 400;
+
+        if(level == Level.ERROR && !isError)
+            return;
+
+        if(level == Level.INFO && !isError && sampleRate > 1 && ThreadLocalRandom.current().nextInt(sampleRate) != 0)
+            return;
+
+        // NanoHTTPD reuses headers map for next request of a kept alive connection
+        final Map<String, String> headers = level == Level.DEBUG ? new HashMap<>(session.getHeaders()) : null;
+
+        Entry entry = new Entry(
+                session.getMethod(),
+                session.getUri(),
+                session.getQueryParameterString(),
+                session.getRemoteIpAddress(),
+                statusCode,
+                durationNanos,
+                headers
+        );
+
+        if(!buffer.offer(entry))
+            droppedCount.incrementAndGet();
+    }
+
+    public long getDroppedCount()
+    {
+        return droppedCount.get();
+    }
+
+    private void writeLoop()
+    {
+        long reportedDroppedCount = 0;
+
+        while (running)
+        {
+            final Entry entry;
+
+            try
+            {
+                entry = buffer.take();
+            } catch (InterruptedException e)
+            {
+                break;
+            }
+
+            write(entry);
+
+            final long dropped = droppedCount.get();
+
+            if(dropped != reportedDroppedCount && buffer.isEmpty())
+            {
+                Log.w(TAG, (dropped - reportedDroppedCount) + " request log entries dropped, log buffer was full");
+                reportedDroppedCount = dropped;
+            }
+        }
+
+        buffer.clear();
+    }
+
+    private static void write(Entry entry)
+    {
+        StringBuilder line = new StringBuilder(128)
+                .append(entry.method).append(' ')
+                .append(entry.uri);
+
+        if(entry.query != null && !entry.query.isEmpty())
+            line.append('?').append(redactQuery(entry.query));
+
+        line.append(' ').append(entry.statusCode)
+                .append(' ').append(String.format(Locale.ROOT, "%.1fms", entry.durationNanos / 1e6))
+                .append(" from ").append(entry.remoteAddress);
+
+        if(entry.headers != null)
+            line.append(' ').append(redactHeaders(entry.headers));
+
+        if(entry.statusCode >= 500)
+            Log.w(TAG, line.toString());
+        else if(entry.headers != null)
+            Log.d(TAG, line.toString());
+        else
+            Log.i(TAG, line.toString());
+    }
+
+    private static String redactQuery(String query)
+    {
+        StringBuilder redacted = new StringBuilder(query.length());
+
+        for (String parameter : query.split("&"))
+        {
+            if(redacted.length() > 0)
+                redacted.append('&');
+
+            final int equals = parameter.indexOf('=');
+            final String name = equals == -1 ? parameter : parameter.substring(0, equals);
+
+            if(name.equalsIgnoreCase("password"))
+                redacted.append(name).append('=').append(REDACTED);
+            else
+                redacted.append(parameter);
+        }
+
+        return redacted.toString();
+    }
+
+    private static Map<String, String> redactHeaders(Map<String, String> headers)
+    {
+        for (String name : new String[]{"authorization", "proxy-authorization", "cookie"})
+            if(headers.containsKey(name))
+                headers.put(name, REDACTED);
+
+        return headers;
+    }
+
+    private static class Entry {
+
+        private final NanoHTTPD.Method method;
+        private final String uri;
+        private final String query;
+        private final String remoteAddress;
+        private final int statusCode;
+        private final long durationNanos;
+
+        // only at DEBUG level
+        private final Map<String, String> headers;
+
+        private Entry(NanoHTTPD.Method method, String uri, String query, String remoteAddress, int statusCode, long durationNanos, Map<String, String> headers)
+        {
+            this.method = method;
+            this.uri = uri;
+            this.query = query;
+            this.remoteAddress = remoteAddress;
+            this.statusCode = statusCode;
+            this.durationNanos = durationNanos;
+            this.headers = headers;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package github.umer0586.smsserver.httpserver;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import androidx.annotation.NonNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+
+/*
+ * Parses body of /sendSMS request, either application/x-www-form-urlencoded (phone=...&message=...)
+ * or a JSON object ({"phone" : "...", "message" : "...", "password" : "...", "sim" : 1, "callback_url" : "...", "priority" : "high"}).
+ * Parameters are taken straight from body bytes, only values of known parameters are decoded and
+ * JSON is read with a streaming reader so no intermediate tree or URL is built
+ * */
+public class SMSRequestParser {
+
+    public static final int MAX_BODY_SIZE = 64 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private String phone;
+    private String message;
+    private String password;
+    private String sim;
+    private String callbackUrl;
+    private String priority;
+
+    private String error;
+
+    private SMSRequestParser()
+    {
+    }
+
+    public static SMSRequestParser parseForm(@NonNull byte[] body)
+    {
+        SMSRequestParser parser = new SMSRequestParser();
+
+        try
+        {
+            int start = 0;
+
+            while (start < body.length)
+            {
+                int end = indexOf(body, (byte) '&', start, body.length);
+                int equals = indexOf(body, (byte) '=', start, end);
+
+                if(end > start)
+                {
+                    String name = decodeForm(body, start, equals);
+
+                    if(isParameter(name))
+                        parser.setIfAbsent(name, equals < end ? decodeForm(body, equals + 1, end) : "");
+                }
+
+                start = end + 1;
+            }
+
+        } catch (IllegalArgumentException e)
+        {
+            parser.error = "body is not valid form data : " + e.getMessage();
+        }
+
+        return parser;
+    }
+
+    public static SMSRequestParser parseJson(@NonNull byte[] body)
+    {
+        SMSRequestParser parser = new SMSRequestParser();
+
+        try (JsonReader reader = new JsonReader(new InputStreamReader(new ByteArrayInputStream(body), UTF_8)))
+        {
+            reader.beginObject();
+
+            while (reader.hasNext())
+            {
+                String name = reader.nextName();
+
+                if(!isParameter(name) || reader.peek() == JsonToken.NULL)
+                {
+                    reader.skipValue();
+                    continue;
+                }
+
+                // numbers are returned as they appear in body so "sim" : 1 and "phone" : 923001234567 work too
+                parser.setIfAbsent(name, reader.nextString());
+            }
+
+            reader.endObject();
+
+        } catch (IOException | IllegalStateException e)
+        {
+            parser.error = "body is not a valid JSON object : " + e.getMessage();
+        }
+
+        return parser;
+    }
+
+    private static boolean isParameter(String name)
+    {
+        return "phone".equals(name) || "message".equals(name) || "password".equals(name)
+                || "sim".equals(name) || "callback_url".equals(name) || "priority".equals(name);
+    }
+
+    // first occurrence of a parameter wins, as with Uri.getQueryParameter()
+    private void setIfAbsent(String name, String value)
+    {
+        switch (name)
+        {
+            case "phone": if(phone == null) phone = value; break;
+            case "message": if(message == null) message = value; break;
+            case "password": if(password == null) password = value; break;
+            case "sim": if(sim == null) sim = value; break;
+            case "callback_url": if(callbackUrl == null) callbackUrl = value; break;
+            case "priority": if(priority == null) priority = value; break;
+        }
+    }
+
+    private static int indexOf(byte[] bytes, byte b, int from, int to)
+    {
+        for (int i = from; i < to; i++)
+            if(bytes[i] == b)
+                return i;
+
+        return to;
+    }
+
+    private static String decodeForm(byte[] body, int from, int to)
+    {
+        String encoded = new String(body, from, to - from, UTF_8);
+
+        // most names and many values carry nothing to decode
+        if(encoded.indexOf('%') < 0 && encoded.indexOf('+') < 0)
+            return encoded;
+
+        try
+        {
+            return URLDecoder.decode(encoded, "UTF-8");
+        } catch (UnsupportedEncodingException e)
+        {
+            // UTF-8 is always supported
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    public boolean hasError()
+    {
+        return error != null;
+    }
+
+    public String getError()
+    {
+        return error;
+    }
+
+    public String getPhone()
+    {
+        return phone;
+    }
+
+    public String getMessage()
+    {
+        return message;
+    }
+
+    public String getPassword()
+    {
+        return password;
+    }
+
+    public String getSim()
+    {
+        return sim;
+    }
+
+    public String getCallbackUrl()
+    {
+        return callbackUrl;
+    }
+
+    public String getPriority()
+    {
+        return priority;
+    }
+}
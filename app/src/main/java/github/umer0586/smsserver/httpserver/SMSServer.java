@@ -4,22 +4,51 @@ package github.umer0586.smsserver.httpserver;
 import android.Manifest;
 import android.content.Context;
 import android.content.pm.PackageManager;
-import android.net.Uri;
 import android.os.Build;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.security.KeyStore;
-import java.util.HashMap;
-
-import javax.net.ssl.KeyManagerFactory;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
 
 import fi.iki.elonen.NanoHTTPD;
+import github.umer0586.smsserver.metrics.Histogram;
+import github.umer0586.smsserver.metrics.Metrics;
+import github.umer0586.smsserver.metrics.MetricsWriter;
+import github.umer0586.smsserver.smssender.SMSDispatcher;
+import github.umer0586.smsserver.smssender.SMSOutbox;
+import github.umer0586.smsserver.smssender.SMSPriority;
+import github.umer0586.smsserver.smssender.SMSRequest;
 import github.umer0586.smsserver.smssender.SMSResult;
+import github.umer0586.smsserver.smssender.SMSRetryScheduler;
+import github.umer0586.smsserver.smssender.SMSSendWindow;
 import github.umer0586.smsserver.smssender.SMSSender;
+import github.umer0586.smsserver.smssender.SMSSenderPool;
+import github.umer0586.smsserver.smssender.SMSStatusStore;
+import io.reactivex.rxjava3.core.Single;
 
 public class SMSServer extends NanoHTTPD {
 
@@ -32,7 +61,54 @@ public class SMSServer extends NanoHTTPD {
 
 
     private boolean isPasswordEnable = false;
-    private String password;
+
+    // only a salted hash of password is kept, null until password is set
+    private volatile PasswordVerifier passwordVerifier;
+
+    // clients which keep failing password check are answered 429 before their request body is read
+    private final AuthFailureThrottle authFailureThrottle = new AuthFailureThrottle();
+
+    // when enabled, requests are queued and answered with 202 instead of waiting for SMS_SENT broadcast
+    private boolean isAsyncModeEnable = false;
+    private SMSDispatcher smsDispatcher;
+
+    // posts outcome of sms to callback URL of request or to this global webhook URL
+    private WebhookNotifier webhookNotifier;
+    private String webhookUrl;
+
+    // pushes sms status events to subscribers of /events
+    private EventStream eventStream;
+
+    // latest status of recent sms for /status lookups
+    private final SMSStatusStore smsStatusStore = new SMSStatusStore();
+
+    // responses of recent /sendSMS requests by Idempotency-Key header
+    private final IdempotencyCache idempotencyCache = new IdempotencyCache();
+
+    private final RequestLog requestLog = new RequestLog();
+
+    // routes sms across SIMs and paces them to stay below android/carrier sms limits
+    private final SMSSenderPool smsSenderPool;
+
+    // number of statuses returned by GET /status?phone=... by default and at most
+    private static final int DEFAULT_STATUS_LIMIT = 100;
+    private static final int MAX_STATUS_LIMIT = 1000;
+
+    // connection limits, see BoundedAsyncRunner
+    public static final int DEFAULT_WORKER_COUNT = 16;
+    public static final int DEFAULT_MAX_CONNECTIONS = 64;
+    public static final int DEFAULT_ACCEPT_BACKLOG = 50;
+
+    private int workerCount = DEFAULT_WORKER_COUNT;
+    private int maxConnections = DEFAULT_MAX_CONNECTIONS;
+    private int acceptBacklog = DEFAULT_ACCEPT_BACKLOG;
+    private BoundedAsyncRunner boundedAsyncRunner;
+
+    // how long a kept alive connection may stay idle (or a client may stall while sending a request)
+    private int idleTimeoutMillis = NanoHTTPD.SOCKET_READ_TIMEOUT;
+
+    private int maxRetries = SMSRetryScheduler.DEFAULT_MAX_RETRIES;
+    private int maxInFlight = SMSSendWindow.DEFAULT_MAX_IN_FLIGHT;
 
 
     private onStartedListener onStartedListener;
@@ -43,6 +119,7 @@ public class SMSServer extends NanoHTTPD {
         super(hostname, port);
 
         this.context = context;
+        this.smsSenderPool = new SMSSenderPool(context);
 
     }
 
@@ -55,31 +132,20 @@ public class SMSServer extends NanoHTTPD {
     {
 
         try {
-            KeyStore keystore = KeyStore.getInstance(KeyStore.getDefaultType());
-            InputStream keystoreStream = this.context.getAssets().open("keystore.bks");
-
-            if (keystoreStream == null)
-            {
-                this.isSecure = false;
-                throw new IOException("Unable to load keystore");
-
-            }
-
-            final String PASS = "12345";
-            keystore.load(keystoreStream, PASS.toCharArray());
-            KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
-            keyManagerFactory.init(keystore, PASS.toCharArray());
-            makeSecure(makeSSLSocketFactory(keystore, keyManagerFactory),null);
-
+            // SSLContext (and its session cache) is shared by every server started in this process
+            makeSecure(SSLContextCache.getSSLContext(context));
 
         } catch (Exception e) {
             this.isSecure = false;
             e.printStackTrace();
-            return;
         }
 
-        this.isSecure = true;
+    }
 
+    public void makeSecure(@NonNull SSLContext sslContext)
+    {
+        makeSecure(sslContext.getServerSocketFactory(), null);
+        this.isSecure = true;
     }
 
     public void enablePassword()
@@ -87,100 +153,212 @@ public class SMSServer extends NanoHTTPD {
         isPasswordEnable = true;
     }
 
-    public String getPassword()
+    public void setPassword(String password)
     {
-        return password;
+        this.passwordVerifier = password != null ? new PasswordVerifier(password) : null;
     }
 
-    public void setPassword(String password)
+    public void enableAsyncMode()
     {
-        this.password = password;
+        isAsyncModeEnable = true;
     }
 
-    @Override
-    public Response serve(IHTTPSession session)
+    public boolean isAsyncModeEnable()
     {
-        Log.i(TAG, "request URI: "+ session.getUri());
-        Log.i(TAG, "request headers " + session.getHeaders());
+        return isAsyncModeEnable;
+    }
 
+    /**
+     * @param smsPerMinute sustained send rate per SIM, 0 to disable rate limiting
+     * @param burst number of sms which can be sent back to back from one SIM
+     */
+    public void setSendRateLimit(int smsPerMinute, int burst)
+    {
+        smsSenderPool.setRateLimit(smsPerMinute, burst);
+    }
 
-        // check requested method
-        if(session.getMethod() != Method.POST)
-        {
-            return newFixedLengthResponse(
-                    Response.Status.METHOD_NOT_ALLOWED,
-                    "text/plain",
-                    "Method " + session.getMethod() + " not allowed, use POST"
-            );
-        }
+    /**
+     * @param workerCount number of threads serving connections
+     * @param maxConnections connections served or waiting for a worker, connections beyond this are rejected with 503
+     * @param acceptBacklog connections waiting to be accepted by operating system (plain HTTP only, secure sockets use platform default)
+     */
+    public void setConnectionLimits(int workerCount, int maxConnections, int acceptBacklog)
+    {
+        this.workerCount = Math.max(1, workerCount);
+        this.maxConnections = Math.max(this.workerCount, maxConnections);
+        this.acceptBacklog = Math.max(1, acceptBacklog);
+    }
 
+    /**
+     * @param idleTimeoutMillis time after which an idle persistent connection is closed.
+     *                          Idle connections hold a worker thread so keep this short when clients are many
+     */
+    public void setIdleTimeout(int idleTimeoutMillis)
+    {
+        this.idleTimeoutMillis = Math.max(1, idleTimeoutMillis);
+    }
 
-        final String contentType = session.getHeaders().get("content-type");
+    /**
+     * @param maxRetries number of times an sms failed for a transient reason is sent again (asynchronous mode only), 0 disables retries
+     */
+    public void setMaxRetries(int maxRetries)
+    {
+        this.maxRetries = Math.max(0, maxRetries);
+    }
 
-       if(contentType == null || !contentType.equalsIgnoreCase("application/x-www-form-urlencoded"))
-       {
-           return newFixedLengthResponse(
-                   Response.Status.UNSUPPORTED_MEDIA_TYPE,
-                   "text/plain",
-                   "un supported Content-Type please use application/x-www-form-urlencoded "
-           );
-       }
+    /**
+     * @param maxInFlight sms to different recipients sent at the same time (asynchronous mode only)
+     */
+    public void setMaxInFlight(int maxInFlight)
+    {
+        this.maxInFlight = Math.max(1, maxInFlight);
+    }
 
+    /**
+     * @param webhookUrl URL outcome of every sms without its own callback_url is posted to, null for none
+     */
+    public void setWebhookUrl(String webhookUrl)
+    {
+        this.webhookUrl = WebhookNotifier.isValidUrl(webhookUrl) ? webhookUrl : null;
+    }
 
+    /**
+     * @param sampleRate at INFO level one in sampleRate successful requests is logged
+     */
+    public void setRequestLogLevel(RequestLog.Level level, int sampleRate)
+    {
+        requestLog.setLevel(level, sampleRate);
+    }
 
-        try {
-            /*
-                This step is important for reading POST parameters from body
-                After calling session.parseBody(map) POST parameters will be available via session.getQueryParameterString()
+    @Override
+    public Response serve(IHTTPSession session)
+    {
+        final long start = System.nanoTime();
+        final Response response = route(session);
+        final long duration = System.nanoTime() - start;
 
-                HashMap<String,String> map = new HashMap<>();
-                session.parseBody(map);
-                map.get("postData") contains POST parameters from request body if client has set Content-Type to application/json
+        Metrics.REQUEST_DURATION.recordNanos(duration);
+        Metrics.HTTP_REQUESTS.increment(getMetricsPath(session.getUri()), String.valueOf(response.getStatus().getRequestStatus()));
+        requestLog.log(session, response, duration);
 
-                To read POST parameters when client Content-Type is application/x-form-www-urlencoded we must use session.getQueryParameterString()
+        return response;
+    }
 
-                Note that session.getParams() and session.getParameters() also contains POST parameters for application/x-form-www-urlencoded
-                but they also contains parameters from URL
-            */
-            session.parseBody(new HashMap<>());
+    private Response route(IHTTPSession session)
+    {
+        final Response throttled = checkAuthFailureThrottle(session);
 
-        } catch (IOException | ResponseException e) {
+        if(throttled != null)
+            return throttled;
 
-          return newFixedLengthResponse(
-                    Response.Status.INTERNAL_ERROR,
-                    "text/plain",
-                    "Exception occurred while parsing : " + e.getMessage()
-            );
+        if(session.getMethod() == Method.GET)
+        {
+            if(session.getUri().equalsIgnoreCase("/metrics"))
+                return handleMetricsRequest(session);
+
+            if(session.getUri().equalsIgnoreCase("/events"))
+                return handleEventsRequest(session);
+
+            if(session.getUri().equalsIgnoreCase("/status") || session.getUri().toLowerCase(Locale.ROOT).startsWith("/status/"))
+                return handleStatusRequest(session);
         }
 
+        // check requested method
+        if(session.getMethod() != Method.POST)
+        {
+            return closeConnection(newErrorResponse(
+                    Response.Status.METHOD_NOT_ALLOWED,
+                    "Method " + session.getMethod() + " not allowed, use POST (GET for /events, /status and /metrics)"
+            ));
+        }
+
+        // bodies are read by Content-Length only, a chunked body would be taken as empty and its chunks as next request
+        final String transferEncoding = session.getHeaders().get("transfer-encoding");
+
+        if(transferEncoding != null && !transferEncoding.trim().equalsIgnoreCase("identity"))
+        {
+            return closeConnection(newErrorResponse(
+                    Response.Status.LENGTH_REQUIRED,
+                    "Transfer-Encoding " + transferEncoding + " not supported, send request body with Content-Length"
+            ));
+        }
+
+        if( session.getUri().equalsIgnoreCase("/sendSMSBatch"))
+            return handleSMSBatchRequest(session);
 
         if( session.getUri().equalsIgnoreCase("/sendSMS"))
             return handleSMSRequest(session);
 
-        return newFixedLengthResponse(
+        Response notFound = newErrorResponse(
                 Response.Status.NOT_FOUND,
-                "text/plain",
-                "unknown request path. Use /sendSMS"
+                "unknown request path. Use /sendSMS, /sendSMSBatch, GET /events, GET /status or GET /metrics"
         );
+
+        // body is read and dropped so that connection can be reused
+        try
+        {
+            if(readBody(session, SMSRequestParser.MAX_BODY_SIZE) != null)
+                return notFound;
+
+        } catch (IOException e)
+        {
+            // connection is closed below
+        }
+
+        return closeConnection(notFound);
     }
 
     private Response handleSMSRequest(IHTTPSession session)
     {
+        final String mediaType = getMediaType(session);
 
-        Uri uri = Uri.parse(session.getUri()+ "?" +session.getQueryParameterString());
+        final boolean isForm = "application/x-www-form-urlencoded".equals(mediaType);
+        final boolean isJson = "application/json".equals(mediaType);
 
+        if(!isForm && !isJson)
+        {
+            return closeConnection(newErrorResponse(
+                    Response.Status.UNSUPPORTED_MEDIA_TYPE,
+                    "un supported Content-Type please use application/x-www-form-urlencoded or application/json"
+            ));
+        }
+
+        final long parseStart = System.nanoTime();
+        final byte[] body;
 
-        String phone = uri.getQueryParameter("phone");
-        String message = uri.getQueryParameter("message");
-        String password = uri.getQueryParameter("password");
+        try
+        {
+            body = readBody(session, SMSRequestParser.MAX_BODY_SIZE);
 
+        } catch (IOException e)
+        {
+            return closeConnection(newErrorResponse(
+                    Response.Status.BAD_REQUEST,
+                    "unable to read request body : " + e.getMessage()
+            ));
+        }
 
+        if(body == null)
+        {
+            return closeConnection(newErrorResponse(
+                    Response.Status.PAYLOAD_TOO_LARGE,
+                    "request body is larger than " + SMSRequestParser.MAX_BODY_SIZE + " bytes"
+            ));
+        }
+
+        final SMSRequestParser request = isJson ? SMSRequestParser.parseJson(body) : SMSRequestParser.parseForm(body);
+        Metrics.REQUEST_PARSE_TIME.recordNanos(System.nanoTime() - parseStart);
+
+        if(request.hasError())
+            return newErrorResponse(Response.Status.BAD_REQUEST, request.getError());
+
+        final String phone = request.getPhone();
+        final String message = request.getMessage();
 
         if(phone == null)
         {
-            return newFixedLengthResponse(
+            return newErrorResponse(
                     Response.Status.BAD_REQUEST,
-                    "text/plain",
                     "<phone> parameter missing"
             );
 
@@ -188,76 +366,905 @@ public class SMSServer extends NanoHTTPD {
         else if( message == null)
         {
 
-            return newFixedLengthResponse(
+            return newErrorResponse(
                     Response.Status.BAD_REQUEST,
-                    "text/plain",
                     "<message> parameter missing"
             );
         }
 
+        final int simSlot = parseSim(request.getSim());
+
+        if(simSlot < 0 || !smsSenderPool.hasSim(simSlot))
+        {
+            return newErrorResponse(
+                    Response.Status.BAD_REQUEST,
+                    "<sim> must be number of an active SIM slot (1, 2 ...)"
+            );
+        }
+
+        final SMSPriority priority = SMSPriority.parse(request.getPriority());
+
+        if(priority == null)
+        {
+            return newErrorResponse(
+                    Response.Status.BAD_REQUEST,
+                    "<priority> must be high, normal or bulk"
+            );
+        }
+
+        final Response authFailure = checkPassword(session, request.getPassword() != null ? request.getPassword() : getQueryParameter(session, "password"));
+
+        if(authFailure != null)
+            return authFailure;
+
+        final String callbackUrl = request.getCallbackUrl();
+        final String callbackUrlError = checkCallbackUrl(callbackUrl);
+
+        if(callbackUrlError != null)
+            return newErrorResponse(Response.Status.BAD_REQUEST, callbackUrlError);
+
+        if(!hasPermissionToSendSMS())
+        {
+            return newErrorResponse(
+                    Response.Status.FORBIDDEN,
+                    "App has no permission to send sms, please grant permission in settings"
+            );
+
+        }
+
+        final SMSRequest smsRequest = new SMSRequest(phone, message, simSlot, callbackUrl, priority);
+
+        // a client retrying with same key gets response of its first attempt, sms is not sent again
+        final String idempotencyKey = session.getHeaders().get("idempotency-key");
+
+        if(idempotencyKey != null)
+        {
+            if(idempotencyKey.isEmpty() || idempotencyKey.length() > IdempotencyCache.MAX_KEY_LENGTH)
+            {
+                return newErrorResponse(
+                        Response.Status.BAD_REQUEST,
+                        "Idempotency-Key must be 1 to " + IdempotencyCache.MAX_KEY_LENGTH + " characters"
+                );
+            }
+
+            final byte[] fingerprint = IdempotencyCache.fingerprint(phone, message, String.valueOf(simSlot), priority.name(), callbackUrl);
+            final IdempotencyCache.Record earlier = idempotencyCache.begin(idempotencyKey, fingerprint, smsRequest.getId());
+
+            if(earlier != null)
+                return replayResponse(earlier, fingerprint);
+        }
+
+        final Response response = isAsyncModeEnable() ? enqueueSMS(smsRequest) : sendSMSAndRespond(smsRequest);
+
+        if(idempotencyKey != null)
+            rememberResponse(idempotencyKey, response);
+
+        return response;
+    }
+
+    private Response sendSMSAndRespond(SMSRequest smsRequest)
+    {
+        // send sms when everything is OKAY !
+        //blocking call
+        final SMSResult result = sendSMSPaced(smsRequest);
+        onSMSCompleted(smsRequest, result);
+
+        final JSONObject responseBody = newResultJson(smsRequest, result);
+
+        if(result.getStatus() == SMSResult.STATUS_SENT_SUCCESS)
+            return newJsonResponse(Response.Status.OK, responseBody);
+
+        return newJsonResponse(
+                result.getStatus() == SMSResult.STATUS_EXCEPTION_OCCURRED
+                        ? Response.Status.BAD_REQUEST //because the client has provided invalid address
+                        : Response.Status.INTERNAL_ERROR,
+                responseBody
+        );
+
+    }
+
+    private Response handleSMSBatchRequest(IHTTPSession session)
+    {
+        final String mediaType = getMediaType(session);
+
+        final boolean isJson = "application/json".equals(mediaType);
+        final boolean isNdjson = "application/x-ndjson".equals(mediaType);
+
+        if(!isJson && !isNdjson)
+        {
+            return closeConnection(newErrorResponse(
+                    Response.Status.UNSUPPORTED_MEDIA_TYPE,
+                    "un supported Content-Type please use application/json or application/x-ndjson"
+            ));
+        }
+
+        // body carries the messages so password is read from URL query string, and checked before body is read
+        final Response authFailure = checkPassword(session, getQueryParameter(session, "password"));
+
+        if(authFailure != null)
+            return closeConnection(authFailure);
+
+        final long parseStart = System.nanoTime();
+        final byte[] body;
+
+        try
+        {
+            body = readBody(session, BatchRequestParser.MAX_BODY_SIZE);
+
+        } catch (IOException e)
+        {
+            return closeConnection(newErrorResponse(
+                    Response.Status.BAD_REQUEST,
+                    "unable to read request body : " + e.getMessage()
+            ));
+        }
+
+        if(body == null)
+        {
+            return closeConnection(newErrorResponse(
+                    Response.Status.PAYLOAD_TOO_LARGE,
+                    "request body is larger than " + BatchRequestParser.MAX_BODY_SIZE + " bytes"
+            ));
+        }
+
+        if(!hasPermissionToSendSMS())
+        {
+            return newErrorResponse(
+                    Response.Status.FORBIDDEN,
+                    "App has no permission to send sms, please grant permission in settings"
+            );
+        }
+
+        final String bodyText = new String(body, StandardCharsets.UTF_8);
+        final BatchRequestParser batch = isNdjson ? BatchRequestParser.parseNdjson(bodyText) : BatchRequestParser.parseJson(bodyText);
+        Metrics.REQUEST_PARSE_TIME.recordNanos(System.nanoTime() - parseStart);
+
+        for (SMSRequest smsRequest : batch.getSMSRequests())
+        {
+            if(!smsSenderPool.hasSim(smsRequest.getSim()))
+                batch.getErrors().add("message " + smsRequest.getId() + " to " + smsRequest.getPhone() + " : SIM " + smsRequest.getSim() + " not available");
+
+            final String callbackUrlError = checkCallbackUrl(smsRequest.getCallbackUrl());
+
+            if(callbackUrlError != null)
+                batch.getErrors().add("message " + smsRequest.getId() + " to " + smsRequest.getPhone() + " : " + callbackUrlError);
+        }
+
+        if(batch.hasErrors())
+        {
+            return newJsonResponse(
+                    Response.Status.BAD_REQUEST,
+                    newJsonObject("errors", new JSONArray(batch.getErrors()))
+            );
+        }
+
+        if(batch.getSMSRequests().isEmpty())
+        {
+            return newErrorResponse(
+                    Response.Status.BAD_REQUEST,
+                    "batch contains no messages"
+            );
+        }
+
+        if(batch.getSMSRequests().size() > BatchRequestParser.MAX_BATCH_SIZE)
+        {
+            return newErrorResponse(
+                    Response.Status.PAYLOAD_TOO_LARGE,
+                    "batch contains more than " + BatchRequestParser.MAX_BATCH_SIZE + " messages"
+            );
+        }
+
+        JSONArray results = new JSONArray();
+
+        if(isAsyncModeEnable())
+        {
+            // whole batch is persisted with one outbox commit
+            final int queuedCount = smsDispatcher.enqueueAll(batch.getSMSRequests());
+
+            for (int i = 0; i < batch.getSMSRequests().size(); i++)
+            {
+                final SMSRequest smsRequest = batch.getSMSRequests().get(i);
+
+                JSONObject item = newJsonObject("id", smsRequest.getId());
+                putJson(item, "phone", smsRequest.getPhone());
+                putJson(item, "status", i < queuedCount ? "QUEUED" : "QUEUE_FULL");
+                results.put(item);
+            }
+        }
+        else
+        {
+            // every sms is handed over as soon as rate limiter allows, worker waits for their results once at the end
+            // instead of for one SENT broadcast after another
+            final List<Single<SMSResult>> sends = new ArrayList<>(batch.getSMSRequests().size());
+
+            for (SMSRequest smsRequest : batch.getSMSRequests())
+                sends.add(sendSMSPacedAsync(smsRequest));
+
+            for (int i = 0; i < sends.size(); i++)
+            {
+                final SMSRequest smsRequest = batch.getSMSRequests().get(i);
+
+                //blocking call
+                final SMSResult result = awaitResult(sends.get(i));
+                onSMSCompleted(smsRequest, result);
+                results.put(newResultJson(smsRequest, result));
+            }
+        }
+
+        JSONObject responseBody = newJsonObject("results", results);
+
+        if(isAsyncModeEnable())
+        {
+            putJson(responseBody, "queueDepth", smsDispatcher.getQueueDepth());
+
+            // eta of the item of lowest priority, which is sent last
+            SMSPriority lowestPriority = SMSPriority.HIGH;
+
+            for (SMSRequest smsRequest : batch.getSMSRequests())
+                if(smsRequest.getPriority().compareTo(lowestPriority) > 0)
+                    lowestPriority = smsRequest.getPriority();
+
+            final long etaMillis = smsDispatcher.getEstimatedWaitMillis(lowestPriority);
+
+            if(etaMillis >= 0)
+                putJson(responseBody, "etaSeconds", toSeconds(etaMillis));
+        }
+
+        return newJsonResponse(
+                isAsyncModeEnable() ? Response.Status.ACCEPTED : Response.Status.OK,
+                responseBody
+        );
+    }
+
+    /**
+     * @return response of earlier request with same Idempotency-Key, 202 with its message id while it is still being sent
+     */
+    private Response replayResponse(IdempotencyCache.Record earlier, byte[] fingerprint)
+    {
+        if(!earlier.matches(fingerprint))
+        {
+            return newErrorResponse(
+                    Response.Status.CONFLICT,
+                    "Idempotency-Key was already used for a different request"
+            );
+        }
+
+        final Response response;
+
+        if(earlier.isCompleted())
+        {
+            response = newFixedLengthResponse(earlier.getStatus(), "application/json", earlier.getBody());
+        }
+        else
+        {
+            JSONObject responseBody = newJsonObject("status", "IN_PROGRESS");
+            putJson(responseBody, "id", earlier.getMessageId());
+
+            response = newJsonResponse(Response.Status.ACCEPTED, responseBody);
+        }
+
+        response.addHeader("X-Message-Id", earlier.getMessageId());
+        response.addHeader("Idempotent-Replayed", "true");
+
+        return response;
+    }
+
+    private void rememberResponse(String idempotencyKey, Response response)
+    {
+        // nothing was sent, let client retry with same key
+        if(response.getStatus() == Response.Status.SERVICE_UNAVAILABLE)
+        {
+            idempotencyCache.abandon(idempotencyKey);
+            return;
+        }
+
+        // body of a fixed length response is an in-memory stream, read it and put a fresh copy back
+        try
+        {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            InputStream data = response.getData();
+            byte[] buffer = new byte[1024];
+
+            for (int read = data.read(buffer); read != -1; read = data.read(buffer))
+                body.write(buffer, 0, read);
+
+            response.setData(new ByteArrayInputStream(body.toByteArray()));
+            idempotencyCache.complete(idempotencyKey, response.getStatus(), body.toString("UTF-8"));
+
+        } catch (IOException e)
+        {
+            idempotencyCache.abandon(idempotencyKey);
+        }
+    }
+
+    /**
+     * Streams sms status events (queued, dispatched, sent, failed) as Server-Sent Events until client disconnects.
+     * Optional overflow=disconnect query parameter disconnects a subscriber which falls behind, by default
+     * oldest events are dropped instead
+     */
+    private Response handleEventsRequest(IHTTPSession session)
+    {
+        final Response authFailure = checkPassword(session, getQueryParameter(session, "password"));
+
+        if(authFailure != null)
+            return authFailure;
+
+        final EventStream.OverflowPolicy overflowPolicy = "disconnect".equalsIgnoreCase(getQueryParameter(session, "overflow"))
+                ? EventStream.OverflowPolicy.DISCONNECT
+                : EventStream.OverflowPolicy.DROP_OLDEST;
+
+        final EventStream.Subscriber subscriber = eventStream.subscribe(overflowPolicy);
+
+        if(subscriber == null)
+        {
+            Response response = newErrorResponse(
+                    Response.Status.SERVICE_UNAVAILABLE,
+                    "too many event subscribers"
+            );
+            response.addHeader("Retry-After","10");
+
+            return response;
+        }
+
+        Response response = newChunkedResponse(Response.Status.OK, "text/event-stream", subscriber);
+        response.addHeader("Cache-Control", "no-cache");
+
+        return closeConnection(response);
+    }
+
+    /**
+     * Serves counters, gauges and latency summaries in Prometheus text exposition format
+     */
+    private Response handleMetricsRequest(IHTTPSession session)
+    {
+        final Response authFailure = checkPassword(session, getQueryParameter(session, "password"));
+
+        if(authFailure != null)
+            return authFailure;
+
+        MetricsWriter writer = Metrics.write(new MetricsWriter())
+                .gauge("smsserver_queue_depth", "Sms waiting in send queue", smsDispatcher != null ? smsDispatcher.getQueueDepth() : 0)
+                .gauge("smsserver_sms_in_flight", "Sms being sent, waiting for SIM rate limiter or SENT broadcast", smsDispatcher != null ? smsDispatcher.getInFlightCount() : 0)
+                .gauge("smsserver_sms_awaiting_sent_broadcast", "Sms handed to SmsManager and waiting for their SENT broadcast", SMSSender.getOutstandingSendCount())
+                .gauge("smsserver_sms_awaiting_send_slot", "Sms waiting for an outstanding send to complete before being handed to SmsManager", SMSSender.getWaitingSendCount())
+                .gauge("smsserver_retries_waiting", "Failed sms waiting for retry backoff", smsDispatcher != null ? smsDispatcher.getWaitingRetryCount() : 0)
+                .counter("smsserver_retries_total", "Retries scheduled for failed sms", smsDispatcher != null ? smsDispatcher.getScheduledRetryCount() : 0)
+                .gauge("smsserver_status_store_entries", "Sms statuses kept for /status", smsStatusStore.size())
+                .gauge("smsserver_event_subscribers", "Connected /events subscribers", eventStream != null ? eventStream.getSubscriberCount() : 0)
+                .gauge("smsserver_webhook_pending", "Webhook notifications waiting to be delivered", webhookNotifier.getPendingCount())
+                .counter("smsserver_webhook_delivered_total", "Webhook notifications delivered", webhookNotifier.getDeliveredCount())
+                .counter("smsserver_webhook_dropped_total", "Webhook notifications dropped", webhookNotifier.getDroppedCount())
+                .counter("smsserver_tls_handshakes_total", "TLS handshakes completed", SSLContextCache.getHandshakeCount())
+                .counter("smsserver_tls_resumed_handshakes_total", "TLS handshakes which resumed a cached session", SSLContextCache.getResumedHandshakeCount())
+                .gauge("smsserver_auth_throttled_clients", "Clients answered 429 because of too many invalid passwords", authFailureThrottle.getBlockedCount())
+                .counter("smsserver_request_log_dropped_total", "Request log entries dropped because log buffer was full", requestLog.getDroppedCount())
+                .gauge("smsserver_jvm_threads", "Live threads of app process", Thread.activeCount());
+
+        if(smsDispatcher != null)
+        {
+            Map<String, Number> depthByPriority = new LinkedHashMap<>();
+            Map<String, Histogram> waitByPriority = new LinkedHashMap<>();
+
+            for (SMSPriority priority : SMSPriority.values())
+            {
+                depthByPriority.put(priority.getName(), smsDispatcher.getQueueDepth(priority));
+                waitByPriority.put(priority.getName(), smsDispatcher.getQueueWaitTime(priority));
+            }
+
+            writer.gauge("smsserver_lane_queue_depth", "Sms waiting in send queue by priority", "priority", depthByPriority)
+                    .summary("smsserver_lane_queue_wait_seconds", "Time sms waited in send queue by priority", "priority", waitByPriority);
+        }
+
+        if(boundedAsyncRunner != null)
+        {
+            writer.gauge("smsserver_active_connections", "Open client connections", boundedAsyncRunner.getActiveConnectionCount())
+                    .gauge("smsserver_busy_workers", "Worker threads serving a connection", boundedAsyncRunner.getBusyWorkerCount())
+                    .gauge("smsserver_workers", "Worker threads", workerCount)
+                    .counter("smsserver_rejected_connections_total", "Connections rejected because limit was reached", boundedAsyncRunner.getRejectedConnectionCount());
+        }
+
+        return newFixedLengthResponse(Response.Status.OK, MetricsWriter.CONTENT_TYPE, writer.toString());
+    }
+
+    /**
+     * @return request path as metrics label, unknown paths share one label so that number of counters stays fixed
+     */
+    private static String getMetricsPath(String uri)
+    {
+        final String path = uri.toLowerCase(Locale.ROOT);
+
+        switch (path)
+        {
+            case "/sendsms": return "/sendSMS";
+            case "/sendsmsbatch": return "/sendSMSBatch";
+            case "/events":
+            case "/status":
+            case "/metrics":
+                return path;
+            default: return path.startsWith("/status/") ? "/status/{id}" : "other";
+        }
+    }
+
+    /**
+     * GET /status/{id} returns status of one sms, GET /status?phone=...&since=...&limit=... returns
+     * statuses of recent sms to phone and/or recorded since given epoch milliseconds, newest first
+     */
+    private Response handleStatusRequest(IHTTPSession session)
+    {
+        final Response authFailure = checkPassword(session, getQueryParameter(session, "password"));
+
+        if(authFailure != null)
+            return authFailure;
+
+        final String uri = session.getUri();
+
+        if(uri.length() > "/status/".length())
+        {
+            final SMSStatusStore.SMSStatus smsStatus = smsStatusStore.get(uri.substring("/status/".length()));
+
+            if(smsStatus == null)
+            {
+                return newErrorResponse(
+                        Response.Status.NOT_FOUND,
+                        "unknown message id, status of old messages is not kept"
+                );
+            }
+
+            return newJsonResponse(Response.Status.OK, newStatusJson(smsStatus));
+        }
+
+        final String phone = getQueryParameter(session, "phone");
+        final String since = getQueryParameter(session, "since");
+        final String limit = getQueryParameter(session, "limit");
+
+        if(phone == null && since == null)
+        {
+            return newErrorResponse(
+                    Response.Status.BAD_REQUEST,
+                    "<phone> or <since> parameter required"
+            );
+        }
+
+        final long sinceMillis;
+        final int maxResults;
+
+        try
+        {
+            sinceMillis = since == null ? 0 : Long.parseLong(since);
+            maxResults = limit == null ? DEFAULT_STATUS_LIMIT : Math.max(1, Math.min(MAX_STATUS_LIMIT, Integer.parseInt(limit)));
+
+        } catch (NumberFormatException e)
+        {
+            return newErrorResponse(
+                    Response.Status.BAD_REQUEST,
+                    "<since> and <limit> must be numbers"
+            );
+        }
+
+        final List<SMSStatusStore.SMSStatus> smsStatuses = phone != null
+                ? smsStatusStore.findByPhone(phone, sinceMillis, maxResults)
+                : smsStatusStore.findSince(sinceMillis, maxResults);
+
+        JSONArray results = new JSONArray();
+
+        for (SMSStatusStore.SMSStatus smsStatus : smsStatuses)
+            results.put(newStatusJson(smsStatus));
+
+        return newJsonResponse(Response.Status.OK, newJsonObject("results", results));
+    }
+
+    @Override
+    protected boolean useGzipWhenAccepted(Response response)
+    {
+        // GZIPOutputStream would hold events back until its buffer fills up
+        return !"text/event-stream".equals(response.getMimeType()) && super.useGzipWhenAccepted(response);
+    }
+
+    /**
+     * Blocks until rate limiter of chosen SIM allows a send (if rate limiting is enabled) and then until sms is sent or failed
+     */
+    private SMSResult sendSMSPaced(SMSRequest smsRequest)
+    {
+        onSMSDispatched(smsRequest);
+
+        try
+        {
+            return smsSenderPool.send(smsRequest);
+
+        } catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return newInterruptedResult();
+        }
+    }
+
+    /**
+     * Blocks until rate limiter of chosen SIM allows a send (if rate limiting is enabled), sms is already being sent
+     * when this returns. Use {@link #awaitResult(Single)} for its result
+     */
+    private Single<SMSResult> sendSMSPacedAsync(SMSRequest smsRequest)
+    {
+        onSMSDispatched(smsRequest);
+
+        try
+        {
+            final Single<SMSResult> send = smsSenderPool.sendAsync(smsRequest).cache();
+            send.subscribe();
+            return send;
+
+        } catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return Single.just(newInterruptedResult());
+        }
+    }
+
+    private static SMSResult awaitResult(Single<SMSResult> send)
+    {
+        try
+        {
+            return send.blockingGet();
+
+        } catch (RuntimeException e)
+        {
+            // blockingGet() wraps InterruptedException, send itself never fails
+            Thread.currentThread().interrupt();
+
+            SMSResult result = new SMSResult();
+            result.setStatus(SMSResult.STATUS_EXCEPTION_OCCURRED);
+            result.setReason("interrupted while waiting for sms to be sent");
+            return result;
+        }
+    }
+
+    private static SMSResult newInterruptedResult()
+    {
+        SMSResult result = new SMSResult();
+        result.setStatus(SMSResult.STATUS_EXCEPTION_OCCURRED);
+        result.setReason("interrupted while waiting for send rate limiter");
+        return result;
+    }
+
+    /**
+     * @return SIM slot, SMSSenderPool.ANY_SIM when parameter is absent or -1 when it is not a valid number
+     */
+    private static int parseSim(String sim)
+    {
+        if(sim == null || sim.isEmpty())
+            return SMSSenderPool.ANY_SIM;
+
+        try
+        {
+            return Math.max(-1, Integer.parseInt(sim));
+        } catch (NumberFormatException e)
+        {
+            return -1;
+        }
+    }
+
+    private static long toSeconds(long millis)
+    {
+        return (millis + 999) / 1000;
+    }
+
+    /*
+     * Connections are kept alive between requests (HTTP/1.1 persistent connections). When we respond before
+     * request body has been read, unread body would be taken as start of next request on that connection, so
+     * such responses close the connection instead.
+     * */
+    private static Response closeConnection(Response response)
+    {
+        response.closeConnection(true);
+        return response;
+    }
+
+    private void onSMSQueued(SMSRequest smsRequest)
+    {
+        JSONObject event = newJsonObject("id", smsRequest.getId());
+        putJson(event, "phone", smsRequest.getPhone());
+        putJson(event, "status", "QUEUED");
+
+        smsStatusStore.update(smsRequest, "QUEUED", null);
+
+        eventStream.publish("queued", event);
+    }
+
+    private void onSMSDispatched(SMSRequest smsRequest)
+    {
+        JSONObject event = newJsonObject("id", smsRequest.getId());
+        putJson(event, "phone", smsRequest.getPhone());
+        putJson(event, "status", "DISPATCHED");
+
+        smsStatusStore.update(smsRequest, "DISPATCHED", null);
+
+        eventStream.publish("dispatched", event);
+    }
+
+    private void onSMSRetry(SMSRequest smsRequest, SMSResult result, int retry, long delayMillis)
+    {
+        JSONObject event = newResultJson(smsRequest, result);
+        putJson(event, "status", "RETRYING");
+        putJson(event, "retry", retry);
+        putJson(event, "retryInSeconds", toSeconds(delayMillis));
+
+        smsStatusStore.update(smsRequest, "RETRYING", result);
+
+        eventStream.publish("retrying", event);
+    }
+
+    /**
+     * Called once sms is sent or failed, from the thread which sent it
+     */
+    private void onSMSCompleted(SMSRequest smsRequest, SMSResult result)
+    {
+        smsStatusStore.update(smsRequest, result.getStatusName(), result);
+        eventStream.publish(result.getStatus() == SMSResult.STATUS_SENT_SUCCESS ? "sent" : "failed", newResultJson(smsRequest, result));
+
+        final String url = smsRequest.getCallbackUrl() != null ? smsRequest.getCallbackUrl() : webhookUrl;
+
+        // webhook URL set in settings is trusted to be on local network, callback URL of a client is not
+        final boolean publicOnly = smsRequest.getCallbackUrl() != null && !smsRequest.getCallbackUrl().equals(webhookUrl);
+
+        if(url != null && webhookNotifier != null)
+            webhookNotifier.notify(url, newResultJson(smsRequest, result), publicOnly);
+    }
+
+    /**
+     * @return {"id" : "...", "phone" : "...", "status" : "SENT", "parts" : 1} or, when sms was not sent, with "reason" instead of "parts"
+     */
+    private static JSONObject newResultJson(SMSRequest smsRequest, SMSResult result)
+    {
+        JSONObject json = newJsonObject("id", smsRequest.getId());
+        putJson(json, "phone", smsRequest.getPhone());
+        putJson(json, "status", result.getStatusName());
+
+        if(result.getStatus() == SMSResult.STATUS_SENT_SUCCESS)
+        {
+            putJson(json, "parts", result.getPartCount());
+        }
+        else
+        {
+            putJson(json, "reason", result.getReason());
+
+            if(result.getErrorCode() != 0)
+            {
+                putJson(json, "errorCode", result.getErrorCode());
+                putJson(json, "error", result.getError().name());
+            }
+
+            putJson(json, "retryable", result.isRetryable());
+        }
+
+        return json;
+    }
+
+    private static JSONObject newStatusJson(SMSStatusStore.SMSStatus smsStatus)
+    {
+        JSONObject json = newJsonObject("id", smsStatus.getId());
+        putJson(json, "phone", smsStatus.getPhone());
+        putJson(json, "status", smsStatus.getStatus());
+
+        if(smsStatus.getReason() != null)
+            putJson(json, "reason", smsStatus.getReason());
+
+        if(smsStatus.getErrorCode() != 0)
+            putJson(json, "errorCode", smsStatus.getErrorCode());
+
+        if("SENT".equals(smsStatus.getStatus()))
+            putJson(json, "parts", smsStatus.getPartCount());
+
+        putJson(json, "recordedAt", smsStatus.getRecordedAt());
+        putJson(json, "updatedAt", smsStatus.getUpdatedAt());
+
+        return json;
+    }
+
+    private static JSONObject newJsonObject(String name, Object value)
+    {
+        JSONObject jsonObject = new JSONObject();
+        putJson(jsonObject, name, value);
+        return jsonObject;
+    }
+
+    private static void putJson(JSONObject jsonObject, String name, Object value)
+    {
+        try
+        {
+            jsonObject.put(name, value);
+        } catch (JSONException e)
+        {
+            // only thrown for null names or non finite numbers
+            e.printStackTrace();
+        }
+    }
+
+    private static Response newJsonResponse(Response.Status status, JSONObject body)
+    {
+        return newFixedLengthResponse(status, "application/json", body.toString());
+    }
+
+    /**
+     * @return JSON response {"status" : "ERROR", "reason" : "..."}
+     */
+    private static Response newErrorResponse(Response.Status status, String reason)
+    {
+        JSONObject body = newJsonObject("status", "ERROR");
+        putJson(body, "reason", reason);
+
+        return newJsonResponse(status, body);
+    }
+
+    /**
+     * @return media type of request body in lower case without parameters (e.g "; charset=UTF-8"), null when absent
+     */
+    private static String getMediaType(IHTTPSession session)
+    {
+        final String contentType = session.getHeaders().get("content-type");
+
+        if(contentType == null)
+            return null;
+
+        final int separator = contentType.indexOf(';');
+        return (separator < 0 ? contentType : contentType.substring(0, separator)).trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static String getQueryParameter(IHTTPSession session, String name)
+    {
+        List<String> values = session.getParameters().get(name);
+        return values == null || values.isEmpty() ? null : values.get(0);
+    }
+
+    /**
+     * Reads exactly Content-Length bytes of request body, so that next request on a persistent connection starts
+     * where this body ends
+     *
+     * @return body, null when body is larger than maxSize (in which case nothing is read)
+     */
+    private static byte[] readBody(IHTTPSession session, int maxSize) throws IOException
+    {
+        final String contentLength = session.getHeaders().get("content-length");
+        final long length;
+
+        try
+        {
+            length = contentLength == null ? 0 : Long.parseLong(contentLength.trim());
+        } catch (NumberFormatException e)
+        {
+            throw new IOException("invalid Content-Length " + contentLength);
+        }
+
+        if(length < 0)
+            throw new IOException("invalid Content-Length " + contentLength);
+
+        if(length > maxSize)
+            return null;
+
+        byte[] body = new byte[(int) length];
+        new DataInputStream(session.getInputStream()).readFully(body);
+
+        return body;
+    }
+
+    /**
+     * @return response to send back to client when password check fails, null when password is accepted
+     */
+    private Response checkPassword(IHTTPSession session, String password)
+    {
         // don't check for password option when security option is disabled
-        if( isPasswordEnable() && isSecure)
+        if(isPasswordCheckEnabled())
         {
 
             if(password == null)
             {
+                authFailureThrottle.onFailure(session.getRemoteIpAddress());
 
-                return newFixedLengthResponse(
+                return newErrorResponse(
                         Response.Status.BAD_REQUEST,
-                        "text/plain",
                         "<password> parameter required"
                 );
 
             }
 
-            else if(!this.getPassword().equals(password))
+            final PasswordVerifier passwordVerifier = this.passwordVerifier;
+
+            if(passwordVerifier == null || !passwordVerifier.matches(password))
             {
+                authFailureThrottle.onFailure(session.getRemoteIpAddress());
 
-                Response httpsResponse = newFixedLengthResponse("invalid Password");
+                Response httpsResponse = newErrorResponse(Response.Status.UNAUTHORIZED, "invalid Password");
                 httpsResponse.addHeader("WWW-Authenticate","Invalid Password");
-                httpsResponse.setMimeType("text/plain");
-                httpsResponse.setStatus(Response.Status.UNAUTHORIZED);
 
                 return httpsResponse;
             }
 
+            authFailureThrottle.onSuccess(session.getRemoteIpAddress());
         }
 
-        if(!hasPermissionToSendSMS())
+        return null;
+    }
+
+    /**
+     * Server posts to callback URL on behalf of client, so it is only taken from clients which passed password check
+     * and may not point to the device itself or the local network
+     *
+     * @return reason callback URL is refused, null when it is accepted or absent
+     */
+    private String checkCallbackUrl(String callbackUrl)
+    {
+        if(callbackUrl == null)
+            return null;
+
+        if(!isPasswordCheckEnabled())
+            return "<callback_url> is only accepted when password is enabled, set Webhook URL in settings instead";
+
+        if(!WebhookNotifier.isValidUrl(callbackUrl))
+            return "<callback_url> must be an http or https URL";
+
+        if(!WebhookNotifier.isPublicUrl(callbackUrl))
+            return "<callback_url> must not point to a local or private address";
+
+        return null;
+    }
+
+    /**
+     * @return 429 response when client failed password check too many times recently, null otherwise
+     */
+    private Response checkAuthFailureThrottle(IHTTPSession session)
+    {
+        if(!isPasswordCheckEnabled())
+            return null;
+
+        final long blockedMillis = authFailureThrottle.getBlockedMillis(session.getRemoteIpAddress());
+
+        if(blockedMillis <= 0)
+            return null;
+
+        Response response = newErrorResponse(Response.Status.TOO_MANY_REQUESTS, "too many invalid passwords, try again later");
+        response.addHeader("Retry-After", String.valueOf(toSeconds(blockedMillis)));
+
+        // request body is left unread
+        return closeConnection(response);
+    }
+
+    private boolean isPasswordCheckEnabled()
+    {
+        return isPasswordEnable() && isSecure;
+    }
+
+    private Response enqueueSMS(SMSRequest smsRequest)
+    {
+        if(!smsDispatcher.enqueue(smsRequest))
         {
-            return newFixedLengthResponse(
-                    Response.Status.FORBIDDEN,
-                    "text/plain",
-                    "App has no permission to send sms, please grant permission in settings"
-            );
+            JSONObject responseBody = newJsonObject("status", "QUEUE_FULL");
+            putJson(responseBody, "reason", "send queue of " + smsRequest.getPriority().getName() + " priority is full, try again later");
 
+            Response response = newJsonResponse(Response.Status.SERVICE_UNAVAILABLE, responseBody);
+            response.addHeader("Retry-After","1");
+
+            return response;
         }
 
-        // send sms when everything is OKAY !
-        //blocking call
-        final SMSResult result = SMSSender.sendSMS(context,phone,message);
+        final int queueDepth = smsDispatcher.getQueueDepth();
+        final long etaMillis = smsDispatcher.getEstimatedWaitMillis(smsRequest.getPriority());
 
-        if(result.getStatus() == SMSResult.STATUS_EXCEPTION_OCCURRED)
-            return newFixedLengthResponse(
-                    Response.Status.BAD_REQUEST, //because the client has provided invalid address
-                    "text/plain",
-                    "Exception occurred while sending sms : \n " + result.getReason()
-            );
+        JSONObject responseBody = newJsonObject("status", "QUEUED");
+        putJson(responseBody, "id", smsRequest.getId());
+        putJson(responseBody, "phone", smsRequest.getPhone());
+        putJson(responseBody, "priority", smsRequest.getPriority().getName());
+        putJson(responseBody, "queueDepth", queueDepth);
 
-        if(result.getStatus() == SMSResult.STATUS_SENT_FAIL)
-            return newFixedLengthResponse(
-                    Response.Status.INTERNAL_ERROR,
-                    "text/plain",
-                    "Unable to send sms " + result.getReason()
-            );
+        // body is serialized by newJsonResponse, so every field must be put before
+        if(etaMillis >= 0)
+            putJson(responseBody, "etaSeconds", toSeconds(etaMillis));
 
-        // when successful
-        return newFixedLengthResponse(
-                Response.Status.OK,
-                "text/plain",
-                "sms successfully sent to " + phone
-        );
+        Response response = newJsonResponse(Response.Status.ACCEPTED, responseBody);
+        response.addHeader("X-Message-Id", smsRequest.getId());
+        response.addHeader("X-Queue-Depth", String.valueOf(queueDepth));
 
+        if(etaMillis >= 0)
+            response.addHeader("X-Queue-ETA", String.valueOf(toSeconds(etaMillis)));
+
+        return response;
     }
 
     private boolean hasPermissionToSendSMS()
@@ -289,8 +1296,58 @@ public class SMSServer extends NanoHTTPD {
     @Override
     public void start() throws IOException
     {
+        boundedAsyncRunner = new BoundedAsyncRunner(workerCount, maxConnections);
+        setAsyncRunner(boundedAsyncRunner);
+
+        // secure server socket factory is set by makeSecure()
+        if(!isSecure())
+        {
+            setServerSocketFactory(() -> new ServerSocket() {
+                @Override
+                public void bind(SocketAddress endpoint) throws IOException
+                {
+                    super.bind(endpoint, acceptBacklog);
+                }
+            });
+        }
+
+        requestLog.start();
+
+        webhookNotifier = new WebhookNotifier();
+        webhookNotifier.start();
+
+        // each subscriber holds a worker thread, leave most workers for sending sms
+        eventStream = new EventStream(Math.max(1, workerCount / 4));
+
+        if(isAsyncModeEnable())
+        {
+            smsDispatcher = new SMSDispatcher(smsSenderPool);
+            smsDispatcher.setOutbox(new SMSOutbox(context));
+            smsDispatcher.setOnSMSQueuedListener(this::onSMSQueued);
+            smsDispatcher.setOnSMSDispatchedListener(this::onSMSDispatched);
+            smsDispatcher.setOnSMSResultListener(this::onSMSCompleted);
+            smsDispatcher.setOnSMSRetryListener(this::onSMSRetry);
+            smsDispatcher.setMaxRetries(maxRetries);
+            smsDispatcher.setMaxInFlight(maxInFlight);
+            smsDispatcher.start();
+        }
+
+        try
+        {
+            super.start(idleTimeoutMillis, false);
+        } catch (IOException e)
+        {
+            // requests left in outbox will be replayed on next start
+            if(smsDispatcher != null)
+                smsDispatcher.stop();
+
+            webhookNotifier.stop();
+            requestLog.stop();
+            boundedAsyncRunner.shutdown();
+
+            throw e;
+        }
 
-         super.start(NanoHTTPD.SOCKET_READ_TIMEOUT, false);
            if(onStartedListener!=null)
                onStartedListener.onStarted(getServerInfo());
 
@@ -305,12 +1362,95 @@ public class SMSServer extends NanoHTTPD {
     @Override
     public void stop()
     {
+        // ends event streams so that their worker threads are released
+        if(eventStream != null)
+            eventStream.closeAll();
+
         super.stop();
+
+        if(smsDispatcher != null)
+            smsDispatcher.stop();
+
+        if(webhookNotifier != null)
+            webhookNotifier.stop();
+
+        requestLog.stop();
+
+        if(boundedAsyncRunner != null)
+            boundedAsyncRunner.shutdown();
+
+        if(isSecure)
+            SSLContextCache.logStatistics();
+
         if(onStoppedListener!=null)
             onStoppedListener.onStopped();
     }
 
 
+    @Override
+    protected ClientHandler createClientHandler(Socket finalAccept, InputStream inputStream)
+    {
+        /*
+         NanoHTTPD writes response headers and body separately, with Nagle's algorithm enabled the body waits
+         for client's delayed ACK of headers (~40ms) on every response of a kept alive connection
+        */
+        try
+        {
+            finalAccept.setTcpNoDelay(true);
+        } catch (SocketException e)
+        {
+            Log.w(TAG, "unable to disable Nagle's algorithm", e);
+        }
+
+        if(finalAccept instanceof SSLSocket)
+            SSLContextCache.prepareAcceptedSocket((SSLSocket) finalAccept);
+
+        return new RejectableClientHandler(inputStream, finalAccept);
+    }
+
+    /*
+     * ClientHandler which keeps hold of accepted socket so that BoundedAsyncRunner can answer
+     * a connection over the limit with 503 instead of silently dropping it
+     * */
+    class RejectableClientHandler extends ClientHandler {
+
+        private final Socket acceptSocket;
+
+        RejectableClientHandler(InputStream inputStream, Socket acceptSocket)
+        {
+            super(inputStream, acceptSocket);
+            this.acceptSocket = acceptSocket;
+        }
+
+        void reject(int retryAfterSeconds)
+        {
+            // writing to a TLS socket would run the handshake on accept thread, just close it
+            if(!(acceptSocket instanceof SSLSocket))
+            {
+                final String body = "server busy, try again later";
+                final String response = "HTTP/1.1 503 Service Unavailable\r\n"
+                        + "Retry-After: " + retryAfterSeconds + "\r\n"
+                        + "Content-Type: text/plain\r\n"
+                        + "Content-Length: " + body.length() + "\r\n"
+                        + "Connection: close\r\n"
+                        + "\r\n"
+                        + body;
+
+                try
+                {
+                    OutputStream outputStream = acceptSocket.getOutputStream();
+                    outputStream.write(response.getBytes(Charset.forName("US-ASCII")));
+                    outputStream.flush();
+                } catch (IOException e)
+                {
+                    // client went away, nothing to report
+                }
+            }
+
+            close();
+        }
+    }
+
     @FunctionalInterface
     public interface onStartedListener {
         void onStarted(ServerInfo serverInfo);
@@ -0,0 +1,166 @@
+package github.umer0586.smsserver.httpserver;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
+
+/*
+ * Process wide SSLContext for secure connections.
+ *
+ * Loading keystore and building key managers happens once per process instead of on every server start,
+ * and because every server instance shares the same SSLContext it also shares one server session cache,
+ * so returning clients resume their TLS session (abbreviated handshake) even across server restarts.
+ * */
+public class SSLContextCache {
+
+    private static final String TAG = SSLContextCache.class.getSimpleName();
+
+    private static final String KEYSTORE_ASSET = "keystore.bks";
+    private static final String KEYSTORE_PASSWORD = "12345";
+
+    public static final int SESSION_CACHE_SIZE = 512;
+    public static final int SESSION_TIMEOUT_SECONDS = 24 * 60 * 60;
+
+    private static SSLContext sslContext;
+
+    // Conscrypt (Android's TLS provider) exposes session tickets through a non public API
+    private static Method setUseSessionTicketsMethod;
+    private static Class<?> setUseSessionTicketsClass;
+
+    private static final AtomicLong handshakeCount = new AtomicLong();
+    private static final AtomicLong resumedHandshakeCount = new AtomicLong();
+
+    private SSLContextCache()
+    {
+    }
+
+    public static synchronized SSLContext getSSLContext(@NonNull Context context) throws IOException, GeneralSecurityException
+    {
+        if(sslContext == null)
+        {
+            KeyStore keystore = KeyStore.getInstance(KeyStore.getDefaultType());
+
+            try (InputStream keystoreStream = context.getAssets().open(KEYSTORE_ASSET))
+            {
+                keystore.load(keystoreStream, KEYSTORE_PASSWORD.toCharArray());
+            }
+
+            KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            keyManagerFactory.init(keystore, KEYSTORE_PASSWORD.toCharArray());
+
+            SSLContext newSSLContext = SSLContext.getInstance("TLS");
+            newSSLContext.init(keyManagerFactory.getKeyManagers(), null, null);
+
+            configureSessionCache(newSSLContext);
+            sslContext = newSSLContext;
+        }
+
+        return sslContext;
+    }
+
+    /**
+     * Bounds server session cache so that it holds sessions of repeat clients without growing indefinitely
+     */
+    public static void configureSessionCache(@NonNull SSLContext sslContext)
+    {
+        SSLSessionContext sessionContext = sslContext.getServerSessionContext();
+
+        if(sessionContext != null)
+        {
+            sessionContext.setSessionCacheSize(SESSION_CACHE_SIZE);
+            sessionContext.setSessionTimeout(SESSION_TIMEOUT_SECONDS);
+        }
+    }
+
+    /**
+     * Enables session tickets (when supported by TLS provider) and counts full and resumed handshakes of accepted socket
+     */
+    static void prepareAcceptedSocket(@NonNull SSLSocket sslSocket)
+    {
+        enableSessionTickets(sslSocket);
+
+        final long acceptedAt = System.currentTimeMillis();
+
+        sslSocket.addHandshakeCompletedListener(event -> {
+
+            handshakeCount.incrementAndGet();
+
+            // resumed session was created during an earlier handshake
+            if(event.getSession().getCreationTime() < acceptedAt)
+                resumedHandshakeCount.incrementAndGet();
+        });
+    }
+
+    private static void enableSessionTickets(SSLSocket sslSocket)
+    {
+        Method method;
+
+        // lookup is done once per socket class, null method means provider doesn't support tickets
+        synchronized (SSLContextCache.class)
+        {
+            if(setUseSessionTicketsClass != sslSocket.getClass())
+            {
+                setUseSessionTicketsClass = sslSocket.getClass();
+
+                try
+                {
+                    setUseSessionTicketsMethod = sslSocket.getClass().getMethod("setUseSessionTickets", boolean.class);
+                } catch (NoSuchMethodException e)
+                {
+                    setUseSessionTicketsMethod = null;
+                }
+            }
+
+            method = setUseSessionTicketsMethod;
+        }
+
+        if(method == null)
+            return; // session cache still allows resumption (session id based)
+
+        try
+        {
+            method.invoke(sslSocket, true);
+        } catch (ReflectiveOperationException | RuntimeException e)
+        {
+            Log.w(TAG, "unable to enable TLS session tickets", e);
+        }
+    }
+
+    public static long getHandshakeCount()
+    {
+        return handshakeCount.get();
+    }
+
+    public static long getResumedHandshakeCount()
+    {
+        return resumedHandshakeCount.get();
+    }
+
+    /**
+     * @return fraction of handshakes which resumed an earlier session, 0 when there was no handshake yet
+     */
+    public static double getResumedRatio()
+    {
+        long handshakes = handshakeCount.get();
+        return handshakes == 0 ? 0 : resumedHandshakeCount.get() / (double) handshakes;
+    }
+
+    static void logStatistics()
+    {
+        if(handshakeCount.get() > 0)
+            Log.i(TAG, "TLS handshakes : " + handshakeCount.get() + ", resumed : " + Math.round(getResumedRatio() * 100) + "%");
+    }
+}
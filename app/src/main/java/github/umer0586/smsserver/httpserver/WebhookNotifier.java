@@ -0,0 +1,644 @@
+package github.umer0586.smsserver.httpserver;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.net.Socket;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+
+/*
+ * Posts outcome of sms to a callback URL, so clients learn whether sms was sent without holding
+ * a connection open until SMS_SENT broadcast arrives.
+ *
+ * A background thread hands notifications which are due to a small pool of posting threads, grouped by URL.
+ * Each URL is posted to by one thread at a time, notifications due for the same URL are posted together
+ * as {"results" : [...]}, so a slow or unreachable webhook holds up its own notifications only. A failed post (network error or non 2xx response) is retried with
+ * exponential backoff and jitter up to MAX_ATTEMPTS times. Notifications beyond queue capacity are dropped
+ * so a slow or dead webhook can't exhaust memory.
+ *
+ * Callback URLs given by clients may only point to public addresses, so that server can't be used to reach
+ * hosts of the local network (or the device itself) on behalf of a client. Host names are resolved again right
+ * before each post and notifications to a host which resolves to a local or private address are dropped. The checked
+ * address is what gets connected to (http posts go to it directly, https connections are checked once connected)
+ * so host can't resolve to another address in between, and redirects are never followed, a 3xx response is a failed post
+ * */
+public class WebhookNotifier {
+
+    private static final String TAG = WebhookNotifier.class.getSimpleName();
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 10000;
+
+    private static final int MAX_BATCH_SIZE = 100;
+    private static final int MAX_ATTEMPTS = 6;
+    private static final long INITIAL_BACKOFF_MILLIS = 1000;
+    private static final long MAX_BACKOFF_MILLIS = 60 * 1000;
+    private static final int TIMEOUT_MILLIS = 10 * 1000;
+
+    // URLs posted to at the same time
+    private static final int MAX_CONCURRENT_POSTS = 4;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final DelayQueue<Notification> queue = new DelayQueue<>();
+    private final int queueCapacity;
+
+    // notifications queued or being posted, DelayQueue itself is unbounded
+    private final AtomicInteger pendingCount = new AtomicInteger();
+
+    private final AtomicLong deliveredCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    // due notifications by URL, guarded by itself
+    private final Map<String, Destination> destinations = new HashMap<>();
+
+    private Thread notifierThread;
+    private ExecutorService posters;
+    private volatile boolean running = false;
+
+    public WebhookNotifier()
+    {
+        this(DEFAULT_QUEUE_CAPACITY);
+    }
+
+    public WebhookNotifier(int queueCapacity)
+    {
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * @return true when url is an absolute http or https URL
+     */
+    public static boolean isValidUrl(String url)
+    {
+        if(url == null)
+            return false;
+
+        try
+        {
+            String protocol = new URL(url).getProtocol();
+            return "http".equalsIgnoreCase(protocol) || "https".equalsIgnoreCase(protocol);
+
+        } catch (MalformedURLException e)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Checks host of url without any DNS lookup : IP literals and localhost. Host names are checked when posting
+     *
+     * @return false when url is invalid or its host is a loopback, link local, private or otherwise non public address
+     */
+    public static boolean isPublicUrl(String url)
+    {
+        if(!isValidUrl(url))
+            return false;
+
+        try
+        {
+            String host = new URL(url).getHost().toLowerCase(Locale.ROOT);
+
+            if(host.isEmpty() || host.equals("localhost") || host.endsWith(".localhost"))
+                return false;
+
+            // getByName() doesn't look literals up, IPv6 literal comes in brackets
+            if(host.startsWith("[") || host.matches("[0-9.]+"))
+                return isPublicAddress(InetAddress.getByName(host));
+
+            return true;
+
+        } catch (MalformedURLException | UnknownHostException e)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * @return false for loopback, wildcard, link local, private (10/8, 172.16/12, 192.168/16, fc00::/7),
+     * carrier grade NAT (100.64/10) and multicast addresses
+     */
+    static boolean isPublicAddress(InetAddress address)
+    {
+        if(address.isLoopbackAddress() || address.isAnyLocalAddress() || address.isLinkLocalAddress()
+                || address.isSiteLocalAddress() || address.isMulticastAddress())
+            return false;
+
+        byte[] bytes = address.getAddress();
+
+        if(bytes.length == 4)
+            return !((bytes[0] & 0xff) == 100 && (bytes[1] & 0xc0) == 64);
+
+        // IPv6 unique local addresses, isSiteLocalAddress() only knows the deprecated fec0::/10
+        return (bytes[0] & 0xfe) != 0xfc;
+    }
+
+    public synchronized void start()
+    {
+        if(running)
+            return;
+
+        running = true;
+
+        final AtomicInteger posterCount = new AtomicInteger();
+
+        posters = Executors.newFixedThreadPool(MAX_CONCURRENT_POSTS, runnable -> {
+            Thread thread = new Thread(runnable, TAG + "-" + posterCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        notifierThread = new Thread(this::notifyLoop, TAG);
+        notifierThread.setDaemon(true);
+        notifierThread.start();
+    }
+
+    public synchronized void stop()
+    {
+        synchronized (destinations)
+        {
+            running = false;
+
+            // notifications waiting for their URL to be posted to are discarded along with queued ones
+            for (Destination destination : destinations.values())
+            {
+                queue.addAll(destination.ready);
+                destination.ready.clear();
+            }
+        }
+
+        if(notifierThread != null)
+        {
+            notifierThread.interrupt();
+            notifierThread = null;
+        }
+
+        // posts in progress are not interrupted, posting threads exit once their post completes
+        if(posters != null)
+        {
+            posters.shutdown();
+            posters = null;
+        }
+
+        // a batch still being posted is not discarded here, it takes its notifications off pendingCount
+        // once post completes (see retryLater)
+        int discarded = 0;
+
+        for (Iterator<Notification> iterator = queue.iterator(); iterator.hasNext(); discarded++)
+        {
+            iterator.next();
+            iterator.remove();
+        }
+
+        if(discarded > 0)
+        {
+            pendingCount.addAndGet(-discarded);
+            Log.w(TAG, "stopped with " + discarded + " notification(s) not delivered");
+        }
+    }
+
+    /**
+     * Queues result for posting to url without blocking
+     *
+     * @param publicOnly true when url came from a client, notification is dropped when host resolves to a non public address
+     * @return false when queue is full and notification was dropped
+     */
+    public boolean notify(@NonNull String url, @NonNull JSONObject result, boolean publicOnly)
+    {
+        if(pendingCount.incrementAndGet() > queueCapacity)
+        {
+            pendingCount.decrementAndGet();
+            droppedCount.incrementAndGet();
+            Log.w(TAG, "webhook queue is full, dropping notification for " + url);
+            return false;
+        }
+
+        queue.put(new Notification(url, result, publicOnly));
+        return true;
+    }
+
+    public int getPendingCount()
+    {
+        return pendingCount.get();
+    }
+
+    public long getDeliveredCount()
+    {
+        return deliveredCount.get();
+    }
+
+    public long getDroppedCount()
+    {
+        return droppedCount.get();
+    }
+
+    private void notifyLoop()
+    {
+        List<Notification> due = new ArrayList<>();
+
+        while (running)
+        {
+            try
+            {
+                due.add(queue.take());
+            } catch (InterruptedException e)
+            {
+                break;
+            }
+
+            // DelayQueue only drains notifications whose delay has expired
+            queue.drainTo(due);
+
+            synchronized (destinations)
+            {
+                for (Notification notification : due)
+                {
+                    if(!running)
+                    {
+                        pendingCount.decrementAndGet();
+                        continue;
+                    }
+
+                    // a url given by client is checked, same url set as webhook in settings is not
+                    final String key = (notification.publicOnly ? "public " : "any ") + notification.url;
+
+                    Destination destination = destinations.get(key);
+
+                    if(destination == null)
+                    {
+                        destination = new Destination(key, notification.url, notification.publicOnly);
+                        destinations.put(key, destination);
+                    }
+
+                    destination.ready.add(notification);
+
+                    if(!destination.posting)
+                    {
+                        destination.posting = true;
+
+                        final Destination postTo = destination;
+                        posters.execute(() -> postAll(postTo));
+                    }
+                }
+            }
+
+            due.clear();
+        }
+    }
+
+    /**
+     * Posts notifications of destination in batches until none is left, on a posting thread
+     */
+    private void postAll(Destination destination)
+    {
+        while (true)
+        {
+            final List<Notification> batch = new ArrayList<>();
+
+            synchronized (destinations)
+            {
+                while (batch.size() < MAX_BATCH_SIZE && !destination.ready.isEmpty())
+                    batch.add(destination.ready.poll());
+
+                if(batch.isEmpty())
+                {
+                    destination.posting = false;
+                    destinations.remove(destination.key);
+                    return;
+                }
+            }
+
+            // address posts of a public only destination must connect to, null for any
+            InetAddress checkedAddress = null;
+
+            try
+            {
+                if(destination.publicOnly && (checkedAddress = resolvePublicAddress(destination.url)) == null)
+                {
+                    Log.w(TAG, "dropping " + batch.size() + " notification(s) for " + destination.url + " : host is not a public address");
+
+                    pendingCount.addAndGet(-batch.size());
+                    droppedCount.addAndGet(batch.size());
+                    continue;
+                }
+
+            } catch (UnknownHostException e)
+            {
+                // posting anyway would let connection resolve host unchecked, try again later
+                Log.w(TAG, "unable to resolve webhook " + destination.url + " : " + e.getMessage());
+                retryLater(batch);
+                continue;
+            }
+
+            if(post(destination.url, checkedAddress, batch))
+            {
+                pendingCount.addAndGet(-batch.size());
+                deliveredCount.addAndGet(batch.size());
+            }
+            else
+            {
+                retryLater(batch);
+            }
+        }
+    }
+
+    private void retryLater(List<Notification> batch)
+    {
+        // same jitter for the whole batch so that its notifications are retried together
+        double jitter = ThreadLocalRandom.current().nextDouble();
+
+        for (Notification notification : batch)
+            retryLater(notification, jitter);
+    }
+
+    /**
+     * @param jitter random number in [0, 1) which picks actual delay between half and full backoff
+     */
+    private void retryLater(Notification notification, double jitter)
+    {
+        notification.attempt++;
+
+        if(notification.attempt >= MAX_ATTEMPTS)
+        {
+            pendingCount.decrementAndGet();
+            droppedCount.incrementAndGet();
+            Log.w(TAG, "giving up on notification for " + notification.url + " after " + MAX_ATTEMPTS + " attempts");
+            return;
+        }
+
+        long backoff = Math.min(MAX_BACKOFF_MILLIS, INITIAL_BACKOFF_MILLIS << (notification.attempt - 1));
+
+        // jitter spreads retries of notifications for different webhooks which failed at the same time
+        long delay = backoff / 2 + (long) (jitter * (backoff / 2));
+
+        notification.dueAt = System.currentTimeMillis() + delay;
+
+        // checked under same lock stop() clears running with, so a notification put back is either seen by stop() or discarded here
+        synchronized (destinations)
+        {
+            if(running)
+                queue.put(notification);
+            else
+                pendingCount.decrementAndGet();
+        }
+    }
+
+    /**
+     * @return first address host of url resolves to, null when any of its addresses is not public
+     * @throws UnknownHostException when host can't be resolved right now
+     */
+    private static InetAddress resolvePublicAddress(String url) throws UnknownHostException
+    {
+        try
+        {
+            final InetAddress[] addresses = InetAddress.getAllByName(new URL(url).getHost());
+
+            for (InetAddress address : addresses)
+                if(!isPublicAddress(address))
+                    return null;
+
+            return addresses[0];
+
+        } catch (MalformedURLException e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * @param checkedAddress address connection must go to, null to let connection resolve host itself
+     */
+    private static HttpURLConnection openConnection(String url, InetAddress checkedAddress) throws IOException
+    {
+        final URL target = new URL(url);
+
+        if(checkedAddress == null)
+            return (HttpURLConnection) target.openConnection();
+
+        if("https".equalsIgnoreCase(target.getProtocol()))
+        {
+            // host name is kept for certificate check and SNI, socket is checked once connected instead
+            HttpsURLConnection connection = (HttpsURLConnection) target.openConnection();
+            connection.setSSLSocketFactory(new PublicPeerSocketFactory(HttpsURLConnection.getDefaultSSLSocketFactory()));
+            return connection;
+        }
+
+        final String addressHost = checkedAddress instanceof Inet6Address
+                ? "[" + checkedAddress.getHostAddress() + "]"
+                : checkedAddress.getHostAddress();
+
+        HttpURLConnection connection = (HttpURLConnection) new URL(target.getProtocol(), addressHost, target.getPort(), target.getFile()).openConnection();
+        connection.setRequestProperty("Host", target.getPort() == -1 ? target.getHost() : target.getHost() + ":" + target.getPort());
+
+        return connection;
+    }
+
+    /**
+     * @return true when webhook answered with 2xx
+     */
+    private boolean post(String url, InetAddress checkedAddress, List<Notification> notifications)
+    {
+        JSONArray results = new JSONArray();
+
+        for (Notification notification : notifications)
+            results.put(notification.result);
+
+        HttpURLConnection connection = null;
+
+        try
+        {
+            byte[] body = new JSONObject().put("results", results).toString().getBytes(UTF_8);
+
+            connection = openConnection(url, checkedAddress);
+            connection.setInstanceFollowRedirects(false);
+            connection.setRequestMethod("POST");
+            connection.setConnectTimeout(TIMEOUT_MILLIS);
+            connection.setReadTimeout(TIMEOUT_MILLIS);
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(body.length);
+            connection.setRequestProperty("Content-Type", "application/json; charset=utf-8");
+
+            try (OutputStream outputStream = connection.getOutputStream())
+            {
+                outputStream.write(body);
+            }
+
+            int responseCode = connection.getResponseCode();
+
+            // response body is read fully so that HttpURLConnection can reuse the connection for next post
+            try (InputStream inputStream = responseCode < 400 ? connection.getInputStream() : connection.getErrorStream())
+            {
+                if(inputStream != null)
+                    while (inputStream.read() != -1);
+            }
+
+            if(responseCode / 100 == 2)
+                return true;
+
+            if(responseCode / 100 == 3)
+                Log.w(TAG, "webhook " + url + " redirected to " + connection.getHeaderField("Location") + ", redirects are not followed");
+            else
+                Log.w(TAG, "webhook " + url + " responded with " + responseCode);
+
+        } catch (IOException | JSONException e)
+        {
+            Log.w(TAG, "unable to post to webhook " + url + " : " + e.getMessage());
+
+            // connection may be in an unknown state, don't let it be reused
+            if(connection != null)
+                connection.disconnect();
+        }
+
+        return false;
+    }
+
+    /*
+     * Refuses https connections which ended up at a non public address, e.g host resolved again by connection
+     * to a different address than the one checked before posting
+     * */
+    private static class PublicPeerSocketFactory extends SSLSocketFactory {
+
+        private final SSLSocketFactory delegate;
+
+        private PublicPeerSocketFactory(SSLSocketFactory delegate)
+        {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public String[] getDefaultCipherSuites()
+        {
+            return delegate.getDefaultCipherSuites();
+        }
+
+        @Override
+        public String[] getSupportedCipherSuites()
+        {
+            return delegate.getSupportedCipherSuites();
+        }
+
+        @Override
+        public Socket createSocket(Socket socket, String host, int port, boolean autoClose) throws IOException
+        {
+            // plain socket is connected already, TLS handshake (and so the body) hasn't started
+            return checkPeer(delegate.createSocket(checkPeer(socket), host, port, autoClose));
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException
+        {
+            return checkPeer(delegate.createSocket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localAddress, int localPort) throws IOException
+        {
+            return checkPeer(delegate.createSocket(host, port, localAddress, localPort));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port) throws IOException
+        {
+            return checkPeer(delegate.createSocket(address, port));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException
+        {
+            return checkPeer(delegate.createSocket(address, port, localAddress, localPort));
+        }
+
+        private static Socket checkPeer(Socket socket) throws IOException
+        {
+            final InetAddress peer = socket.getInetAddress();
+
+            if(peer == null || !isPublicAddress(peer))
+            {
+                socket.close();
+                throw new IOException("connected to non public address " + peer);
+            }
+
+            return socket;
+        }
+    }
+
+    private static class Destination {
+
+        private final String key;
+        private final String url;
+        private final boolean publicOnly;
+
+        // due notifications not yet taken by posting thread
+        private final ArrayDeque<Notification> ready = new ArrayDeque<>();
+
+        // true while a posting thread owns this destination
+        private boolean posting = false;
+
+        private Destination(String key, String url, boolean publicOnly)
+        {
+            this.key = key;
+            this.url = url;
+            this.publicOnly = publicOnly;
+        }
+    }
+
+    private static class Notification implements Delayed {
+
+        private final String url;
+        private final JSONObject result;
+        private final boolean publicOnly;
+
+        private int attempt = 0;
+        private long dueAt = System.currentTimeMillis();
+
+        private Notification(String url, JSONObject result, boolean publicOnly)
+        {
+            this.url = url;
+            this.result = result;
+            this.publicOnly = publicOnly;
+        }
+
+        @Override
+        public long getDelay(@NonNull TimeUnit unit)
+        {
+            return unit.convert(dueAt - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(@NonNull Delayed other)
+        {
+            return Long.compare(getDelay(TimeUnit.MILLISECONDS), other.getDelay(TimeUnit.MILLISECONDS));
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package github.umer0586.smsserver.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * Lock free latency histogram with fixed memory, in the spirit of HdrHistogram.
+ *
+ * Values (microseconds) are counted in log-linear buckets : every power of two range is split in 4 equal
+ * sub buckets, so any value is known within 25% from 1 microsecond up to ~25 days, using 160 counters.
+ * Recording is a few atomic increments, quantiles are computed only when metrics are read
+ * */
+public class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_MAGNITUDE = 40;
+
+    private static final int BUCKET_COUNT = (MAX_MAGNITUDE - SUB_BUCKET_BITS + 2) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sumMicros = new AtomicLong();
+
+    public void recordNanos(long nanos)
+    {
+        recordMicros(nanos / 1000);
+    }
+
+    public void recordMillis(long millis)
+    {
+        recordMicros(millis * 1000);
+    }
+
+    public void recordMicros(long micros)
+    {
+        final long value = Math.max(0, micros);
+
+        counts.incrementAndGet(bucketOf(value));
+        count.incrementAndGet();
+        sumMicros.addAndGet(value);
+    }
+
+    public long getCount()
+    {
+        return count.get();
+    }
+
+    public long getSumMicros()
+    {
+        return sumMicros.get();
+    }
+
+    /**
+     * @param quantile between 0 and 1 e.g 0.99
+     * @return upper bound of bucket holding the value at given quantile, 0 when nothing was recorded
+     */
+    public long getQuantileMicros(double quantile)
+    {
+        // count of each bucket is read once, total is taken from that snapshot so that concurrent records don't skew it
+        final long[] snapshot = new long[BUCKET_COUNT];
+        long total = 0;
+
+        for (int i = 0; i < BUCKET_COUNT; i++)
+        {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+
+        if(total == 0)
+            return 0;
+
+        final long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long cumulative = 0;
+
+        for (int i = 0; i < BUCKET_COUNT; i++)
+        {
+            cumulative += snapshot[i];
+
+            if(cumulative >= rank)
+                return upperBoundOf(i);
+        }
+
+        return upperBoundOf(BUCKET_COUNT - 1);
+    }
+
+    private static int bucketOf(long value)
+    {
+        // values below SUB_BUCKET_COUNT have a bucket each
+        if(value < SUB_BUCKET_COUNT)
+            return (int) value;
+
+        final int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        final int subBucket = (int) (value >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+
+        return Math.min(BUCKET_COUNT - 1, (magnitude - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + subBucket);
+    }
+
+    private static long upperBoundOf(int bucket)
+    {
+        if(bucket < SUB_BUCKET_COUNT)
+            return bucket;
+
+        final int magnitude = bucket / SUB_BUCKET_COUNT + SUB_BUCKET_BITS - 1;
+        final int subBucket = bucket % SUB_BUCKET_COUNT;
+
+        return ((long) (SUB_BUCKET_COUNT + subBucket + 1) << (magnitude - SUB_BUCKET_BITS)) - 1;
+    }
+}
@@ -0,0 +1,77 @@
+package github.umer0586.smsserver.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Family of counters told apart by label values e.g requests by path and status code.
+ * Callers must only use label values from a small fixed set, each distinct combination keeps a counter forever
+ * */
+public class LabeledCounter {
+
+    private final String[] labelNames;
+    private final ConcurrentHashMap<String, AtomicLong> counters = new ConcurrentHashMap<>();
+
+    public LabeledCounter(String... labelNames)
+    {
+        this.labelNames = labelNames;
+    }
+
+    public void increment(String... labelValues)
+    {
+        final String labels = format(labelValues);
+
+        AtomicLong counter = counters.get(labels);
+
+        if(counter == null)
+        {
+            AtomicLong newCounter = new AtomicLong();
+            counter = counters.putIfAbsent(labels, newCounter);
+
+            if(counter == null)
+                counter = newCounter;
+        }
+
+        counter.incrementAndGet();
+    }
+
+    /**
+     * @return counter values by formatted labels e.g {path="/sendSMS",code="200"}
+     */
+    Map<String, AtomicLong> getCounters()
+    {
+        return counters;
+    }
+
+    private String format(String[] labelValues)
+    {
+        StringBuilder labels = new StringBuilder("{");
+
+        for (int i = 0; i < labelNames.length; i++)
+        {
+            if(i > 0)
+                labels.append(',');
+
+            labels.append(labelNames[i]).append("=\"");
+
+            final String value = i < labelValues.length && labelValues[i] != null ? labelValues[i] : "";
+
+            for (int c = 0; c < value.length(); c++)
+            {
+                final char ch = value.charAt(c);
+
+                if(ch == '\\' || ch == '"')
+                    labels.append('\\').append(ch);
+                else if(ch == '\n')
+                    labels.append("\\n");
+                else
+                    labels.append(ch);
+            }
+
+            labels.append('"');
+        }
+
+        return labels.append('}').toString();
+    }
+}
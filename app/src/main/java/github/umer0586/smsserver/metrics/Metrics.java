@@ -0,0 +1,48 @@
+package github.umer0586.smsserver.metrics;
+
+/*
+ * Process wide counters and latency histograms updated on hot paths (request handling, queue, sms sending).
+ * Updating any of them is lock free, they are read and formatted only when /metrics is scraped
+ * */
+public class Metrics {
+
+    // time to read and parse body of /sendSMS and /sendSMSBatch requests
+    public static final Histogram REQUEST_PARSE_TIME = new Histogram();
+
+    // time from receiving request (after headers) to response being ready, by NanoHTTPD's serve()
+    public static final Histogram REQUEST_DURATION = new Histogram();
+
+    // time an sms waited in send queue before being dispatched (async mode only)
+    public static final Histogram QUEUE_WAIT = new Histogram();
+
+    // time spent waiting for SIM's rate limiter
+    public static final Histogram RATE_LIMIT_WAIT = new Histogram();
+
+    // time from handing sms to SmsManager to its SMS_SENT broadcast(s)
+    public static final Histogram SEND_LATENCY = new Histogram();
+
+    public static final LabeledCounter HTTP_REQUESTS = new LabeledCounter("path", "code");
+
+    public static final LabeledCounter SMS_RESULTS = new LabeledCounter("status", "error");
+
+    private Metrics()
+    {
+    }
+
+    /**
+     * Appends metrics of this class to writer
+     *
+     * @return writer
+     */
+    public static MetricsWriter write(MetricsWriter writer)
+    {
+        return writer
+                .counter("smsserver_http_requests_total", "HTTP requests served by path and response code", HTTP_REQUESTS)
+                .summary("smsserver_http_request_duration_seconds", "Time to serve HTTP request", REQUEST_DURATION)
+                .summary("smsserver_request_parse_seconds", "Time to read and parse sms request body", REQUEST_PARSE_TIME)
+                .summary("smsserver_queue_wait_seconds", "Time sms waited in send queue", QUEUE_WAIT)
+                .summary("smsserver_rate_limit_wait_seconds", "Time sms waited for SIM rate limiter", RATE_LIMIT_WAIT)
+                .summary("smsserver_send_latency_seconds", "Time from SmsManager dispatch to SMS_SENT", SEND_LATENCY)
+                .counter("smsserver_sms_results_total", "Sms outcomes by status and SmsManager error", SMS_RESULTS);
+    }
+}
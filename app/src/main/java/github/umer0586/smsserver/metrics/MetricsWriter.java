@@ -0,0 +1,115 @@
+package github.umer0586.smsserver.metrics;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Formats metrics in Prometheus text exposition format (version 0.0.4).
+ * Histograms are exposed as summaries in seconds, with quantiles computed from their buckets
+ * */
+public class MetricsWriter {
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private final StringBuilder text = new StringBuilder(4096);
+
+    public MetricsWriter gauge(String name, String help, double value)
+    {
+        header(name, help, "gauge");
+        sample(name, "", value);
+        return this;
+    }
+
+    /**
+     * @param valuesByLabel gauge value by value of label e.g "high" -> 3 for label "priority"
+     */
+    public MetricsWriter gauge(String name, String help, String label, Map<String, ? extends Number> valuesByLabel)
+    {
+        header(name, help, "gauge");
+
+        for (Map.Entry<String, ? extends Number> entry : valuesByLabel.entrySet())
+            sample(name, "{" + label + "=\"" + entry.getKey() + "\"}", entry.getValue().doubleValue());
+
+        return this;
+    }
+
+    public MetricsWriter counter(String name, String help, double value)
+    {
+        header(name, help, "counter");
+        sample(name, "", value);
+        return this;
+    }
+
+    public MetricsWriter counter(String name, String help, LabeledCounter labeledCounter)
+    {
+        header(name, help, "counter");
+
+        for (Map.Entry<String, AtomicLong> entry : labeledCounter.getCounters().entrySet())
+            sample(name, entry.getKey(), entry.getValue().get());
+
+        return this;
+    }
+
+    public MetricsWriter summary(String name, String help, Histogram histogram)
+    {
+        header(name, help, "summary");
+        summarySamples(name, "", histogram);
+        return this;
+    }
+
+    /**
+     * @param histogramsByLabel histogram by value of label e.g "high" -> wait time of high priority sms for label "priority"
+     */
+    public MetricsWriter summary(String name, String help, String label, Map<String, Histogram> histogramsByLabel)
+    {
+        header(name, help, "summary");
+
+        for (Map.Entry<String, Histogram> entry : histogramsByLabel.entrySet())
+            summarySamples(name, label + "=\"" + entry.getKey() + "\"", entry.getValue());
+
+        return this;
+    }
+
+    /**
+     * @param labels labels of every sample without braces e.g priority="high", empty for none
+     */
+    private void summarySamples(String name, String labels, Histogram histogram)
+    {
+        final String separator = labels.isEmpty() ? "" : ",";
+
+        for (double quantile : QUANTILES)
+            sample(name, "{" + labels + separator + "quantile=\"" + quantile + "\"}", histogram.getQuantileMicros(quantile) / 1e6);
+
+        final String sumCountLabels = labels.isEmpty() ? "" : "{" + labels + "}";
+
+        sample(name + "_sum", sumCountLabels, histogram.getSumMicros() / 1e6);
+        sample(name + "_count", sumCountLabels, histogram.getCount());
+    }
+
+    private void header(String name, String help, String type)
+    {
+        text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private void sample(String name, String labels, double value)
+    {
+        text.append(name).append(labels).append(' ');
+
+        if(value == Math.rint(value) && Math.abs(value) < 1e15)
+            text.append((long) value);
+        else
+            text.append(String.format(Locale.ROOT, "%.6f", value));
+
+        text.append('\n');
+    }
+
+    @Override
+    public String toString()
+    {
+        return text.toString();
+    }
+}
@@ -24,6 +24,8 @@ import github.umer0586.smsserver.broadcastreceiver.MessageReceiver;
 import github.umer0586.smsserver.httpserver.SMSServer;
 import github.umer0586.smsserver.httpserver.ServerInfo;
 import github.umer0586.smsserver.setting.AppSettings;
+import github.umer0586.smsserver.smssender.SMSSender;
+import github.umer0586.smsserver.smssender.SMSSimulatorTransport;
 import github.umer0586.smsserver.util.IpUtil;
 
 
@@ -141,6 +143,22 @@ public class SMSService extends Service implements MessageReceiver.MessageListen
             smsServer.setPassword(appSettings.getPassword());
         }
 
+        //If user has enabled asynchronous sending
+        if (appSettings.isAsyncModeEnabled())
+            smsServer.enableAsyncMode();
+
+        smsServer.setMaxRetries(appSettings.getMaxRetries());
+        smsServer.setMaxInFlight(appSettings.getMaxInFlight());
+
+        smsServer.setSendRateLimit(appSettings.getSendRate(), appSettings.getSendBurst());
+        smsServer.setConnectionLimits(appSettings.getWorkerCount(), appSettings.getMaxConnections(), appSettings.getAcceptBacklog());
+        smsServer.setIdleTimeout(appSettings.getIdleTimeoutSeconds() * 1000);
+        smsServer.setWebhookUrl(appSettings.getWebhookUrl());
+        smsServer.setRequestLogLevel(appSettings.getRequestLogLevel(), appSettings.getRequestLogSampleRate());
+
+        // transport is static, set it every time so that turning simulator off takes effect on next start
+        SMSSender.setTransport(appSettings.isSimulatorEnabled() ? newSimulatorTransport() : null);
+
         smsServer.setOnStartedListener((serverInfo) -> {
 
             if(serverStatesListener != null)
@@ -188,10 +206,25 @@ public class SMSService extends Service implements MessageReceiver.MessageListen
 
         }
 
+        // In asynchronous mode accepted sms are kept in outbox, let android restart this service
+        // after it gets killed so that pending sms are replayed
+        if (appSettings.isAsyncModeEnabled())
+            return START_STICKY;
 
         return START_NOT_STICKY;
     }
 
+    private SMSSimulatorTransport newSimulatorTransport()
+    {
+        final int minLatency = appSettings.getSimulatorMinLatency();
+
+        SMSSimulatorTransport simulatorTransport = new SMSSimulatorTransport(minLatency, Math.max(minLatency, appSettings.getSimulatorMaxLatency()));
+        simulatorTransport.setFailures(appSettings.getSimulatorFailurePercent());
+        simulatorTransport.setRateLimit(appSettings.getSimulatorRateLimit());
+
+        return simulatorTransport;
+    }
+
     private Spanned getAddress()
     {
         Spanned address = null;
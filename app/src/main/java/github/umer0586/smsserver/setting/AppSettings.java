@@ -4,6 +4,11 @@ import android.content.Context;
 import android.content.SharedPreferences;
 
 import github.umer0586.smsserver.R;
+import github.umer0586.smsserver.httpserver.RequestLog;
+import github.umer0586.smsserver.httpserver.SMSServer;
+import github.umer0586.smsserver.smssender.SMSRetryScheduler;
+import github.umer0586.smsserver.smssender.SMSSendWindow;
+import github.umer0586.smsserver.smssender.SMSSimulatorTransport;
 
 /*
 * Since we can't save context in static field therefore client must create new object of this
@@ -82,4 +87,222 @@ public class AppSettings {
         return sharedPreferences.getBoolean(context.getString(R.string.pref_key_hotspot), false);
     }
 
+    public void enableAsyncMode(boolean state)
+    {
+        sharedPreferences.edit()
+                .putBoolean(context.getString(R.string.pref_key_async_mode), state)
+                .commit();
+    }
+
+    public boolean isAsyncModeEnabled()
+    {
+        return sharedPreferences.getBoolean(context.getString(R.string.pref_key_async_mode), false);
+    }
+
+    public int getMaxRetries()
+    {
+        return sharedPreferences.getInt(context.getString(R.string.pref_key_max_retries), SMSRetryScheduler.DEFAULT_MAX_RETRIES);
+    }
+
+    public void saveMaxRetries(int maxRetries)
+    {
+        sharedPreferences.edit()
+                .putInt(context.getString(R.string.pref_key_max_retries), maxRetries)
+                .commit();
+    }
+
+    public int getMaxInFlight()
+    {
+        return sharedPreferences.getInt(context.getString(R.string.pref_key_max_in_flight), SMSSendWindow.DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    public void saveMaxInFlight(int maxInFlight)
+    {
+        sharedPreferences.edit()
+                .putInt(context.getString(R.string.pref_key_max_in_flight), maxInFlight)
+                .commit();
+    }
+
+    public int getSendRate()
+    {
+        return sharedPreferences.getInt(context.getString(R.string.pref_key_send_rate), 0);
+    }
+
+    public void saveSendRate(int smsPerMinute)
+    {
+        sharedPreferences.edit()
+                .putInt(context.getString(R.string.pref_key_send_rate), smsPerMinute)
+                .commit();
+    }
+
+    public int getSendBurst()
+    {
+        return sharedPreferences.getInt(context.getString(R.string.pref_key_send_burst), 10);
+    }
+
+    public void saveSendBurst(int burst)
+    {
+        sharedPreferences.edit()
+                .putInt(context.getString(R.string.pref_key_send_burst), burst)
+                .commit();
+    }
+
+    public int getWorkerCount()
+    {
+        return sharedPreferences.getInt(context.getString(R.string.pref_key_worker_count), SMSServer.DEFAULT_WORKER_COUNT);
+    }
+
+    public void saveWorkerCount(int workerCount)
+    {
+        sharedPreferences.edit()
+                .putInt(context.getString(R.string.pref_key_worker_count), workerCount)
+                .commit();
+    }
+
+    public int getMaxConnections()
+    {
+        return sharedPreferences.getInt(context.getString(R.string.pref_key_max_connections), SMSServer.DEFAULT_MAX_CONNECTIONS);
+    }
+
+    public void saveMaxConnections(int maxConnections)
+    {
+        sharedPreferences.edit()
+                .putInt(context.getString(R.string.pref_key_max_connections), maxConnections)
+                .commit();
+    }
+
+    public int getAcceptBacklog()
+    {
+        return sharedPreferences.getInt(context.getString(R.string.pref_key_accept_backlog), SMSServer.DEFAULT_ACCEPT_BACKLOG);
+    }
+
+    public void saveAcceptBacklog(int acceptBacklog)
+    {
+        sharedPreferences.edit()
+                .putInt(context.getString(R.string.pref_key_accept_backlog), acceptBacklog)
+                .commit();
+    }
+
+    public int getIdleTimeoutSeconds()
+    {
+        return sharedPreferences.getInt(context.getString(R.string.pref_key_idle_timeout), 5);
+    }
+
+    public void saveIdleTimeoutSeconds(int idleTimeoutSeconds)
+    {
+        sharedPreferences.edit()
+                .putInt(context.getString(R.string.pref_key_idle_timeout), idleTimeoutSeconds)
+                .commit();
+    }
+
+    /**
+     * @return URL outcome of sms is posted to when request has no callback_url, null when not set
+     */
+    public String getWebhookUrl()
+    {
+        return sharedPreferences.getString(context.getString(R.string.pref_key_webhook_url), null);
+    }
+
+    public void saveWebhookUrl(String webhookUrl)
+    {
+        sharedPreferences.edit()
+                .putString(context.getString(R.string.pref_key_webhook_url), webhookUrl)
+                .commit();
+    }
+
+    public RequestLog.Level getRequestLogLevel()
+    {
+        String level = sharedPreferences.getString(context.getString(R.string.pref_key_request_log_level), RequestLog.DEFAULT_LEVEL.name());
+
+        try
+        {
+            return RequestLog.Level.valueOf(level);
+        } catch (IllegalArgumentException e)
+        {
+            return RequestLog.DEFAULT_LEVEL;
+        }
+    }
+
+    public void saveRequestLogLevel(RequestLog.Level level)
+    {
+        sharedPreferences.edit()
+                .putString(context.getString(R.string.pref_key_request_log_level), level.name())
+                .commit();
+    }
+
+    public int getRequestLogSampleRate()
+    {
+        return sharedPreferences.getInt(context.getString(R.string.pref_key_request_log_sample_rate), RequestLog.DEFAULT_SAMPLE_RATE);
+    }
+
+    public void saveRequestLogSampleRate(int sampleRate)
+    {
+        sharedPreferences.edit()
+                .putInt(context.getString(R.string.pref_key_request_log_sample_rate), sampleRate)
+                .commit();
+    }
+
+    public void enableSimulator(boolean state)
+    {
+        sharedPreferences.edit()
+                .putBoolean(context.getString(R.string.pref_key_simulator), state)
+                .commit();
+    }
+
+    /**
+     * @return true when sms should be sent through SMSSimulatorTransport instead of SIM
+     */
+    public boolean isSimulatorEnabled()
+    {
+        return sharedPreferences.getBoolean(context.getString(R.string.pref_key_simulator), false);
+    }
+
+    public int getSimulatorMinLatency()
+    {
+        return sharedPreferences.getInt(context.getString(R.string.pref_key_simulator_min_latency), SMSSimulatorTransport.DEFAULT_MIN_LATENCY_MILLIS);
+    }
+
+    public void saveSimulatorMinLatency(int latencyMillis)
+    {
+        sharedPreferences.edit()
+                .putInt(context.getString(R.string.pref_key_simulator_min_latency), latencyMillis)
+                .commit();
+    }
+
+    public int getSimulatorMaxLatency()
+    {
+        return sharedPreferences.getInt(context.getString(R.string.pref_key_simulator_max_latency), SMSSimulatorTransport.DEFAULT_MAX_LATENCY_MILLIS);
+    }
+
+    public void saveSimulatorMaxLatency(int latencyMillis)
+    {
+        sharedPreferences.edit()
+                .putInt(context.getString(R.string.pref_key_simulator_max_latency), latencyMillis)
+                .commit();
+    }
+
+    public int getSimulatorFailurePercent()
+    {
+        return sharedPreferences.getInt(context.getString(R.string.pref_key_simulator_failure_percent), 0);
+    }
+
+    public void saveSimulatorFailurePercent(int failurePercent)
+    {
+        sharedPreferences.edit()
+                .putInt(context.getString(R.string.pref_key_simulator_failure_percent), failurePercent)
+                .commit();
+    }
+
+    public int getSimulatorRateLimit()
+    {
+        return sharedPreferences.getInt(context.getString(R.string.pref_key_simulator_rate_limit), 0);
+    }
+
+    public void saveSimulatorRateLimit(int partsPerMinute)
+    {
+        sharedPreferences.edit()
+                .putInt(context.getString(R.string.pref_key_simulator_rate_limit), partsPerMinute)
+                .commit();
+    }
+
 }
@@ -0,0 +1,33 @@
+package github.umer0586.smsserver.smssender;
+
+import androidx.annotation.NonNull;
+
+/*
+ * Same number written with spaces, dashes or brackets e.g "+92 (300) 123-4567" and "+923001234567" is the same
+ * recipient, sms to it are ordered and looked up under one key
+ * */
+final class PhoneNumbers {
+
+    private PhoneNumbers()
+    {
+    }
+
+    /**
+     * @return digits of phone with leading '+' kept, phone itself when it has no digits (e.g alphanumeric sender)
+     */
+    @NonNull
+    static String getKey(@NonNull String phone)
+    {
+        StringBuilder key = new StringBuilder(phone.length());
+
+        for (int i = 0; i < phone.length(); i++)
+        {
+            final char c = phone.charAt(i);
+
+            if(Character.isDigit(c) || (c == '+' && key.length() == 0))
+                key.append(c);
+        }
+
+        return key.length() > 0 ? key.toString() : phone;
+    }
+}
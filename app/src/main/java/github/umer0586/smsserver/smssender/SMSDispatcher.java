@@ -0,0 +1,407 @@
+package github.umer0586.smsserver.smssender;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import github.umer0586.smsserver.metrics.Histogram;
+
+/*
+ * Decouples HTTP worker threads from SMSSender.sendSMS() which blocks until the SMS_SENT broadcast arrives.
+ * Requests are put in a bounded in-memory queue with a lane per priority (see SMSSendQueue) and a single
+ * dispatcher thread drains that queue into an SMSSendWindow, which sends up to maxInFlight sms to different
+ * recipients at once and keeps sms to the same recipient in order.
+ *
+ * When an SMSOutbox is set, requests are persisted before being accepted and requests left
+ * in the outbox by a previous process are sent first when dispatcher starts.
+ *
+ * Sms failed for a transient reason are handed to SMSRetryScheduler which puts them back in the queue
+ * once their backoff has elapsed, they stay in outbox until sent or failed for good.
+ * */
+public class SMSDispatcher {
+
+    private static final String TAG = SMSDispatcher.class.getSimpleName();
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 1000;
+
+    private final SMSSenderPool smsSenderPool;
+    private final SMSSendQueue queue;
+    private final int queueCapacity;
+
+    private final SMSRetryScheduler retryScheduler = new SMSRetryScheduler(this::requeue);
+
+    private volatile SMSSendWindow sendWindow;
+    private int maxInFlight = SMSSendWindow.DEFAULT_MAX_IN_FLIGHT;
+
+    private SMSOutbox outbox;
+    private OnSMSResultListener onSMSResultListener;
+    private OnSMSRetryListener onSMSRetryListener;
+    private OnSMSDispatchedListener onSMSDispatchedListener;
+    private OnSMSQueuedListener onSMSQueuedListener;
+
+    // held while reporting queued and dispatched, so that a request is never reported dispatched before queued
+    private final Object listenerLock = new Object();
+
+    private Thread dispatcherThread;
+    private volatile boolean running = false;
+
+    // opened by dispatcher thread once it has read outbox, new requests wait for it so they are not replayed too
+    private volatile CountDownLatch replayLoaded = new CountDownLatch(0);
+
+    public SMSDispatcher(@NonNull SMSSenderPool smsSenderPool)
+    {
+        this(smsSenderPool, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * @param queueCapacity capacity of each priority lane
+     */
+    public SMSDispatcher(@NonNull SMSSenderPool smsSenderPool, int queueCapacity)
+    {
+        this.smsSenderPool = smsSenderPool;
+        this.queueCapacity = queueCapacity;
+        this.queue = new SMSSendQueue(queueCapacity);
+    }
+
+    public void setOutbox(SMSOutbox outbox)
+    {
+        this.outbox = outbox;
+    }
+
+    /**
+     * @param onSMSResultListener called on sender thread once each sms is sent or failed
+     */
+    public void setOnSMSResultListener(OnSMSResultListener onSMSResultListener)
+    {
+        this.onSMSResultListener = onSMSResultListener;
+    }
+
+    /**
+     * @param onSMSRetryListener called on sender thread when a failed sms is scheduled to be sent again
+     */
+    public void setOnSMSRetryListener(OnSMSRetryListener onSMSRetryListener)
+    {
+        this.onSMSRetryListener = onSMSRetryListener;
+    }
+
+    /**
+     * @param maxRetries number of times an sms failed for a transient reason is sent again, 0 disables retries
+     */
+    public void setMaxRetries(int maxRetries)
+    {
+        retryScheduler.setMaxRetries(maxRetries);
+    }
+
+    /**
+     * @param maxInFlight sms to different recipients sent at the same time, applied on next start
+     */
+    public void setMaxInFlight(int maxInFlight)
+    {
+        this.maxInFlight = Math.max(1, maxInFlight);
+    }
+
+    /**
+     * @param onSMSQueuedListener called on enqueuing thread for every request accepted into queue
+     */
+    public void setOnSMSQueuedListener(OnSMSQueuedListener onSMSQueuedListener)
+    {
+        this.onSMSQueuedListener = onSMSQueuedListener;
+    }
+
+    /**
+     * @param onSMSDispatchedListener called on sender thread right before an sms is sent
+     */
+    public void setOnSMSDispatchedListener(OnSMSDispatchedListener onSMSDispatchedListener)
+    {
+        this.onSMSDispatchedListener = onSMSDispatchedListener;
+    }
+
+    public synchronized void start()
+    {
+        if(running)
+            return;
+
+        final CountDownLatch replayLoaded = new CountDownLatch(1);
+        this.replayLoaded = replayLoaded;
+
+        running = true;
+        sendWindow = new SMSSendWindow(maxInFlight, queueCapacity, this::dispatch);
+        retryScheduler.start();
+
+        // outbox is read on dispatcher thread, start() is called on main thread
+        dispatcherThread = new Thread(() -> dispatchLoop(replayLoaded), TAG);
+        dispatcherThread.setDaemon(true);
+        dispatcherThread.start();
+    }
+
+    public synchronized void stop()
+    {
+        running = false;
+
+        if(dispatcherThread != null)
+        {
+            dispatcherThread.interrupt();
+            dispatcherThread = null;
+        }
+
+        // sms in flight, parked and waiting for retry are still in outbox and are sent on next start
+        if(sendWindow != null)
+            sendWindow.shutdown();
+
+        retryScheduler.stop();
+
+        if(outbox != null)
+            outbox.close();
+    }
+
+    public boolean isRunning()
+    {
+        return running;
+    }
+
+    /**
+     * Adds request to send queue without blocking
+     *
+     * @return false when queue is full
+     */
+    public boolean enqueue(@NonNull SMSRequest smsRequest)
+    {
+        List<SMSRequest> smsRequests = new ArrayList<>(1);
+        smsRequests.add(smsRequest);
+
+        return enqueueAll(smsRequests) == 1;
+    }
+
+    /**
+     * Adds requests to send queue in order, persisting all of them with a single outbox commit
+     *
+     * @return number of leading requests accepted, requests after that were rejected because lane of their priority is full
+     */
+    public int enqueueAll(@NonNull List<SMSRequest> smsRequests)
+    {
+        try
+        {
+            // read before any new request can be persisted so that replay and fresh traffic don't overlap
+            replayLoaded.await();
+
+            if(outbox != null && !outbox.appendAll(smsRequests))
+                return 0;
+
+        } catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return 0;
+        }
+
+        int accepted = 0;
+
+        synchronized (listenerLock)
+        {
+            while (accepted < smsRequests.size() && queue.offer(smsRequests.get(accepted)))
+            {
+                if(onSMSQueuedListener != null)
+                    onSMSQueuedListener.onSMSQueued(smsRequests.get(accepted));
+
+                accepted++;
+            }
+        }
+
+        // rejected requests must not be replayed later
+        if(outbox != null)
+            for (int i = accepted; i < smsRequests.size(); i++)
+                outbox.remove(smsRequests.get(i).getId());
+
+        return accepted;
+    }
+
+    /**
+     * @return sms queued or waiting for an earlier sms to same recipient to be sent
+     */
+    public int getQueueDepth()
+    {
+        final SMSSendWindow sendWindow = this.sendWindow;
+        return queue.size() + (sendWindow != null ? sendWindow.getParkedCount() : 0);
+    }
+
+    public int getQueueDepth(@NonNull SMSPriority priority)
+    {
+        return queue.size(priority);
+    }
+
+    /**
+     * @return time sms of given priority waited in send queue
+     */
+    public Histogram getQueueWaitTime(@NonNull SMSPriority priority)
+    {
+        return queue.getWaitTime(priority);
+    }
+
+    /**
+     * @return sms being sent, waiting for their SENT broadcast or for SIM rate limiter
+     */
+    public int getInFlightCount()
+    {
+        final SMSSendWindow sendWindow = this.sendWindow;
+        return sendWindow != null ? sendWindow.getInFlightCount() : 0;
+    }
+
+    /**
+     * @return failed sms waiting for their retry backoff to elapse
+     */
+    public int getWaitingRetryCount()
+    {
+        return retryScheduler.getWaitingCount();
+    }
+
+    public long getScheduledRetryCount()
+    {
+        return retryScheduler.getScheduledCount();
+    }
+
+    /**
+     * @return estimated milliseconds before a request of given priority enqueued now would be dispatched, -1 when sends are not paced
+     */
+    public long getEstimatedWaitMillis(@NonNull SMSPriority priority)
+    {
+        return smsSenderPool.estimateWaitMillis(queue.countAhead(priority) + 1);
+    }
+
+    private void dispatchLoop(CountDownLatch replayLoaded)
+    {
+        final SMSSendWindow sendWindow = this.sendWindow;
+        final List<SMSRequest> replay;
+
+        try
+        {
+            replay = outbox != null && running ? outbox.getPending() : new ArrayList<>();
+        } finally
+        {
+            replayLoaded.countDown();
+        }
+
+        if(!replay.isEmpty())
+            Log.i(TAG, "replaying " + replay.size() + " sms from outbox");
+
+        try
+        {
+            for (SMSRequest smsRequest : replay)
+            {
+                if(!running)
+                    return;
+
+                sendWindow.acquire();
+                sendWindow.submit(smsRequest);
+            }
+
+            while (running)
+            {
+                // a slot is taken first so that sms arriving meanwhile still compete by priority
+                sendWindow.acquire();
+
+                SMSRequest smsRequest;
+
+                try
+                {
+                    smsRequest = queue.take();
+                } catch (InterruptedException e)
+                {
+                    sendWindow.release();
+                    throw e;
+                }
+
+                sendWindow.submit(smsRequest);
+            }
+
+        } catch (InterruptedException e)
+        {
+            // dispatcher is stopping
+        }
+
+        Log.d(TAG, "dispatcher stopped with " + queue.size() + " request(s) pending");
+    }
+
+    /**
+     * Called on sender thread of window
+     *
+     * @return true when sms is scheduled to be retried
+     */
+    private boolean dispatch(SMSRequest smsRequest)
+    {
+        SMSResult result;
+
+        synchronized (listenerLock)
+        {
+            if(onSMSDispatchedListener != null)
+                onSMSDispatchedListener.onSMSDispatched(smsRequest);
+        }
+
+        try
+        {
+            //blocking call, waits for SIM rate limiter and then for SMS_SENT broadcast
+            result = smsSenderPool.send(smsRequest);
+
+        } catch (InterruptedException e)
+        {
+            // dispatcher is stopping, request stays in outbox (if any) and is replayed on next start
+            Thread.currentThread().interrupt();
+            return false;
+        }
+
+        if(result.getStatus() == SMSResult.STATUS_SENT_SUCCESS)
+            Log.d(TAG, "sms " + smsRequest.getId() + " sent");
+        else
+            Log.w(TAG, "sms " + smsRequest.getId() + " failed : " + result.getReason());
+
+        final long retryDelayMillis = retryScheduler.schedule(smsRequest, result);
+
+        // request stays in outbox until its last attempt
+        if(retryDelayMillis >= 0)
+        {
+            Log.i(TAG, "sms " + smsRequest.getId() + " will be retried in " + retryDelayMillis + "ms");
+
+            if(onSMSRetryListener != null)
+                onSMSRetryListener.onSMSRetry(smsRequest, result, retryScheduler.getRetryCount(smsRequest.getId()), retryDelayMillis);
+
+            return true;
+        }
+
+        retryScheduler.onCompleted(smsRequest);
+
+        if(outbox != null)
+            outbox.remove(smsRequest.getId());
+
+        if(onSMSResultListener != null)
+            onSMSResultListener.onSMSResult(smsRequest, result);
+
+        return false;
+    }
+
+    /**
+     * Sends a retry ahead of later sms to same recipient, it is already in outbox
+     */
+    private boolean requeue(SMSRequest smsRequest)
+    {
+        final SMSSendWindow sendWindow = this.sendWindow;
+        return running && sendWindow != null && sendWindow.resume(smsRequest);
+    }
+
+    public interface OnSMSResultListener {
+        void onSMSResult(SMSRequest smsRequest, SMSResult result);
+    }
+
+    public interface OnSMSQueuedListener {
+        void onSMSQueued(SMSRequest smsRequest);
+    }
+
+    public interface OnSMSDispatchedListener {
+        void onSMSDispatched(SMSRequest smsRequest);
+    }
+
+    public interface OnSMSRetryListener {
+        void onSMSRetry(SMSRequest smsRequest, SMSResult result, int retry, long delayMillis);
+    }
+}
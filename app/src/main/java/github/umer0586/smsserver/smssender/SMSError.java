@@ -0,0 +1,237 @@
+package github.umer0586.smsserver.smssender;
+
+import android.telephony.SmsManager;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/*
+ * Typed form of SmsManager result codes reported through SMS_SENT broadcast, each marked retryable
+ * when the failure is transient (radio off, no service, rate limited, modem busy...) and sending the same
+ * sms again later may succeed, or non retryable when it would fail again (bad number, invalid format, blocked...).
+ *
+ * Constants are named after SmsManager fields without their RESULT_ERROR_ / RESULT_ prefix. Codes are read
+ * from SmsManager fields of the running platform once, when this class is loaded, into immutable lookup tables
+ * so failures are resolved by a binary search without reflection. Codes the platform doesn't name map to UNKNOWN
+ * */
+public enum SMSError {
+
+    // not an error, sms was sent
+    NONE(false),
+
+    // failure with code platform has no name for
+    UNKNOWN(false),
+
+    GENERIC_FAILURE(true),
+    RADIO_OFF(true),
+    NULL_PDU(false),
+    NO_SERVICE(true),
+    LIMIT_EXCEEDED(true),
+    FDN_CHECK_FAILURE(false),
+    SHORT_CODE_NOT_ALLOWED(false),
+    SHORT_CODE_NEVER_ALLOWED(false),
+
+    // added in Android 11
+    RADIO_NOT_AVAILABLE(true),
+    NETWORK_REJECT(false),
+    INVALID_ARGUMENTS(false),
+    INVALID_STATE(true),
+    NO_MEMORY(true),
+    INVALID_SMS_FORMAT(false),
+    SYSTEM_ERROR(true),
+    MODEM_ERROR(true),
+    NETWORK_ERROR(true),
+    ENCODING_ERROR(false),
+    INVALID_SMSC_ADDRESS(false),
+    OPERATION_NOT_ALLOWED(false),
+    INTERNAL_ERROR(true),
+    NO_RESOURCES(true),
+    CANCELLED(false),
+    REQUEST_NOT_SUPPORTED(false),
+    NO_BLUETOOTH_SERVICE(false),
+    INVALID_BLUETOOTH_ADDRESS(false),
+    BLUETOOTH_DISCONNECTED(false),
+    UNEXPECTED_EVENT_STOP_SENDING(false),
+    SMS_BLOCKED_DURING_EMERGENCY(true),
+    SMS_SEND_RETRY_FAILED(true),
+    REMOTE_EXCEPTION(true),
+    NO_DEFAULT_SMS_APP(false),
+    USER_NOT_ALLOWED(false),
+
+    // reported by radio interface layer
+    RIL_RADIO_NOT_AVAILABLE(true),
+    RIL_SMS_SEND_FAIL_RETRY(true),
+    RIL_NETWORK_REJECT(false),
+    RIL_INVALID_STATE(true),
+    RIL_INVALID_ARGUMENTS(false),
+    RIL_NO_MEMORY(true),
+    RIL_REQUEST_RATE_LIMITED(true),
+    RIL_INVALID_SMS_FORMAT(false),
+    RIL_SYSTEM_ERR(true),
+    RIL_ENCODING_ERR(false),
+    RIL_INVALID_SMSC_ADDRESS(false),
+    RIL_MODEM_ERR(true),
+    RIL_NETWORK_ERR(true),
+    RIL_INTERNAL_ERR(true),
+    RIL_REQUEST_NOT_SUPPORTED(false),
+    RIL_INVALID_MODEM_STATE(true),
+    RIL_NETWORK_NOT_READY(true),
+    RIL_OPERATION_NOT_ALLOWED(false),
+    RIL_NO_RESOURCES(true),
+    RIL_CANCELLED(false),
+    RIL_SIM_ABSENT(false),
+    RIL_SIMULTANEOUS_SMS_AND_CALL_NOT_ALLOWED(true),
+    RIL_ACCESS_BARRED(true),
+    RIL_BLOCKED_DUE_TO_CALL(true),
+    RIL_GENERIC_ERROR(true);
+
+    private static final String TAG = SMSError.class.getSimpleName();
+
+    // codes sorted ascending, with SmsManager field name (e.g RESULT_ERROR_NO_SERVICE) and typed error of each
+    // code at same index. Plain arrays rather than SparseArray so that this class also works off device
+    private static final int[] CODES;
+    private static final String[] NAMES;
+    private static final SMSError[] ERRORS;
+
+    // when platform gives one code several names the first matching prefix wins, so result doesn't depend on
+    // order reflection lists fields in
+    private static final String[] NAME_PRECEDENCE = {"RESULT_ERROR_", "RESULT_RIL_", "RESULT_"};
+
+    static
+    {
+        TreeMap<Integer, String> namesByCode = new TreeMap<>();
+
+        for (Field field : SmsManager.class.getFields())
+        {
+            final String name = field.getName();
+
+            // RESULT_STATUS_* and RESULT_RECEIVE_* share values with send errors but are not reported for sends
+            if(!name.startsWith("RESULT_") || name.startsWith("RESULT_STATUS_") || name.startsWith("RESULT_RECEIVE_"))
+                continue;
+
+            if(field.getType() != int.class || !Modifier.isStatic(field.getModifiers()))
+                continue;
+
+            try
+            {
+                final int code = field.getInt(null);
+
+                if(code != 0 && precedes(name, namesByCode.get(code)))
+                    namesByCode.put(code, name);
+
+            } catch (IllegalAccessException e)
+            {
+                Log.w(TAG, "unable to read SmsManager." + name, e);
+            }
+        }
+
+        CODES = new int[namesByCode.size()];
+        NAMES = new String[namesByCode.size()];
+        ERRORS = new SMSError[namesByCode.size()];
+
+        int i = 0;
+
+        for (Map.Entry<Integer, String> entry : namesByCode.entrySet())
+        {
+            final String name = entry.getValue();
+
+            CODES[i] = entry.getKey();
+            NAMES[i] = name;
+            ERRORS[i] = toError(name);
+            i++;
+        }
+    }
+
+    private final boolean retryable;
+
+    SMSError(boolean retryable)
+    {
+        this.retryable = retryable;
+    }
+
+    /**
+     * @return true when sending same sms again later may succeed
+     */
+    public boolean isRetryable()
+    {
+        return retryable;
+    }
+
+    /**
+     * @param code result code of SMS_SENT broadcast, Activity.RESULT_OK (-1) or 0 for no error
+     */
+    @NonNull
+    public static SMSError fromCode(int code)
+    {
+        if(code == 0 || code == -1)
+            return NONE;
+
+        final int index = Arrays.binarySearch(CODES, code);
+        return index >= 0 ? ERRORS[index] : UNKNOWN;
+    }
+
+    /**
+     * @return name of SmsManager constant for code e.g RESULT_ERROR_NO_SERVICE
+     */
+    @NonNull
+    public static String getName(int code)
+    {
+        final int index = Arrays.binarySearch(CODES, code);
+        return index >= 0 ? NAMES[index] : "RESULT_ERROR_" + code;
+    }
+
+    /**
+     * @return true when name should be used for a code instead of other (null when code has no name yet)
+     */
+    private static boolean precedes(String name, String other)
+    {
+        if(other == null)
+            return true;
+
+        final int rank = getPrecedence(name);
+        final int otherRank = getPrecedence(other);
+
+        if(rank != otherRank)
+            return rank < otherRank;
+
+        // a name this enum knows over one it would map to UNKNOWN, then alphabetical
+        final boolean known = toError(name) != UNKNOWN;
+        final boolean otherKnown = toError(other) != UNKNOWN;
+
+        if(known != otherKnown)
+            return known;
+
+        return name.compareTo(other) < 0;
+    }
+
+    private static int getPrecedence(String name)
+    {
+        for (int i = 0; i < NAME_PRECEDENCE.length; i++)
+            if(name.startsWith(NAME_PRECEDENCE[i]))
+                return i;
+
+        return NAME_PRECEDENCE.length;
+    }
+
+    private static SMSError toError(String name)
+    {
+        return valueOfName(name.startsWith("RESULT_ERROR_") ? name.substring("RESULT_ERROR_".length()) : name.substring("RESULT_".length()));
+    }
+
+    private static SMSError valueOfName(String name)
+    {
+        try
+        {
+            return valueOf(name);
+        } catch (IllegalArgumentException e)
+        {
+            return UNKNOWN;
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package github.umer0586.smsserver.smssender;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/*
+ * Persistent outbox for queued sms so they survive process death.
+ *
+ * Database runs in WAL mode and all writes go through a single committer thread which groups
+ * every write waiting at that moment into one transaction (group commit). A caller of append()
+ * returns only after its transaction is committed, so concurrent callers share the cost of one commit.
+ * Rows are removed once an sms is completed (sent or failed), rows still present on next start are replayed.
+ * Delivery is therefore at-least-once : an sms sent right before the process is killed may be sent again
+ * */
+public class SMSOutbox extends SQLiteOpenHelper {
+
+    private static final String TAG = SMSOutbox.class.getSimpleName();
+
+    private static final String DATABASE_NAME = "outbox.db";
+    private static final int DATABASE_VERSION = 4;
+
+    private static final String TABLE_OUTBOX = "outbox";
+    private static final String COLUMN_ID = "id";
+    private static final String COLUMN_PHONE = "phone";
+    private static final String COLUMN_MESSAGE = "message";
+    private static final String COLUMN_SIM = "sim";
+    private static final String COLUMN_CREATED_AT = "created_at";
+    private static final String COLUMN_CALLBACK_URL = "callback_url";
+    private static final String COLUMN_PRIORITY = "priority";
+
+    // upper bound on writes committed in a single transaction
+    private static final int MAX_GROUP_SIZE = 256;
+
+    // how long close() waits for transaction in progress to end
+    private static final long CLOSE_TIMEOUT_MILLIS = 5000;
+
+    private final BlockingQueue<PendingWrite> pendingWrites = new LinkedBlockingQueue<>();
+    private final Thread committerThread;
+
+    private volatile boolean closed = false;
+
+    public SMSOutbox(@NonNull Context context)
+    {
+        super(context.getApplicationContext(), DATABASE_NAME, null, DATABASE_VERSION);
+        setWriteAheadLoggingEnabled(true);
+
+        committerThread = new Thread(this::commitLoop, TAG);
+        committerThread.setDaemon(true);
+        committerThread.start();
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db)
+    {
+        db.execSQL("CREATE TABLE " + TABLE_OUTBOX + " ("
+                + COLUMN_ID + " TEXT PRIMARY KEY, "
+                + COLUMN_PHONE + " TEXT NOT NULL, "
+                + COLUMN_MESSAGE + " TEXT NOT NULL, "
+                + COLUMN_SIM + " INTEGER NOT NULL DEFAULT 0, "
+                + COLUMN_CREATED_AT + " INTEGER NOT NULL, "
+                + COLUMN_CALLBACK_URL + " TEXT, "
+                + COLUMN_PRIORITY + " TEXT NOT NULL DEFAULT 'NORMAL')");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion)
+    {
+        if(oldVersion < 2)
+            db.execSQL("ALTER TABLE " + TABLE_OUTBOX + " ADD COLUMN " + COLUMN_SIM + " INTEGER NOT NULL DEFAULT 0");
+
+        if(oldVersion < 3)
+            db.execSQL("ALTER TABLE " + TABLE_OUTBOX + " ADD COLUMN " + COLUMN_CALLBACK_URL + " TEXT");
+
+        if(oldVersion < 4)
+            db.execSQL("ALTER TABLE " + TABLE_OUTBOX + " ADD COLUMN " + COLUMN_PRIORITY + " TEXT NOT NULL DEFAULT 'NORMAL'");
+    }
+
+    /**
+     * Persists request, blocks until it is committed
+     *
+     * @return false when request could not be persisted
+     */
+    public boolean append(@NonNull SMSRequest smsRequest) throws InterruptedException
+    {
+        return appendAll(Collections.singletonList(smsRequest));
+    }
+
+    /**
+     * Persists all requests in one transaction, blocks until they are committed
+     *
+     * @return false when requests could not be persisted
+     */
+    public boolean appendAll(@NonNull List<SMSRequest> smsRequests) throws InterruptedException
+    {
+        if(closed)
+            return false;
+
+        PendingWrite pendingWrite = new PendingWrite(smsRequests, null);
+        pendingWrites.put(pendingWrite);
+
+        // closed after check above, committer may already be gone. A write it didn't take is still in queue,
+        // one it took is released by it
+        if(closed && pendingWrites.remove(pendingWrite))
+            return false;
+
+        pendingWrite.committed.await();
+
+        return pendingWrite.success;
+    }
+
+    /**
+     * Removes completed request from outbox, does not wait for commit
+     */
+    public void remove(@NonNull String smsRequestId)
+    {
+        if(!closed)
+            pendingWrites.offer(new PendingWrite(null, smsRequestId));
+    }
+
+    /**
+     * @return requests which were persisted but not yet completed, oldest first
+     */
+    public List<SMSRequest> getPending()
+    {
+        List<SMSRequest> smsRequests = new ArrayList<>();
+
+        try (Cursor cursor = getReadableDatabase().query(TABLE_OUTBOX,
+                new String[]{COLUMN_ID, COLUMN_PHONE, COLUMN_MESSAGE, COLUMN_SIM, COLUMN_CREATED_AT, COLUMN_CALLBACK_URL, COLUMN_PRIORITY},
+                null, null, null, null, COLUMN_CREATED_AT + " ASC"))
+        {
+            while (cursor.moveToNext())
+            {
+                smsRequests.add(new SMSRequest(
+                        cursor.getString(0),
+                        cursor.getString(1),
+                        cursor.getString(2),
+                        cursor.getInt(3),
+                        cursor.getLong(4),
+                        cursor.getString(5),
+                        parsePriority(cursor.getString(6))
+                ));
+            }
+
+        } catch (SQLException | IllegalStateException e)
+        {
+            // IllegalStateException when outbox was closed by stop() while being read
+            Log.e(TAG, "unable to read outbox", e);
+        }
+
+        return smsRequests;
+    }
+
+    private static SMSPriority parsePriority(String priority)
+    {
+        final SMSPriority smsPriority = SMSPriority.parse(priority);
+        return smsPriority != null ? smsPriority : SMSPriority.NORMAL;
+    }
+
+    /**
+     * Stops committer, waiting for transaction in progress to end, then closes database.
+     * Not synchronized : committer needs lock of this helper to get database while it finishes
+     */
+    @Override
+    public void close()
+    {
+        closed = true;
+        committerThread.interrupt();
+
+        try
+        {
+            committerThread.join(CLOSE_TIMEOUT_MILLIS);
+        } catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        if(committerThread.isAlive())
+            Log.w(TAG, "outbox committer still running after " + CLOSE_TIMEOUT_MILLIS + "ms, closing database anyway");
+
+        super.close();
+    }
+
+    private void commitLoop()
+    {
+        List<PendingWrite> group = new ArrayList<>();
+
+        while (!closed)
+        {
+            try
+            {
+                group.add(pendingWrites.take());
+            } catch (InterruptedException e)
+            {
+                break;
+            }
+
+            // everything that queued up while previous transaction was committing goes into this one
+            pendingWrites.drainTo(group, MAX_GROUP_SIZE - 1);
+
+            boolean success = commit(group);
+
+            for (PendingWrite pendingWrite : group)
+            {
+                pendingWrite.success = success;
+                pendingWrite.committed.countDown();
+            }
+
+            group.clear();
+        }
+
+        // release callers still waiting for a commit
+        pendingWrites.drainTo(group);
+        for (PendingWrite pendingWrite : group)
+            pendingWrite.committed.countDown();
+    }
+
+    private boolean commit(List<PendingWrite> group)
+    {
+        try
+        {
+            SQLiteDatabase db = getWritableDatabase();
+            db.beginTransaction();
+
+            try
+            {
+                for (PendingWrite pendingWrite : group)
+                {
+                    if (pendingWrite.inserts != null)
+                    {
+                        for (SMSRequest smsRequest : pendingWrite.inserts)
+                        {
+                            ContentValues values = new ContentValues();
+                            values.put(COLUMN_ID, smsRequest.getId());
+                            values.put(COLUMN_PHONE, smsRequest.getPhone());
+                            values.put(COLUMN_MESSAGE, smsRequest.getMessage());
+                            values.put(COLUMN_SIM, smsRequest.getSim());
+                            values.put(COLUMN_CREATED_AT, smsRequest.getCreatedAt());
+                            values.put(COLUMN_CALLBACK_URL, smsRequest.getCallbackUrl());
+                            values.put(COLUMN_PRIORITY, smsRequest.getPriority().name());
+
+                            db.insertWithOnConflict(TABLE_OUTBOX, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+                        }
+                    }
+                    else
+                    {
+                        db.delete(TABLE_OUTBOX, COLUMN_ID + " = ?", new String[]{pendingWrite.deleteId});
+                    }
+                }
+
+                db.setTransactionSuccessful();
+
+            } finally
+            {
+                db.endTransaction();
+            }
+
+            return true;
+
+        } catch (SQLException | IllegalStateException e)
+        {
+            Log.e(TAG, "unable to commit " + group.size() + " outbox write(s)", e);
+            return false;
+        }
+    }
+
+    private static class PendingWrite {
+
+        private final List<SMSRequest> inserts;
+        private final String deleteId;
+        private final CountDownLatch committed = new CountDownLatch(1);
+        private volatile boolean success = false;
+
+        private PendingWrite(List<SMSRequest> inserts, String deleteId)
+        {
+            this.inserts = inserts;
+            this.deleteId = deleteId;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package github.umer0586.smsserver.smssender;
+
+import androidx.annotation.Nullable;
+
+import java.util.Locale;
+
+/*
+ * Send queue lane of an sms. HIGH (e.g one time passwords) is always sent first, NORMAL and BULK (e.g marketing)
+ * share what is left so that a large bulk backlog neither delays HIGH nor completely stalls NORMAL
+ * */
+public enum SMSPriority {
+
+    HIGH,
+    NORMAL,
+    BULK;
+
+    /**
+     * @param priority value of "priority" request parameter e.g "high", null when absent
+     * @return NORMAL when priority is null or empty, null when it is not a known priority
+     */
+    @Nullable
+    public static SMSPriority parse(@Nullable String priority)
+    {
+        if(priority == null || priority.isEmpty())
+            return NORMAL;
+
+        for (SMSPriority smsPriority : values())
+            if(smsPriority.name().equalsIgnoreCase(priority))
+                return smsPriority;
+
+        return null;
+    }
+
+    /**
+     * @return lower case name as used in requests and metrics e.g "high"
+     */
+    public String getName()
+    {
+        return name().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,90 @@
+package github.umer0586.smsserver.smssender;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.UUID;
+
+public class SMSRequest {
+
+    private final String id;
+    private final String phone;
+    private final String message;
+    // 1 based SIM slot or SMSSenderPool.ANY_SIM
+    private final int sim;
+    private final long createdAt;
+    // URL outcome is posted to once sms is sent or failed, null for none
+    private final String callbackUrl;
+    private final SMSPriority priority;
+
+    public SMSRequest(@NonNull String phone, @NonNull String message)
+    {
+        this(phone, message, SMSSenderPool.ANY_SIM);
+    }
+
+    public SMSRequest(@NonNull String phone, @NonNull String message, int sim)
+    {
+        this(phone, message, sim, null);
+    }
+
+    public SMSRequest(@NonNull String phone, @NonNull String message, int sim, @Nullable String callbackUrl)
+    {
+        this(phone, message, sim, callbackUrl, SMSPriority.NORMAL);
+    }
+
+    public SMSRequest(@NonNull String phone, @NonNull String message, int sim, @Nullable String callbackUrl, @NonNull SMSPriority priority)
+    {
+        this(UUID.randomUUID().toString(), phone, message, sim, System.currentTimeMillis(), callbackUrl, priority);
+    }
+
+    public SMSRequest(@NonNull String id, @NonNull String phone, @NonNull String message, int sim, long createdAt, @Nullable String callbackUrl)
+    {
+        this(id, phone, message, sim, createdAt, callbackUrl, SMSPriority.NORMAL);
+    }
+
+    public SMSRequest(@NonNull String id, @NonNull String phone, @NonNull String message, int sim, long createdAt, @Nullable String callbackUrl, @NonNull SMSPriority priority)
+    {
+        this.id = id;
+        this.phone = phone;
+        this.message = message;
+        this.sim = sim;
+        this.createdAt = createdAt;
+        this.callbackUrl = callbackUrl;
+        this.priority = priority;
+    }
+
+    public String getId()
+    {
+        return id;
+    }
+
+    public String getPhone()
+    {
+        return phone;
+    }
+
+    public String getMessage()
+    {
+        return message;
+    }
+
+    public int getSim()
+    {
+        return sim;
+    }
+
+    public long getCreatedAt()
+    {
+        return createdAt;
+    }
+
+    public String getCallbackUrl()
+    {
+        return callbackUrl;
+    }
+
+    public SMSPriority getPriority()
+    {
+        return priority;
+    }
+}
@@ -9,6 +9,14 @@ public class SMSResult {
     private int status;
     private String reason;
 
+    // number of parts message was divided into, greater than 1 for multipart sms
+    private int partCount = 1;
+    private int failedPartCount = 0;
+
+    // SmsManager.RESULT_ERROR_* code reported for first failed part, 0 when there is none
+    private int errorCode = 0;
+    private SMSError error = SMSError.NONE;
+
     public int getStatus()
     {
         return status;
@@ -19,6 +27,20 @@ public class SMSResult {
         this.status = status;
     }
 
+    /**
+     * @return status as reported to clients e.g "SENT"
+     */
+    public String getStatusName()
+    {
+        switch (status)
+        {
+            case STATUS_SENT_SUCCESS: return "SENT";
+            case STATUS_SENT_FAIL: return "FAILED";
+            case STATUS_EXCEPTION_OCCURRED: return "EXCEPTION";
+            default: return "UNKNOWN";
+        }
+    }
+
     public String getReason()
     {
         return reason;
@@ -29,4 +51,51 @@ public class SMSResult {
         this.reason = reason;
     }
 
+    public int getPartCount()
+    {
+        return partCount;
+    }
+
+    public void setPartCount(int partCount)
+    {
+        this.partCount = partCount;
+    }
+
+    public int getFailedPartCount()
+    {
+        return failedPartCount;
+    }
+
+    public void setFailedPartCount(int failedPartCount)
+    {
+        this.failedPartCount = failedPartCount;
+    }
+
+    public int getErrorCode()
+    {
+        return errorCode;
+    }
+
+    public void setErrorCode(int errorCode)
+    {
+        this.errorCode = errorCode;
+        this.error = SMSError.fromCode(errorCode);
+    }
+
+    /**
+     * @return typed error of first failed part, NONE when sms was sent or failed without an SmsManager error code
+     */
+    public SMSError getError()
+    {
+        return error;
+    }
+
+    /**
+     * @return true when sms failed for a transient reason and may be sent if tried again later
+     */
+    public boolean isRetryable()
+    {
+        return status == STATUS_SENT_FAIL && error.isRetryable();
+    }
+
 }
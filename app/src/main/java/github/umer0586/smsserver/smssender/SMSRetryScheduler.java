@@ -0,0 +1,269 @@
+package github.umer0586.smsserver.smssender;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Schedules sms which failed for a transient reason (no service, radio off, carrier rate limit...) to be sent again.
+ *
+ * Waiting retries are kept in a DelayQueue served by one thread, which hands each retry back to the
+ * dispatcher once its backoff has elapsed. So a retry never holds up the dispatcher or fresh sms while it waits.
+ *
+ * Backoff doubles with every retry up to a maximum and is jittered (half fixed, half random) so that sms which
+ * failed together during an outage don't all retry at the same moment. Initial and maximum backoff depend on
+ * the error, e.g a carrier rate limit is retried much later than a modem error.
+ * */
+public class SMSRetryScheduler {
+
+    private static final String TAG = SMSRetryScheduler.class.getSimpleName();
+
+    public static final int DEFAULT_MAX_RETRIES = 3;
+
+    // wait before trying again to hand a due retry to a full send window, doubles with every attempt
+    private static final long REQUEUE_DELAY_MILLIS = 1000;
+    private static final long MAX_REQUEUE_DELAY_MILLIS = 16 * 1000;
+
+    private static final Policy DEFAULT_POLICY = new Policy(5 * 1000, 2 * 60 * 1000, Integer.MAX_VALUE);
+    private static final Map<SMSError, Policy> POLICIES = new EnumMap<>(SMSError.class);
+
+    static
+    {
+        // carrier or platform throttling, retrying soon only extends the throttle
+        Policy rateLimited = new Policy(60 * 1000, 15 * 60 * 1000, Integer.MAX_VALUE);
+        POLICIES.put(SMSError.LIMIT_EXCEEDED, rateLimited);
+        POLICIES.put(SMSError.RIL_REQUEST_RATE_LIMITED, rateLimited);
+
+        // phone is out of coverage, in airplane mode or busy with a call or emergency, usually lasts minutes
+        Policy noRadio = new Policy(30 * 1000, 10 * 60 * 1000, Integer.MAX_VALUE);
+        POLICIES.put(SMSError.RADIO_OFF, noRadio);
+        POLICIES.put(SMSError.NO_SERVICE, noRadio);
+        POLICIES.put(SMSError.RADIO_NOT_AVAILABLE, noRadio);
+        POLICIES.put(SMSError.RIL_RADIO_NOT_AVAILABLE, noRadio);
+        POLICIES.put(SMSError.RIL_NETWORK_NOT_READY, noRadio);
+        POLICIES.put(SMSError.RIL_ACCESS_BARRED, noRadio);
+        POLICIES.put(SMSError.SMS_BLOCKED_DURING_EMERGENCY, noRadio);
+        POLICIES.put(SMSError.RIL_BLOCKED_DUE_TO_CALL, noRadio);
+        POLICIES.put(SMSError.RIL_SIMULTANEOUS_SMS_AND_CALL_NOT_ALLOWED, noRadio);
+
+        // often caused by something retrying won't fix (e.g no credit), tried once more only
+        POLICIES.put(SMSError.GENERIC_FAILURE, new Policy(10 * 1000, 60 * 1000, 1));
+    }
+
+    private final DelayQueue<Retry> queue = new DelayQueue<>();
+
+    // retries made so far by request id, for requests which have been retried and not yet completed
+    private final ConcurrentHashMap<String, Integer> retryCounts = new ConcurrentHashMap<>();
+
+    private final OnRetryDueListener onRetryDueListener;
+    private final Random random = new Random();
+
+    private final AtomicLong scheduledCount = new AtomicLong();
+
+    private volatile int maxRetries = DEFAULT_MAX_RETRIES;
+
+    private Thread schedulerThread;
+    private volatile boolean running = false;
+
+    /**
+     * @param onRetryDueListener called on scheduler thread when a retry is due to be sent
+     */
+    public SMSRetryScheduler(@NonNull OnRetryDueListener onRetryDueListener)
+    {
+        this.onRetryDueListener = onRetryDueListener;
+    }
+
+    /**
+     * @param maxRetries number of times a failed sms is retried, 0 disables retries
+     */
+    public void setMaxRetries(int maxRetries)
+    {
+        this.maxRetries = Math.max(0, maxRetries);
+    }
+
+    public synchronized void start()
+    {
+        if(running)
+            return;
+
+        running = true;
+        schedulerThread = new Thread(this::scheduleLoop, TAG);
+        schedulerThread.setDaemon(true);
+        schedulerThread.start();
+    }
+
+    /**
+     * Drops waiting retries, callers keep them in outbox (if any) so they are sent on next start
+     */
+    public synchronized void stop()
+    {
+        running = false;
+
+        if(schedulerThread != null)
+        {
+            schedulerThread.interrupt();
+            schedulerThread = null;
+        }
+
+        if(!queue.isEmpty())
+            Log.w(TAG, "stopped with " + queue.size() + " retry(s) waiting");
+
+        queue.clear();
+        retryCounts.clear();
+    }
+
+    /**
+     * Schedules failed sms to be sent again if its error is transient and it has retries left
+     *
+     * @return milliseconds before sms is sent again, -1 when it won't be retried
+     */
+    public long schedule(@NonNull SMSRequest smsRequest, @NonNull SMSResult result)
+    {
+        if(!running || !result.isRetryable())
+            return -1;
+
+        final Policy policy = getPolicy(result.getError());
+        final int retry = getRetryCount(smsRequest.getId()) + 1;
+
+        if(retry > Math.min(maxRetries, policy.maxRetries))
+            return -1;
+
+        final long backoffMillis = getBackoffMillis(policy, retry);
+
+        retryCounts.put(smsRequest.getId(), retry);
+        queue.put(new Retry(smsRequest, backoffMillis));
+        scheduledCount.incrementAndGet();
+
+        return backoffMillis;
+    }
+
+    /**
+     * Forgets retry count of a request once it is sent or has failed for good
+     */
+    public void onCompleted(@NonNull SMSRequest smsRequest)
+    {
+        retryCounts.remove(smsRequest.getId());
+    }
+
+    /**
+     * @return retries made so far for request, 0 when it was not retried
+     */
+    public int getRetryCount(@NonNull String id)
+    {
+        final Integer retryCount = retryCounts.get(id);
+        return retryCount != null ? retryCount : 0;
+    }
+
+    public int getWaitingCount()
+    {
+        return queue.size();
+    }
+
+    public long getScheduledCount()
+    {
+        return scheduledCount.get();
+    }
+
+    private static Policy getPolicy(SMSError error)
+    {
+        final Policy policy = POLICIES.get(error);
+        return policy != null ? policy : DEFAULT_POLICY;
+    }
+
+    private long getBackoffMillis(Policy policy, int retry)
+    {
+        final long backoff = Math.min(policy.maxBackoffMillis, policy.initialBackoffMillis << Math.min(retry - 1, 20));
+
+        return backoff / 2 + (long) (random.nextDouble() * (backoff / 2));
+    }
+
+    private void scheduleLoop()
+    {
+        while (running)
+        {
+            final Retry retry;
+
+            try
+            {
+                retry = queue.take();
+            } catch (InterruptedException e)
+            {
+                break;
+            }
+
+            if(!onRetryDueListener.onRetryDue(retry.smsRequest))
+            {
+                // every sender is busy, retry waits a little longer rather than blocking other retries.
+                // Backing off keeps a window which stays full (e.g sends hanging until timeout) from being polled every second
+                final int requeueCount = retry.requeueCount + 1;
+                final long delayMillis = Math.min(MAX_REQUEUE_DELAY_MILLIS, REQUEUE_DELAY_MILLIS << Math.min(requeueCount - 1, 10));
+
+                queue.put(new Retry(retry.smsRequest, delayMillis, requeueCount));
+            }
+        }
+    }
+
+    public interface OnRetryDueListener {
+
+        /**
+         * @return false when sms could not be sent now
+         */
+        boolean onRetryDue(SMSRequest smsRequest);
+    }
+
+    private static class Policy {
+
+        private final long initialBackoffMillis;
+        private final long maxBackoffMillis;
+        private final int maxRetries;
+
+        private Policy(long initialBackoffMillis, long maxBackoffMillis, int maxRetries)
+        {
+            this.initialBackoffMillis = initialBackoffMillis;
+            this.maxBackoffMillis = maxBackoffMillis;
+            this.maxRetries = maxRetries;
+        }
+    }
+
+    private static class Retry implements Delayed {
+
+        private final SMSRequest smsRequest;
+        private final long dueAtMillis;
+
+        // times it was due but could not be handed over
+        private final int requeueCount;
+
+        private Retry(SMSRequest smsRequest, long delayMillis)
+        {
+            this(smsRequest, delayMillis, 0);
+        }
+
+        private Retry(SMSRequest smsRequest, long delayMillis, int requeueCount)
+        {
+            this.smsRequest = smsRequest;
+            this.dueAtMillis = System.currentTimeMillis() + delayMillis;
+            this.requeueCount = requeueCount;
+        }
+
+        @Override
+        public long getDelay(@NonNull TimeUnit unit)
+        {
+            return unit.convert(dueAtMillis - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(@NonNull Delayed other)
+        {
+            return Long.compare(dueAtMillis, ((Retry) other).dueAtMillis);
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package github.umer0586.smsserver.smssender;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import github.umer0586.smsserver.metrics.Histogram;
+import github.umer0586.smsserver.metrics.Metrics;
+
+/*
+ * Bounded send queue with one FIFO lane per SMSPriority.
+ *
+ * HIGH lane has strict priority : as long as it holds an sms nothing else is taken. Lower lanes share what is
+ * left by weight (smooth weighted round robin, NORMAL gets 4 sms for every BULK sms while both have sms waiting)
+ * so a bulk backlog slows NORMAL traffic down by at most a fifth and never stalls it.
+ *
+ * Each lane has its own capacity so a full BULK lane never causes HIGH or NORMAL sms to be rejected.
+ * */
+public class SMSSendQueue {
+
+    // share of lower lanes, HIGH is strict and has no weight
+    private static final int NORMAL_WEIGHT = 4;
+    private static final int BULK_WEIGHT = 1;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+
+    private final Lane[] lanes = new Lane[SMSPriority.values().length];
+
+    public SMSSendQueue(int laneCapacity)
+    {
+        lanes[SMSPriority.HIGH.ordinal()] = new Lane(laneCapacity, 0);
+        lanes[SMSPriority.NORMAL.ordinal()] = new Lane(laneCapacity, NORMAL_WEIGHT);
+        lanes[SMSPriority.BULK.ordinal()] = new Lane(laneCapacity, BULK_WEIGHT);
+    }
+
+    /**
+     * Adds request to lane of its priority without blocking
+     *
+     * @return false when lane is full
+     */
+    public boolean offer(@NonNull SMSRequest smsRequest)
+    {
+        final Lane lane = lanes[smsRequest.getPriority().ordinal()];
+
+        lock.lock();
+
+        try
+        {
+            if(lane.entries.size() >= lane.capacity)
+                return false;
+
+            lane.entries.add(new Entry(smsRequest, System.nanoTime()));
+            notEmpty.signal();
+
+            return true;
+
+        } finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Blocks until an sms is waiting and takes the one which should be sent next
+     */
+    public SMSRequest take() throws InterruptedException
+    {
+        final Entry entry;
+        Lane lane;
+
+        lock.lockInterruptibly();
+
+        try
+        {
+            while ((lane = nextLane()) == null)
+                notEmpty.await();
+
+            entry = lane.entries.poll();
+
+        } finally
+        {
+            lock.unlock();
+        }
+
+        final long waitNanos = System.nanoTime() - entry.enqueuedAtNanos;
+
+        lane.waitTime.recordNanos(waitNanos);
+        Metrics.QUEUE_WAIT.recordNanos(waitNanos);
+
+        return entry.smsRequest;
+    }
+
+    public int size()
+    {
+        lock.lock();
+
+        try
+        {
+            int size = 0;
+
+            for (Lane lane : lanes)
+                size += lane.entries.size();
+
+            return size;
+
+        } finally
+        {
+            lock.unlock();
+        }
+    }
+
+    public int size(@NonNull SMSPriority priority)
+    {
+        lock.lock();
+
+        try
+        {
+            return lanes[priority.ordinal()].entries.size();
+        } finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of sms which would be sent before an sms of given priority enqueued now
+     */
+    public int countAhead(@NonNull SMSPriority priority)
+    {
+        lock.lock();
+
+        try
+        {
+            final int high = lanes[SMSPriority.HIGH.ordinal()].entries.size();
+            final int normal = lanes[SMSPriority.NORMAL.ordinal()].entries.size();
+            final int bulk = lanes[SMSPriority.BULK.ordinal()].entries.size();
+
+            switch (priority)
+            {
+                case HIGH: return high;
+                case NORMAL: return high + normal + Math.min(bulk, (normal + 1) * BULK_WEIGHT / NORMAL_WEIGHT);
+                default: return high + bulk + Math.min(normal, (bulk + 1) * NORMAL_WEIGHT / BULK_WEIGHT);
+            }
+
+        } finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return time sms of given priority waited in queue, for sms taken so far
+     */
+    public Histogram getWaitTime(@NonNull SMSPriority priority)
+    {
+        return lanes[priority.ordinal()].waitTime;
+    }
+
+    // called with lock held, null when all lanes are empty
+    private Lane nextLane()
+    {
+        final Lane high = lanes[SMSPriority.HIGH.ordinal()];
+
+        if(!high.entries.isEmpty())
+            return high;
+
+        Lane selected = null;
+        int totalWeight = 0;
+
+        for (Lane lane : lanes)
+        {
+            if(lane == high || lane.entries.isEmpty())
+                continue;
+
+            lane.currentWeight += lane.weight;
+            totalWeight += lane.weight;
+
+            if(selected == null || lane.currentWeight > selected.currentWeight)
+                selected = lane;
+        }
+
+        if(selected != null)
+            selected.currentWeight -= totalWeight;
+
+        return selected;
+    }
+
+    private static class Lane {
+
+        private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+        private final int capacity;
+        private final int weight;
+
+        // smooth weighted round robin state
+        private int currentWeight = 0;
+
+        private final Histogram waitTime = new Histogram();
+
+        private Lane(int capacity, int weight)
+        {
+            this.capacity = capacity;
+            this.weight = weight;
+        }
+    }
+
+    private static class Entry {
+
+        private final SMSRequest smsRequest;
+        private final long enqueuedAtNanos;
+
+        private Entry(SMSRequest smsRequest, long enqueuedAtNanos)
+        {
+            this.smsRequest = smsRequest;
+            this.enqueuedAtNanos = enqueuedAtNanos;
+        }
+    }
+}
@@ -0,0 +1,298 @@
+package github.umer0586.smsserver.smssender;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * Sends sms to different recipients in parallel while keeping sms to the same recipient in order.
+ *
+ * At most maxInFlight sms are being sent at once, each on its own sender thread which waits for the SENT
+ * PendingIntent(s) of its sms. A recipient has at most one sms in flight : an sms submitted while its recipient
+ * is busy is parked behind it (without holding a slot of the window) and is sent by the same sender thread right
+ * after, so a conversation split in several sms arrives in the order it was queued.
+ *
+ * A recipient whose sms waits for a retry stays busy until that retry completes, later sms to it stay parked.
+ * Those don't count toward the parked limit while the retry waits, otherwise a few recipients out of coverage
+ * could fill it and stop sms to every other recipient from being sent.
+ * */
+public class SMSSendWindow {
+
+    private static final String TAG = SMSSendWindow.class.getSimpleName();
+
+    public static final int DEFAULT_MAX_IN_FLIGHT = 4;
+
+    private final Semaphore slots;
+    private final int maxInFlight;
+    private final int maxParked;
+    private final SendTask sendTask;
+
+    private final ExecutorService senders;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition parkedBelowLimit = lock.newCondition();
+
+    // busy recipients, with sms parked behind the one in flight (or waiting for retry)
+    private final Map<String, Recipient> busyRecipients = new HashMap<>();
+    private int parkedCount = 0;
+
+    // parked behind recipients whose sms waits for a retry, not counted toward maxParked
+    private int retryParkedCount = 0;
+
+    /**
+     * @param maxInFlight sms being sent at the same time
+     * @param maxParked sms which can wait for their recipient in flight, {@link #acquire()} blocks beyond that
+     * @param sendTask called on a sender thread for every sms
+     */
+    public SMSSendWindow(int maxInFlight, int maxParked, @NonNull SendTask sendTask)
+    {
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.maxParked = Math.max(1, maxParked);
+        this.sendTask = sendTask;
+        this.slots = new Semaphore(this.maxInFlight);
+
+        final AtomicInteger threadCount = new AtomicInteger();
+
+        this.senders = Executors.newFixedThreadPool(this.maxInFlight, runnable -> {
+            Thread thread = new Thread(runnable, TAG + "-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Blocks until a slot of the window is free and parked sms are below limit,
+     * must be followed by {@link #submit(SMSRequest)} or {@link #release()}
+     */
+    public void acquire() throws InterruptedException
+    {
+        lock.lockInterruptibly();
+
+        try
+        {
+            while (parkedCount - retryParkedCount >= maxParked)
+                parkedBelowLimit.await();
+
+        } finally
+        {
+            lock.unlock();
+        }
+
+        slots.acquire();
+    }
+
+    /**
+     * Gives back slot taken by {@link #acquire()} without submitting anything
+     */
+    public void release()
+    {
+        slots.release();
+    }
+
+    /**
+     * Sends sms using slot taken by {@link #acquire()}, or parks it when its recipient is busy
+     */
+    public void submit(@NonNull SMSRequest smsRequest)
+    {
+        final String recipient = PhoneNumbers.getKey(smsRequest.getPhone());
+
+        lock.lock();
+
+        try
+        {
+            final Recipient busyRecipient = busyRecipients.get(recipient);
+
+            if(busyRecipient != null)
+            {
+                busyRecipient.parked.add(smsRequest);
+                parkedCount++;
+
+                if(busyRecipient.waitingForRetry)
+                    retryParkedCount++;
+
+                slots.release();
+                return;
+            }
+
+            busyRecipients.put(recipient, new Recipient());
+
+        } finally
+        {
+            lock.unlock();
+        }
+
+        execute(recipient, smsRequest);
+    }
+
+    /**
+     * Sends a retry of an sms whose recipient was kept busy, without blocking
+     *
+     * @return false when window is full
+     */
+    public boolean resume(@NonNull SMSRequest smsRequest)
+    {
+        if(!slots.tryAcquire())
+            return false;
+
+        final String recipient = PhoneNumbers.getKey(smsRequest.getPhone());
+
+        setWaitingForRetry(recipient, false);
+        execute(recipient, smsRequest);
+        return true;
+    }
+
+    /**
+     * Interrupts sender threads, parked sms are dropped (they are still in outbox if any)
+     */
+    public void shutdown()
+    {
+        senders.shutdownNow();
+
+        lock.lock();
+
+        try
+        {
+            busyRecipients.clear();
+            parkedCount = 0;
+            retryParkedCount = 0;
+            parkedBelowLimit.signalAll();
+
+        } finally
+        {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlightCount()
+    {
+        return maxInFlight - slots.availablePermits();
+    }
+
+    public int getParkedCount()
+    {
+        lock.lock();
+
+        try
+        {
+            return parkedCount;
+        } finally
+        {
+            lock.unlock();
+        }
+    }
+
+    private void execute(String recipient, SMSRequest smsRequest)
+    {
+        try
+        {
+            senders.execute(() -> sendInOrder(recipient, smsRequest));
+        } catch (RuntimeException e)
+        {
+            // window was shut down
+            slots.release();
+        }
+    }
+
+    // runs on sender thread, sends sms and then those parked behind it until recipient has none left
+    private void sendInOrder(String recipient, SMSRequest first)
+    {
+        try
+        {
+            SMSRequest smsRequest = first;
+
+            while (smsRequest != null && !Thread.currentThread().isInterrupted())
+            {
+                // recipient stays busy while its sms waits for a retry
+                if(sendTask.send(smsRequest))
+                {
+                    setWaitingForRetry(recipient, true);
+                    return;
+                }
+
+                smsRequest = nextOf(recipient);
+            }
+
+        } finally
+        {
+            slots.release();
+        }
+    }
+
+    private SMSRequest nextOf(String recipient)
+    {
+        lock.lock();
+
+        try
+        {
+            final Recipient busyRecipient = busyRecipients.get(recipient);
+
+            if(busyRecipient == null || busyRecipient.parked.isEmpty())
+            {
+                busyRecipients.remove(recipient);
+                return null;
+            }
+
+            parkedCount--;
+            parkedBelowLimit.signal();
+
+            return busyRecipient.parked.poll();
+
+        } finally
+        {
+            lock.unlock();
+        }
+    }
+
+    private void setWaitingForRetry(String recipient, boolean waitingForRetry)
+    {
+        lock.lock();
+
+        try
+        {
+            final Recipient busyRecipient = busyRecipients.get(recipient);
+
+            if(busyRecipient == null || busyRecipient.waitingForRetry == waitingForRetry)
+                return;
+
+            busyRecipient.waitingForRetry = waitingForRetry;
+
+            if(waitingForRetry)
+            {
+                retryParkedCount += busyRecipient.parked.size();
+                parkedBelowLimit.signalAll();
+            }
+            else
+            {
+                retryParkedCount -= busyRecipient.parked.size();
+            }
+
+        } finally
+        {
+            lock.unlock();
+        }
+    }
+
+    private static class Recipient {
+
+        private final ArrayDeque<SMSRequest> parked = new ArrayDeque<>();
+        private boolean waitingForRetry = false;
+    }
+
+    public interface SendTask {
+
+        /**
+         * Sends sms and blocks until it is sent or failed
+         *
+         * @return true when sms will be retried, its recipient then stays busy until {@link #resume(SMSRequest)}
+         */
+        boolean send(SMSRequest smsRequest);
+    }
+}
@@ -2,28 +2,40 @@ package github.umer0586.smsserver.smssender;
 
 
 import android.app.Activity;
-import android.app.PendingIntent;
-import android.content.BroadcastReceiver;
 import android.content.Context;
-import android.content.Intent;
-import android.content.IntentFilter;
-import android.telephony.SmsManager;
 
 import androidx.annotation.NonNull;
 
-import java.lang.reflect.Field;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.reactivex.rxjava3.core.Single;
+import io.reactivex.rxjava3.core.SingleEmitter;
+import io.reactivex.rxjava3.disposables.Disposable;
+import io.reactivex.rxjava3.schedulers.Schedulers;
 
 
 public class SMSSender {
 
+    // send through SIM chosen by user as default for sms
+    public static final int DEFAULT_SUBSCRIPTION = -1;
+
+    public static final int DEFAULT_MAX_OUTSTANDING_SENDS = 16;
+    public static final long DEFAULT_SEND_TIMEOUT_MILLIS = 60 * 1000;
 
-    private static final String SENT = "SMS_SENT_ACTION";
+    private static final OutstandingSends outstandingSends = new OutstandingSends(DEFAULT_MAX_OUTSTANDING_SENDS);
+    private static volatile long sendTimeoutMillis = DEFAULT_SEND_TIMEOUT_MILLIS;
 
-    //Update: Beginning with Android 4.4 this intent will only be delivered to the default sms app.
-    //private static final String DELIVERED = "SMS_DELIVERED_ACTION";
+    private static volatile SMSTransport transport;
+    private static SmsManagerTransport smsManagerTransport;
 
     /**
-     * Sends sms and blocks until sms is successfully sent or failed
+     * Sends sms and blocks until sms is successfully sent or failed.
+     * Messages longer than a single PDU are divided and sent as multipart sms, in that case
+     * result is successful only when all parts are sent
      *
      * @param phone target address to send sms to
      * @param message text to send
@@ -31,134 +43,353 @@ public class SMSSender {
      */
     public static SMSResult sendSMS(@NonNull Context context,@NonNull final String phone , @NonNull final String message)
     {
-        // always declare local
-        final SMSResult smsResult = new SMSResult();
+        return sendSMS(context, DEFAULT_SUBSCRIPTION, phone, message);
+    }
 
-        // always declare local
-        final Object lock = new Object();
+    /**
+     * Same as {@link #sendSMS(Context, String, String)} but sends through given SIM subscription.
+     * When SENT broadcast doesn't arrive within send timeout result has STATUS_EXCEPTION_OCCURRED status
+     *
+     * @param subscriptionId subscription id of SIM or {@link #DEFAULT_SUBSCRIPTION}
+     */
+    public static SMSResult sendSMS(@NonNull Context context, int subscriptionId, @NonNull final String phone , @NonNull final String message)
+    {
+        try
+        {
+            return sendAsync(context, subscriptionId, phone, message).blockingGet();
 
-        /*
-         This PendingIntent is broadcast when the message is successfully sent, or failed.
-         The result code will be Activity.RESULT_OK for success
+        } catch (RuntimeException e)
+        {
+            // blockingGet() wraps checked exceptions
+            final Throwable cause = e.getCause() != null ? e.getCause() : e;
 
-         Targeting S+ (version 31 (android 12) and above) requires that one of FLAG_IMMUTABLE or FLAG_MUTABLE be specified when creating a PendingIntent.
-         Strongly consider using FLAG_IMMUTABLE, only use FLAG_MUTABLE if some functionality depends on the PendingIntent being mutable, e.g. if it needs to be used with inline replies or bubbles.
-        */
-        PendingIntent sentPI = PendingIntent.getBroadcast(context, 0, new Intent(SENT), PendingIntent.FLAG_IMMUTABLE);
+            if(cause instanceof InterruptedException)
+                Thread.currentThread().interrupt();
 
-        //This PendingIntent is broadcast when the message is delivered to the recipient.
-        // The raw pdu of the status report is in the extended data ("pdu").
-        // from android 4.4 this intent is only broadcast to default sms app
+            final SMSResult smsResult = new SMSResult();
+            smsResult.setStatus(SMSResult.STATUS_EXCEPTION_OCCURRED);
+            smsResult.setReason(cause.getMessage());
 
-       // PendingIntent deliveredPI = PendingIntent.getBroadcast(this.context, 0, new Intent(DELIVERED), 0);
+            return smsResult;
+        }
+    }
 
-        context.registerReceiver(new BroadcastReceiver(){
-            @Override
-            public void onReceive(Context ctx, Intent intent)
-            {
-                if(getResultCode() == Activity.RESULT_OK)
-                {
-                    smsResult.setStatus(SMSResult.STATUS_SENT_SUCCESS);
-                }
-                else
-                {
-                    smsResult.setStatus(SMSResult.STATUS_SENT_FAIL);
-                    smsResult.setReason(getErrorString(getResultCode()));
-                }
+    /**
+     * Sends sms without blocking, sending starts on subscription. Single succeeds once transport reported
+     * result of every part (STATUS_EXCEPTION_OCCURRED when transport threw) and fails with TimeoutException
+     * when SENT broadcast of a part doesn't arrive within send timeout, sms may still be sent in that case.
+     *
+     * When {@link #setMaxOutstandingSends(int)} sends are already waiting for their SENT broadcast, sending
+     * starts once one of them completes. Disposing before completion stops waiting and frees the slot
+     *
+     * @param subscriptionId subscription id of SIM or {@link #DEFAULT_SUBSCRIPTION}
+     */
+    public static Single<SMSResult> sendAsync(@NonNull Context context, int subscriptionId, @NonNull final String phone , @NonNull final String message)
+    {
+        final Context appContext = context.getApplicationContext();
 
-                synchronized (lock)
-                {
-                    lock.notify();
-                }
+        return Single.create(emitter -> {
+            final PendingSend pendingSend = new PendingSend(appContext, subscriptionId, phone, message, emitter);
+            emitter.setCancellable(pendingSend::release);
+            outstandingSends.start(pendingSend);
+        });
+    }
 
-            }
-        }, new IntentFilter(SENT));
-
-
-
-        /*
-        * From Android official documentation https://developer.android.com/about/versions/kitkat/android-4.4#SMS
-        * Beginning with Android 4.4, the system settings allow users to select a "default SMS app." Once selected, only the
-        * default SMS app is able to write to the SMS Provider and only the default SMS app
-        * receives the SMS_DELIVER_ACTION broadcast when the user receives an SMS
-        *
-        * More from Android official docs https://developer.android.com/reference/android/provider/Telephony.Sms.Intents#SMS_DELIVER_ACTION
-        * SMS_DELIVER_ACTION
-        * This intent will only be delivered to the default sms app.
-        *
-        * So our Android SMS server app (non default sms app) has no way to get report whether sms successfully delivered or not
-        * only the app can report whether sms was successfully sent or not
-        *
-        * */
-
-/*        this.context.registerReceiver(new BroadcastReceiver(){
-            @Override
-            public void onReceive(Context ctx, Intent intent)
+    /**
+     * @param maxOutstandingSends sms handed to transport and waiting for their SENT broadcast at once, across all SIMs
+     */
+    public static void setMaxOutstandingSends(int maxOutstandingSends)
+    {
+        outstandingSends.setMax(maxOutstandingSends);
+    }
+
+    /**
+     * @param sendTimeoutMillis time allowed for result of every part to arrive once sms is handed to transport
+     */
+    public static void setSendTimeout(long sendTimeoutMillis)
+    {
+        SMSSender.sendTimeoutMillis = Math.max(1, sendTimeoutMillis);
+    }
+
+    /**
+     * @return sms waiting for their SENT broadcast
+     */
+    public static int getOutstandingSendCount()
+    {
+        return outstandingSends.getCount();
+    }
+
+    /**
+     * @return sms waiting for an outstanding send to complete before being handed to transport
+     */
+    public static int getWaitingSendCount()
+    {
+        return outstandingSends.getWaitingCount();
+    }
+
+    /**
+     * @param transport sends parts of every sms from now on, null to send through SmsManager
+     */
+    public static void setTransport(SMSTransport transport)
+    {
+        SMSSender.transport = transport;
+    }
+
+    private static SMSTransport getTransport(Context context)
+    {
+        final SMSTransport transport = SMSSender.transport;
+
+        if(transport != null)
+            return transport;
+
+        synchronized (SMSSender.class)
+        {
+            if(smsManagerTransport == null)
+                smsManagerTransport = new SmsManagerTransport(context);
+
+            return smsManagerTransport;
+        }
+    }
+
+    /*
+     * One sms from the moment it is handed to transport until result of its last part arrives,
+     * its timeout fires or its subscriber disposes
+     * */
+    private static class PendingSend {
+
+        private final Context context;
+        private final int subscriptionId;
+        private final String phone;
+        private final String message;
+        private final SingleEmitter<SMSResult> emitter;
+
+        private final AtomicInteger failedPartCount = new AtomicInteger();
+        private final AtomicInteger firstErrorCode = new AtomicInteger(Activity.RESULT_OK);
+
+        // set before parts are handed to transport and read on thread transport reports results on
+        private final AtomicInteger remainingPartCount = new AtomicInteger();
+        private volatile int partCount;
+
+        // guarded by this
+        private boolean started = false;
+        private boolean released = false;
+
+        private volatile Disposable timeout;
+        private volatile Disposable sending;
+
+        private PendingSend(Context context, int subscriptionId, String phone, String message, SingleEmitter<SMSResult> emitter)
+        {
+            this.context = context;
+            this.subscriptionId = subscriptionId;
+            this.phone = phone;
+            this.message = message;
+            this.emitter = emitter;
+        }
+
+        /**
+         * Called once a slot is free
+         *
+         * @return false when subscriber disposed while waiting for a slot, nothing is sent then
+         */
+        private boolean send()
+        {
+            synchronized (this)
             {
-                if(getResultCode() == Activity.RESULT_OK)
-                {
-                    resultHashMap.clear();
-                    resultHashMap.put("status",STATUS_DELIVERY_SUCCESS);
+                if(released || emitter.isDisposed())
+                    return false;
 
-                }
-                else
-                {
-                    resultHashMap.clear();
-                    resultHashMap.put("status",STATUS_DELIVERY_FAIL);
-                    resultHashMap.put("reason",getErrorString(getResultCode()));
-                }
+                started = true;
+            }
+
+            try{
+
+                final SMSTransport transport = getTransport(context);
+
+                final ArrayList<String> parts = transport.divideMessage(subscriptionId, message);
+
+                partCount = parts.size();
+                remainingPartCount.set(parts.size());
+
+                final long timeoutMillis = sendTimeoutMillis;
 
+                timeout = Schedulers.computation().scheduleDirect(() -> {
 
-                synchronized (lock)
+                    if(release())
+                        emitter.tryOnError(new TimeoutException("no SENT broadcast within " + timeoutMillis + "ms, sms may still be sent"));
+
+                }, timeoutMillis, TimeUnit.MILLISECONDS);
+
+                sending = transport.send(subscriptionId, phone, parts, (partIndex, resultCode) -> onPartSent(resultCode));
+
+                // parts may all be reported before send() returns
+                if(isReleased())
+                    sending.dispose();
+
+            }catch(Exception e){
+                e.printStackTrace();
+
+                if(release())
                 {
-                    lock.notify();
+                    SMSResult smsResult = new SMSResult();
+                    smsResult.setStatus(SMSResult.STATUS_EXCEPTION_OCCURRED);
+                    smsResult.setReason(e.getMessage());
+
+                    emitter.onSuccess(smsResult);
                 }
             }
-        }, new IntentFilter(DELIVERED));*/
 
-        // TODO : https://developer.android.com/reference/android/telephony/SmsManager#getDefault()
-        SmsManager smsManager = SmsManager.getDefault();
+            return true;
+        }
+
+        private void onPartSent(int resultCode)
+        {
+            if(resultCode != Activity.RESULT_OK)
+            {
+                failedPartCount.incrementAndGet();
+                firstErrorCode.compareAndSet(Activity.RESULT_OK, resultCode);
+            }
 
-        try{
+            if(remainingPartCount.decrementAndGet() > 0 || !release())
+                return;
 
-            smsManager.sendTextMessage(phone, null, message, sentPI, null); // whether we pass delieveredPI or null delivery will never be reported by android os to this app :(
+            final SMSResult smsResult = new SMSResult();
+            smsResult.setPartCount(partCount);
+            smsResult.setFailedPartCount(failedPartCount.get());
 
-            synchronized (lock)
+            if(failedPartCount.get() == 0)
             {
-                lock.wait(); // wait here until some other thread call lock.notify()
+                smsResult.setStatus(SMSResult.STATUS_SENT_SUCCESS);
             }
+            else
+            {
+                smsResult.setStatus(SMSResult.STATUS_SENT_FAIL);
+                smsResult.setErrorCode(firstErrorCode.get());
 
-        }catch(Exception e){
-            e.printStackTrace();
+                if(partCount > 1)
+                    smsResult.setReason(SMSError.getName(firstErrorCode.get()) + " (" + failedPartCount.get() + " of " + partCount + " parts failed)");
+                else
+                    smsResult.setReason(SMSError.getName(firstErrorCode.get()));
+            }
 
-            smsResult.setStatus(SMSResult.STATUS_EXCEPTION_OCCURRED);
-            smsResult.setReason(e.getMessage());
+            emitter.onSuccess(smsResult);
+        }
 
+        private synchronized boolean isReleased()
+        {
+            return released;
         }
 
-        return smsResult;
+        /**
+         * Stops waiting for part results, cancels timeout and frees slot, only first call has effect
+         *
+         * @return true for first call
+         */
+        private boolean release()
+        {
+            final boolean wasStarted;
+
+            synchronized (this)
+            {
+                if(released)
+                    return false;
+
+                released = true;
+                wasStarted = started;
+            }
+
+            final Disposable timeout = this.timeout;
+
+            if(timeout != null)
+                timeout.dispose();
+
+            final Disposable sending = this.sending;
+
+            if(sending != null)
+                sending.dispose();
+
+            if(wasStarted)
+                outstandingSends.complete();
+            else
+                outstandingSends.cancel(this); // disposed while waiting for a slot
+
+            return true;
+        }
     }
 
+    /*
+     * Bounds number of sms waiting for their SENT broadcast, sends beyond that wait in FIFO order
+     * without holding a thread
+     * */
+    private static class OutstandingSends {
 
-    /**
-     * @see <a href="https://developer.android.com/reference/android/telephony/SmsManager#sendTextMessage(java.lang.String,%20java.lang.String,%20java.lang.String,%20android.app.PendingIntent,%20android.app.PendingIntent)">Read this for more detail</a>
-     */
-    private static String getErrorString(final int code)
-    {
-        for(Field field : SmsManager.class.getFields())
+        private final ArrayDeque<PendingSend> waiting = new ArrayDeque<>();
+        private int count = 0;
+        private int max;
+
+        private OutstandingSends(int max)
         {
-            try
-            {
-                if( field.getName().contains("RESULT_") && (field.getInt(null) == code) )
-                    return field.getName();
+            this.max = max;
+        }
+
+        private synchronized void setMax(int max)
+        {
+            this.max = Math.max(1, max);
+        }
+
+        private synchronized int getCount()
+        {
+            return count;
+        }
+
+        private synchronized int getWaitingCount()
+        {
+            return waiting.size();
+        }
 
-            } catch (IllegalAccessException e)
+        private void start(PendingSend pendingSend)
+        {
+            synchronized (this)
             {
-                e.printStackTrace();
+                if(count >= max)
+                {
+                    waiting.add(pendingSend);
+                    return;
+                }
+
+                count++;
             }
+
+            if(!pendingSend.send())
+                complete();
+        }
+
+        private synchronized void cancel(PendingSend pendingSend)
+        {
+            waiting.remove(pendingSend);
         }
 
-        return null;
+        // frees slot of a completed send, or hands it to next waiting send
+        private void complete()
+        {
+            while (true)
+            {
+                final PendingSend next;
+
+                synchronized (this)
+                {
+                    next = count <= max ? waiting.poll() : null;
+
+                    if(next == null)
+                    {
+                        count--;
+                        return;
+                    }
+                }
+
+                if(next.send())
+                    return;
+            }
+        }
     }
 
 }
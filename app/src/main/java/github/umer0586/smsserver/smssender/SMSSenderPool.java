@@ -0,0 +1,345 @@
+package github.umer0586.smsserver.smssender;
+
+import android.content.Context;
+import android.os.Build;
+import android.telephony.SubscriptionInfo;
+import android.telephony.SubscriptionManager;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import github.umer0586.smsserver.metrics.Metrics;
+import io.reactivex.rxjava3.core.Single;
+
+/*
+ * Routes sms across active SIM subscriptions.
+ *
+ * Each SIM has its own send rate limiter (carriers throttle per SIM), in-flight counter and failure score.
+ * When client doesn't ask for a specific SIM, the SIM which can send soonest is picked, ties are broken by
+ * least load (in-flight sends plus recent failures) and then round robin.
+ *
+ * Listing subscriptions requires Android 5.1 and READ_PHONE_STATE permission, without them only the
+ * default SIM is used.
+ * */
+public class SMSSenderPool {
+
+    private static final String TAG = SMSSenderPool.class.getSimpleName();
+
+    // value of "sim" parameter when client leaves SIM selection to server
+    public static final int ANY_SIM = 0;
+
+    private static final long REFRESH_INTERVAL_MILLIS = 30_000;
+
+    // how many in-flight sends one recent failure weighs
+    private static final double FAILURE_PENALTY = 2.0;
+
+    private final Context context;
+
+    private int smsPerMinute = 0;
+    private int burst = 1;
+
+    private volatile List<Sim> sims = Collections.emptyList();
+    private volatile long lastRefreshMillis = 0;
+
+    private final AtomicInteger roundRobin = new AtomicInteger();
+
+    public SMSSenderPool(@NonNull Context context)
+    {
+        this.context = context.getApplicationContext();
+    }
+
+    /**
+     * @param smsPerMinute sustained send rate per SIM, 0 to disable rate limiting
+     * @param burst number of sms which can be sent back to back from one SIM
+     */
+    public synchronized void setRateLimit(int smsPerMinute, int burst)
+    {
+        this.smsPerMinute = smsPerMinute;
+        this.burst = burst;
+
+        // rebuild SIMs with new limiter right away, sims is never empty for a concurrent pick()
+        rebuild(false);
+    }
+
+    /**
+     * @param simSlot 1 based SIM slot number
+     */
+    public boolean hasSim(int simSlot)
+    {
+        if(simSlot == ANY_SIM)
+            return true;
+
+        for (Sim sim : getSims())
+            if(sim.slot == simSlot)
+                return true;
+
+        return false;
+    }
+
+    public int getSimCount()
+    {
+        return getSims().size();
+    }
+
+    /**
+     * Picks a SIM, waits for its rate limiter and sends sms. Blocks until sms is sent or failed
+     */
+    public SMSResult send(@NonNull SMSRequest smsRequest) throws InterruptedException
+    {
+        final Sim sim = pick(smsRequest.getSim());
+
+        if(sim == null)
+        {
+            SMSResult smsResult = new SMSResult();
+            smsResult.setStatus(SMSResult.STATUS_EXCEPTION_OCCURRED);
+            smsResult.setReason("SIM " + smsRequest.getSim() + " not available");
+            countResult(smsResult);
+            return smsResult;
+        }
+
+        sim.inFlight.incrementAndGet();
+
+        try
+        {
+            if(sim.rateLimiter != null)
+            {
+                final long waitStart = System.nanoTime();
+                sim.rateLimiter.acquire();
+                Metrics.RATE_LIMIT_WAIT.recordNanos(System.nanoTime() - waitStart);
+            }
+
+            final long sendStart = System.nanoTime();
+            SMSResult smsResult = SMSSender.sendSMS(context, sim.subscriptionId, smsRequest.getPhone(), smsRequest.getMessage());
+            Metrics.SEND_LATENCY.recordNanos(System.nanoTime() - sendStart);
+
+            sim.onResult(smsResult);
+            countResult(smsResult);
+
+            return smsResult;
+
+        } finally
+        {
+            sim.inFlight.decrementAndGet();
+        }
+    }
+
+    /**
+     * Picks a SIM and waits for its rate limiter like {@link #send(SMSRequest)}, but doesn't wait for sms to be sent.
+     * Lets a caller with several sms have all of them outstanding at once instead of one SENT broadcast after another.
+     * Returned Single must be subscribed exactly once, SIM counts the sms as in flight until it completes.
+     * It never fails, a send which timed out or threw succeeds with STATUS_EXCEPTION_OCCURRED result
+     */
+    public Single<SMSResult> sendAsync(@NonNull SMSRequest smsRequest) throws InterruptedException
+    {
+        final Sim sim = pick(smsRequest.getSim());
+
+        if(sim == null)
+        {
+            SMSResult smsResult = new SMSResult();
+            smsResult.setStatus(SMSResult.STATUS_EXCEPTION_OCCURRED);
+            smsResult.setReason("SIM " + smsRequest.getSim() + " not available");
+            countResult(smsResult);
+            return Single.just(smsResult);
+        }
+
+        sim.inFlight.incrementAndGet();
+
+        try
+        {
+            if(sim.rateLimiter != null)
+            {
+                final long waitStart = System.nanoTime();
+                sim.rateLimiter.acquire();
+                Metrics.RATE_LIMIT_WAIT.recordNanos(System.nanoTime() - waitStart);
+            }
+
+        } catch (InterruptedException e)
+        {
+            sim.inFlight.decrementAndGet();
+            throw e;
+        }
+
+        final long sendStart = System.nanoTime();
+
+        return SMSSender.sendAsync(context, sim.subscriptionId, smsRequest.getPhone(), smsRequest.getMessage())
+                .onErrorReturn(error -> {
+                    SMSResult smsResult = new SMSResult();
+                    smsResult.setStatus(SMSResult.STATUS_EXCEPTION_OCCURRED);
+                    smsResult.setReason(error.getMessage());
+                    return smsResult;
+                })
+                .doOnSuccess(smsResult -> {
+                    Metrics.SEND_LATENCY.recordNanos(System.nanoTime() - sendStart);
+                    sim.onResult(smsResult);
+                    countResult(smsResult);
+                })
+                .doFinally(sim.inFlight::decrementAndGet);
+    }
+
+    private static void countResult(SMSResult smsResult)
+    {
+        Metrics.SMS_RESULTS.increment(smsResult.getStatusName(), smsResult.getError().name());
+    }
+
+    /**
+     * @return estimated milliseconds before {@code count} more sms can be sent across all SIMs, -1 when sends are not rate limited
+     */
+    public long estimateWaitMillis(int count)
+    {
+        final List<Sim> sims = getSims();
+
+        if(sims.isEmpty() || sims.get(0).rateLimiter == null)
+            return -1;
+
+        // sends are spread evenly so each SIM handles its share of the queue
+        final int perSim = (count + sims.size() - 1) / sims.size();
+        long wait = Long.MAX_VALUE;
+
+        for (Sim sim : sims)
+            wait = Math.min(wait, sim.rateLimiter.estimateWaitMillis(perSim));
+
+        return wait;
+    }
+
+    private Sim pick(int simSlot)
+    {
+        final List<Sim> sims = getSims();
+
+        if(simSlot != ANY_SIM)
+        {
+            for (Sim sim : sims)
+                if(sim.slot == simSlot)
+                    return sim;
+
+            return null;
+        }
+
+        final int start = Math.abs(roundRobin.getAndIncrement() % sims.size());
+
+        Sim best = null;
+        long bestWait = Long.MAX_VALUE;
+        double bestLoad = Double.MAX_VALUE;
+
+        for (int i = 0; i < sims.size(); i++)
+        {
+            Sim sim = sims.get((start + i) % sims.size());
+
+            long wait = sim.rateLimiter == null ? 0 : sim.rateLimiter.estimateWaitMillis(1);
+            double load = sim.inFlight.get() + sim.failureScore * FAILURE_PENALTY;
+
+            if(wait < bestWait || (wait == bestWait && load < bestLoad))
+            {
+                best = sim;
+                bestWait = wait;
+                bestLoad = load;
+            }
+        }
+
+        return best;
+    }
+
+    private List<Sim> getSims()
+    {
+        if(System.currentTimeMillis() - lastRefreshMillis > REFRESH_INTERVAL_MILLIS)
+            refresh();
+
+        return sims;
+    }
+
+    private synchronized void refresh()
+    {
+        if(System.currentTimeMillis() - lastRefreshMillis <= REFRESH_INTERVAL_MILLIS)
+            return;
+
+        rebuild(true);
+    }
+
+    /**
+     * @param keepExisting reuse SIM objects still present, false to create all with current rate limit
+     */
+    private synchronized void rebuild(boolean keepExisting)
+    {
+        List<Sim> refreshed = new ArrayList<>();
+
+        for (SubscriptionInfo subscriptionInfo : getActiveSubscriptions())
+        {
+            final int subscriptionId = subscriptionInfo.getSubscriptionId();
+            final int slot = subscriptionInfo.getSimSlotIndex() + 1;
+
+            // keep existing SIM object so that its limiter and statistics survive refresh
+            Sim sim = keepExisting ? find(subscriptionId) : null;
+            refreshed.add(sim != null && sim.slot == slot ? sim : newSim(subscriptionId, slot));
+        }
+
+        if(refreshed.isEmpty())
+        {
+            Sim sim = keepExisting ? find(SMSSender.DEFAULT_SUBSCRIPTION) : null;
+            refreshed.add(sim != null ? sim : newSim(SMSSender.DEFAULT_SUBSCRIPTION, 1));
+        }
+
+        sims = Collections.unmodifiableList(refreshed);
+        lastRefreshMillis = System.currentTimeMillis();
+    }
+
+    private List<SubscriptionInfo> getActiveSubscriptions()
+    {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP_MR1)
+            return Collections.emptyList();
+
+        try
+        {
+            List<SubscriptionInfo> subscriptions = SubscriptionManager.from(context).getActiveSubscriptionInfoList();
+            return subscriptions != null ? subscriptions : Collections.emptyList();
+
+        } catch (SecurityException e)
+        {
+            Log.w(TAG, "READ_PHONE_STATE permission not granted, using default SIM only");
+            return Collections.emptyList();
+        }
+    }
+
+    private Sim find(int subscriptionId)
+    {
+        for (Sim sim : sims)
+            if(sim.subscriptionId == subscriptionId)
+                return sim;
+
+        return null;
+    }
+
+    private Sim newSim(int subscriptionId, int slot)
+    {
+        return new Sim(subscriptionId, slot, smsPerMinute > 0 ? new TokenBucket(smsPerMinute, burst) : null);
+    }
+
+    private static class Sim {
+
+        private final int subscriptionId;
+        private final int slot;
+        private final TokenBucket rateLimiter;
+        private final AtomicInteger inFlight = new AtomicInteger();
+
+        // grows by one per failure and halves on every success, so SIM recovers quickly once it works again
+        private volatile double failureScore = 0;
+
+        private Sim(int subscriptionId, int slot, TokenBucket rateLimiter)
+        {
+            this.subscriptionId = subscriptionId;
+            this.slot = slot;
+            this.rateLimiter = rateLimiter;
+        }
+
+        private synchronized void onResult(SMSResult smsResult)
+        {
+            if(smsResult.getStatus() == SMSResult.STATUS_SENT_SUCCESS)
+                failureScore /= 2;
+            else if(smsResult.getStatus() == SMSResult.STATUS_SENT_FAIL)
+                failureScore += 1;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package github.umer0586.smsserver.smssender;
+
+import android.app.Activity;
+import android.telephony.SmsManager;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.reactivex.rxjava3.disposables.CompositeDisposable;
+import io.reactivex.rxjava3.disposables.Disposable;
+import io.reactivex.rxjava3.schedulers.Schedulers;
+
+/*
+ * Pretends to send sms, nothing leaves the device. Used for load testing server, queues and retries
+ * without SIM or cost.
+ *
+ * Each part is reported after a random latency between min and max latency, parts of one sms one after
+ * another as a modem would. A part fails with one of the configured failure codes at configured percentage,
+ * and when a rate limit is set parts beyond it fail with RESULT_ERROR_LIMIT_EXCEEDED the way carriers reject
+ * sms sent too fast.
+ * */
+public class SMSSimulatorTransport implements SMSTransport {
+
+    public static final int DEFAULT_MIN_LATENCY_MILLIS = 500;
+    public static final int DEFAULT_MAX_LATENCY_MILLIS = 2000;
+
+    // a mix of failures which are retried and which are not
+    private static final int[] DEFAULT_FAILURE_CODES = {
+            SmsManager.RESULT_ERROR_GENERIC_FAILURE,
+            SmsManager.RESULT_ERROR_NO_SERVICE,
+            SmsManager.RESULT_ERROR_RADIO_OFF,
+            SmsManager.RESULT_ERROR_NULL_PDU
+    };
+
+    // GSM 7 bit alphabet, longer parts carry a 7 character concatenation header
+    private static final int GSM_SINGLE_PART_LENGTH = 160;
+    private static final int GSM_MULTIPART_PART_LENGTH = 153;
+
+    // UCS-2, used as soon as message has a character outside basic latin
+    private static final int UCS2_SINGLE_PART_LENGTH = 70;
+    private static final int UCS2_MULTIPART_PART_LENGTH = 67;
+
+    private final int minLatencyMillis;
+    private final int maxLatencyMillis;
+
+    private volatile int failurePercent = 0;
+    private volatile int[] failureCodes = DEFAULT_FAILURE_CODES;
+    private volatile TokenBucket rateLimiter;
+
+    private final AtomicLong sentPartCount = new AtomicLong();
+    private final AtomicLong failedPartCount = new AtomicLong();
+
+    public SMSSimulatorTransport()
+    {
+        this(DEFAULT_MIN_LATENCY_MILLIS, DEFAULT_MAX_LATENCY_MILLIS);
+    }
+
+    /**
+     * @param minLatencyMillis shortest time taken to report a part, 0 or more
+     * @param maxLatencyMillis longest time taken to report a part, not less than minLatencyMillis
+     */
+    public SMSSimulatorTransport(int minLatencyMillis, int maxLatencyMillis)
+    {
+        if(minLatencyMillis < 0 || maxLatencyMillis < minLatencyMillis)
+            throw new IllegalArgumentException("latency must be 0 or more and max must not be less than min");
+
+        this.minLatencyMillis = minLatencyMillis;
+        this.maxLatencyMillis = maxLatencyMillis;
+    }
+
+    /**
+     * @param failurePercent percentage of parts which fail, 0 to 100
+     * @param resultCodes SmsManager RESULT_ERROR_* codes failed parts are reported with, picked at random.
+     *                    None for generic failure, no service, radio off and null pdu
+     */
+    public void setFailures(int failurePercent, int... resultCodes)
+    {
+        if(failurePercent < 0 || failurePercent > 100)
+            throw new IllegalArgumentException("failurePercent must be between 0 and 100");
+
+        this.failureCodes = resultCodes.length > 0 ? Arrays.copyOf(resultCodes, resultCodes.length) : DEFAULT_FAILURE_CODES;
+        this.failurePercent = failurePercent;
+    }
+
+    /**
+     * @param partsPerMinute parts accepted per minute across all SIMs, 0 for no limit.
+     *                       Up to a second worth of parts is accepted back to back
+     */
+    public void setRateLimit(int partsPerMinute)
+    {
+        this.rateLimiter = partsPerMinute > 0 ? new TokenBucket(partsPerMinute, partsPerMinute / 60) : null;
+    }
+
+    @NonNull
+    @Override
+    public ArrayList<String> divideMessage(int subscriptionId, @NonNull String message)
+    {
+        final boolean gsm = isBasicLatin(message);
+        final int singlePartLength = gsm ? GSM_SINGLE_PART_LENGTH : UCS2_SINGLE_PART_LENGTH;
+        final int multipartPartLength = gsm ? GSM_MULTIPART_PART_LENGTH : UCS2_MULTIPART_PART_LENGTH;
+
+        ArrayList<String> parts = new ArrayList<>();
+
+        if(message.length() <= singlePartLength)
+        {
+            parts.add(message);
+            return parts;
+        }
+
+        for (int start = 0; start < message.length(); start += multipartPartLength)
+            parts.add(message.substring(start, Math.min(message.length(), start + multipartPartLength)));
+
+        return parts;
+    }
+
+    @NonNull
+    @Override
+    public Disposable send(int subscriptionId, @NonNull String phone, @NonNull ArrayList<String> parts, @NonNull OnPartSentListener onPartSentListener)
+    {
+        final CompositeDisposable sending = new CompositeDisposable();
+        long delayMillis = 0;
+
+        for (int i = 0; i < parts.size(); i++)
+        {
+            final int partIndex = i;
+            final int resultCode = nextResultCode();
+
+            delayMillis += nextLatencyMillis();
+
+            sending.add(Schedulers.computation().scheduleDirect(() -> {
+
+                if(resultCode == Activity.RESULT_OK)
+                    sentPartCount.incrementAndGet();
+                else
+                    failedPartCount.incrementAndGet();
+
+                onPartSentListener.onPartSent(partIndex, resultCode);
+
+            }, delayMillis, TimeUnit.MILLISECONDS));
+        }
+
+        return sending;
+    }
+
+    /**
+     * @return parts reported sent so far
+     */
+    public long getSentPartCount()
+    {
+        return sentPartCount.get();
+    }
+
+    /**
+     * @return parts reported failed so far, rate limited ones included
+     */
+    public long getFailedPartCount()
+    {
+        return failedPartCount.get();
+    }
+
+    private int nextResultCode()
+    {
+        final TokenBucket rateLimiter = this.rateLimiter;
+
+        if(rateLimiter != null && !rateLimiter.tryAcquire())
+            return SmsManager.RESULT_ERROR_LIMIT_EXCEEDED;
+
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        if(failurePercent > 0 && random.nextInt(100) < failurePercent)
+        {
+            final int[] failureCodes = this.failureCodes;
+            return failureCodes[random.nextInt(failureCodes.length)];
+        }
+
+        return Activity.RESULT_OK;
+    }
+
+    private int nextLatencyMillis()
+    {
+        if(minLatencyMillis == maxLatencyMillis)
+            return minLatencyMillis;
+
+        return ThreadLocalRandom.current().nextInt(minLatencyMillis, maxLatencyMillis + 1);
+    }
+
+    private static boolean isBasicLatin(String message)
+    {
+        for (int i = 0; i < message.length(); i++)
+            if(message.charAt(i) > 0x7E)
+                return false;
+
+        return true;
+    }
+}
@@ -0,0 +1,308 @@
+package github.umer0586.smsserver.smssender;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/*
+ * In-memory store of latest status of recent sms, looked up by message id, phone number or time.
+ *
+ * Memory stays fixed however long server runs : store holds at most maxEntries statuses, least recently
+ * used one is evicted beyond that, and statuses recorded more than maxAgeMillis ago are evicted a whole
+ * minute (time bucket) at a time. Message text is not stored.
+ *
+ * Besides the id map every status is linked into two intrusive lists, one per phone number and one per minute
+ * it was recorded in, newest first. So adding, updating and evicting a status as well as looking up by id
+ * are O(1), and lookups by phone or time only walk the statuses they return. Phone numbers are matched the way
+ * send window orders recipients, so "+92 300 1234567" finds sms sent to "+923001234567"
+ * */
+public class SMSStatusStore {
+
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+    public static final long DEFAULT_MAX_AGE_MILLIS = 24 * 60 * 60 * 1000;
+
+    private static final long BUCKET_MILLIS = 60 * 1000;
+
+    private final int maxEntries;
+    private final long maxAgeMillis;
+
+    // access ordered, eldest entry is least recently used
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    // newest entry of each phone number (by PhoneNumbers key) and of each time bucket
+    private final Map<String, Entry> newestByPhone = new HashMap<>();
+    private final TreeMap<Long, Entry> newestByBucket = new TreeMap<>();
+
+    public SMSStatusStore()
+    {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_AGE_MILLIS);
+    }
+
+    public SMSStatusStore(int maxEntries, long maxAgeMillis)
+    {
+        this.maxEntries = Math.max(1, maxEntries);
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    /**
+     * Records new status of sms
+     *
+     * @param status e.g "QUEUED", "SENT"
+     * @param result outcome of sms, null while sms is not completed
+     */
+    public synchronized void update(@NonNull SMSRequest smsRequest, @NonNull String status, @Nullable SMSResult result)
+    {
+        final long now = currentTimeMillis();
+        evictExpired(now);
+
+        Entry entry = entries.get(smsRequest.getId());
+
+        if(entry == null)
+        {
+            entry = new Entry(smsRequest.getId(), smsRequest.getPhone(), now);
+            entries.put(entry.id, entry);
+            linkNewest(entry);
+
+            if(entries.size() > maxEntries)
+                remove(entries.values().iterator().next());
+        }
+
+        entry.status = status;
+        entry.updatedAt = now;
+
+        if(result != null)
+        {
+            entry.reason = result.getReason();
+            entry.errorCode = result.getErrorCode();
+            entry.partCount = result.getPartCount();
+        }
+    }
+
+    /**
+     * @return status of sms, null when unknown or evicted
+     */
+    public synchronized SMSStatus get(@NonNull String id)
+    {
+        evictExpired(currentTimeMillis());
+
+        Entry entry = entries.get(id);
+        return entry == null ? null : entry.toSMSStatus();
+    }
+
+    /**
+     * @return statuses of sms to phone recorded at or after since, newest first
+     */
+    public synchronized List<SMSStatus> findByPhone(@NonNull String phone, long since, int limit)
+    {
+        evictExpired(currentTimeMillis());
+
+        List<SMSStatus> statuses = new ArrayList<>();
+
+        for (Entry entry = newestByPhone.get(PhoneNumbers.getKey(phone)); entry != null && statuses.size() < limit; entry = entry.olderByPhone)
+        {
+            if(entry.recordedAt < since)
+                break;
+
+            statuses.add(entry.toSMSStatus());
+        }
+
+        return statuses;
+    }
+
+    /**
+     * @return statuses recorded at or after since, newest first
+     */
+    public synchronized List<SMSStatus> findSince(long since, int limit)
+    {
+        evictExpired(currentTimeMillis());
+
+        List<SMSStatus> statuses = new ArrayList<>();
+
+        for (Entry newest : newestByBucket.tailMap(since / BUCKET_MILLIS, true).descendingMap().values())
+        {
+            for (Entry entry = newest; entry != null; entry = entry.olderInBucket)
+            {
+                if(entry.recordedAt < since || statuses.size() >= limit)
+                    return statuses;
+
+                statuses.add(entry.toSMSStatus());
+            }
+        }
+
+        return statuses;
+    }
+
+    public synchronized int size()
+    {
+        return entries.size();
+    }
+
+    // tests step through time buckets by overriding this
+    long currentTimeMillis()
+    {
+        return System.currentTimeMillis();
+    }
+
+    private void evictExpired(long now)
+    {
+        final long oldestBucketKept = (now - maxAgeMillis) / BUCKET_MILLIS;
+
+        while (!newestByBucket.isEmpty() && newestByBucket.firstKey() < oldestBucketKept)
+        {
+            for (Entry entry = newestByBucket.pollFirstEntry().getValue(); entry != null; entry = entry.olderInBucket)
+            {
+                entries.remove(entry.id);
+                unlinkFromPhone(entry);
+            }
+        }
+    }
+
+    private void linkNewest(Entry entry)
+    {
+        entry.olderByPhone = newestByPhone.put(entry.phoneKey, entry);
+
+        if(entry.olderByPhone != null)
+            entry.olderByPhone.newerByPhone = entry;
+
+        entry.olderInBucket = newestByBucket.put(entry.bucket, entry);
+
+        if(entry.olderInBucket != null)
+            entry.olderInBucket.newerInBucket = entry;
+    }
+
+    private void remove(Entry entry)
+    {
+        entries.remove(entry.id);
+        unlinkFromPhone(entry);
+
+        if(entry.newerInBucket != null)
+            entry.newerInBucket.olderInBucket = entry.olderInBucket;
+        else if(entry.olderInBucket != null)
+            newestByBucket.put(entry.bucket, entry.olderInBucket);
+        else
+            newestByBucket.remove(entry.bucket);
+
+        if(entry.olderInBucket != null)
+            entry.olderInBucket.newerInBucket = entry.newerInBucket;
+    }
+
+    private void unlinkFromPhone(Entry entry)
+    {
+        if(entry.newerByPhone != null)
+            entry.newerByPhone.olderByPhone = entry.olderByPhone;
+        else if(entry.olderByPhone != null)
+            newestByPhone.put(entry.phoneKey, entry.olderByPhone);
+        else
+            newestByPhone.remove(entry.phoneKey);
+
+        if(entry.olderByPhone != null)
+            entry.olderByPhone.newerByPhone = entry.newerByPhone;
+    }
+
+    private static class Entry {
+
+        private final String id;
+        private final String phone;
+        private final String phoneKey;
+        private final long recordedAt;
+        private final long bucket;
+
+        private String status;
+        private String reason;
+        private int errorCode;
+        private int partCount;
+        private long updatedAt;
+
+        private Entry newerByPhone;
+        private Entry olderByPhone;
+        private Entry newerInBucket;
+        private Entry olderInBucket;
+
+        private Entry(String id, String phone, long recordedAt)
+        {
+            this.id = id;
+            this.phone = phone;
+            this.phoneKey = PhoneNumbers.getKey(phone);
+            this.recordedAt = recordedAt;
+            this.bucket = recordedAt / BUCKET_MILLIS;
+        }
+
+        private SMSStatus toSMSStatus()
+        {
+            return new SMSStatus(id, phone, status, reason, errorCode, partCount, recordedAt, updatedAt);
+        }
+    }
+
+    /*
+     * Snapshot of a status, safe to use outside of store's lock
+     * */
+    public static class SMSStatus {
+
+        private final String id;
+        private final String phone;
+        private final String status;
+        private final String reason;
+        private final int errorCode;
+        private final int partCount;
+        private final long recordedAt;
+        private final long updatedAt;
+
+        private SMSStatus(String id, String phone, String status, String reason, int errorCode, int partCount, long recordedAt, long updatedAt)
+        {
+            this.id = id;
+            this.phone = phone;
+            this.status = status;
+            this.reason = reason;
+            this.errorCode = errorCode;
+            this.partCount = partCount;
+            this.recordedAt = recordedAt;
+            this.updatedAt = updatedAt;
+        }
+
+        public String getId()
+        {
+            return id;
+        }
+
+        public String getPhone()
+        {
+            return phone;
+        }
+
+        public String getStatus()
+        {
+            return status;
+        }
+
+        public String getReason()
+        {
+            return reason;
+        }
+
+        public int getErrorCode()
+        {
+            return errorCode;
+        }
+
+        public int getPartCount()
+        {
+            return partCount;
+        }
+
+        public long getRecordedAt()
+        {
+            return recordedAt;
+        }
+
+        public long getUpdatedAt()
+        {
+            return updatedAt;
+        }
+    }
+}
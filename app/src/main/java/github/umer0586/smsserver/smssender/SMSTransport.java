@@ -0,0 +1,41 @@
+package github.umer0586.smsserver.smssender;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+
+import io.reactivex.rxjava3.disposables.Disposable;
+
+/*
+ * Hands sms parts to whatever actually sends them and reports the result code of each part,
+ * Activity.RESULT_OK (-1) when sent or an SmsManager RESULT_ERROR_* code.
+ *
+ * SMSSender uses SmsManager (see SmsManagerTransport) unless another transport is set, which lets everything
+ * above SMSSender (server, queues, retries) run without a SIM.
+ * */
+public interface SMSTransport {
+
+    /**
+     * @param subscriptionId subscription id of SIM or {@link SMSSender#DEFAULT_SUBSCRIPTION}
+     * @return message divided in parts which each fit a single sms
+     */
+    @NonNull
+    ArrayList<String> divideMessage(int subscriptionId, @NonNull String message);
+
+    /**
+     * Starts sending parts without waiting for their result
+     *
+     * @param onPartSentListener called once per part in any order, on any thread, possibly before this method returns
+     * @return disposed when caller no longer waits for results, e.g on timeout
+     */
+    @NonNull
+    Disposable send(int subscriptionId, @NonNull String phone, @NonNull ArrayList<String> parts, @NonNull OnPartSentListener onPartSentListener) throws Exception;
+
+    interface OnPartSentListener {
+
+        /**
+         * @param resultCode Activity.RESULT_OK when part was sent, SmsManager RESULT_ERROR_* code otherwise
+         */
+        void onPartSent(int partIndex, int resultCode);
+    }
+}
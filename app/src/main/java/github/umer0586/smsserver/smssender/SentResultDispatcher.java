@@ -0,0 +1,102 @@
+package github.umer0586.smsserver.smssender;
+
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+
+import androidx.annotation.NonNull;
+import androidx.core.content.ContextCompat;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Single long lived receiver for SMS_SENT broadcasts.
+ * Every sent PendingIntent carries a correlation id (also used as its request code) which maps
+ * the broadcast back to the listener of that particular send, so registration is done only once
+ * per process and dispatching a result is a map lookup.
+ * */
+class SentResultDispatcher extends BroadcastReceiver {
+
+    private static final String SENT = "SMS_SENT_ACTION";
+    private static final String EXTRA_CORRELATION_ID = "correlation_id";
+
+    private static SentResultDispatcher instance;
+
+    private final AtomicInteger nextCorrelationId = new AtomicInteger();
+    private final Map<Integer, OnSentListener> pendingSends = new ConcurrentHashMap<>();
+
+    private SentResultDispatcher()
+    {
+    }
+
+    static synchronized SentResultDispatcher getInstance(@NonNull Context context)
+    {
+        if(instance == null)
+        {
+            instance = new SentResultDispatcher();
+            // registered against application context so receiver outlives any component that sends sms.
+            // Not exported, sent PendingIntents are broadcast as this app so other apps can't fake a result
+            ContextCompat.registerReceiver(context.getApplicationContext(), instance, new IntentFilter(SENT), ContextCompat.RECEIVER_NOT_EXPORTED);
+        }
+
+        return instance;
+    }
+
+    /**
+     * @return correlation id to pass to {@link #createSentIntent(Context, int)}
+     */
+    int register(@NonNull OnSentListener onSentListener)
+    {
+        final int correlationId = nextCorrelationId.incrementAndGet();
+        pendingSends.put(correlationId, onSentListener);
+
+        return correlationId;
+    }
+
+    void unregister(int correlationId)
+    {
+        pendingSends.remove(correlationId);
+    }
+
+    int getPendingCount()
+    {
+        return pendingSends.size();
+    }
+
+    /*
+     This PendingIntent is broadcast when the message is successfully sent, or failed.
+     The result code will be Activity.RESULT_OK for success
+
+     Targeting S+ (version 31 (android 12) and above) requires that one of FLAG_IMMUTABLE or FLAG_MUTABLE be specified when creating a PendingIntent.
+     Strongly consider using FLAG_IMMUTABLE, only use FLAG_MUTABLE if some functionality depends on the PendingIntent being mutable, e.g. if it needs to be used with inline replies or bubbles.
+
+     A distinct request code per send keeps PendingIntents (and their extras) from being merged by the system
+    */
+    PendingIntent createSentIntent(@NonNull Context context, int correlationId)
+    {
+        Intent intent = new Intent(SENT)
+                .setPackage(context.getPackageName())
+                .putExtra(EXTRA_CORRELATION_ID, correlationId);
+
+        return PendingIntent.getBroadcast(context, correlationId, intent, PendingIntent.FLAG_IMMUTABLE | PendingIntent.FLAG_ONE_SHOT);
+    }
+
+    @Override
+    public void onReceive(Context context, Intent intent)
+    {
+        final int correlationId = intent.getIntExtra(EXTRA_CORRELATION_ID, -1);
+        final OnSentListener onSentListener = pendingSends.remove(correlationId);
+
+        if(onSentListener != null)
+            onSentListener.onSent(getResultCode());
+    }
+
+    @FunctionalInterface
+    interface OnSentListener {
+        void onSent(int resultCode);
+    }
+}
@@ -0,0 +1,104 @@
+package github.umer0586.smsserver.smssender;
+
+import android.app.PendingIntent;
+import android.content.Context;
+import android.os.Build;
+import android.telephony.SmsManager;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+
+import io.reactivex.rxjava3.disposables.Disposable;
+
+/*
+ * Sends through SmsManager of the device, part results arrive as SMS_SENT broadcasts through SentResultDispatcher
+ * */
+class SmsManagerTransport implements SMSTransport {
+
+    private final Context context;
+
+    SmsManagerTransport(@NonNull Context context)
+    {
+        this.context = context.getApplicationContext();
+    }
+
+    @NonNull
+    @Override
+    public ArrayList<String> divideMessage(int subscriptionId, @NonNull String message)
+    {
+        return getSmsManager(subscriptionId).divideMessage(message);
+    }
+
+    @NonNull
+    @Override
+    public Disposable send(int subscriptionId, @NonNull String phone, @NonNull ArrayList<String> parts, @NonNull OnPartSentListener onPartSentListener) throws Exception
+    {
+        final SentResultDispatcher sentResultDispatcher = SentResultDispatcher.getInstance(context);
+
+        SmsManager smsManager = getSmsManager(subscriptionId);
+
+        final int[] correlationIds = new int[parts.size()];
+
+        // one sent PendingIntent per part, each part result is reported as it arrives
+        final ArrayList<PendingIntent> sentIntents = new ArrayList<>(parts.size());
+
+        for (int i = 0; i < parts.size(); i++)
+        {
+            final int partIndex = i;
+
+            correlationIds[i] = sentResultDispatcher.register(resultCode -> onPartSentListener.onPartSent(partIndex, resultCode));
+            sentIntents.add(sentResultDispatcher.createSentIntent(context, correlationIds[i]));
+        }
+
+        final Disposable registration = Disposable.fromAction(() -> {
+            for (int correlationId : correlationIds)
+                sentResultDispatcher.unregister(correlationId);
+        });
+
+        //This PendingIntent is broadcast when the message is delivered to the recipient.
+        // The raw pdu of the status report is in the extended data ("pdu").
+        // from android 4.4 this intent is only broadcast to default sms app
+
+        // PendingIntent deliveredPI = PendingIntent.getBroadcast(this.context, 0, new Intent(DELIVERED), 0);
+
+        /*
+        * From Android official documentation https://developer.android.com/about/versions/kitkat/android-4.4#SMS
+        * Beginning with Android 4.4, the system settings allow users to select a "default SMS app." Once selected, only the
+        * default SMS app is able to write to the SMS Provider and only the default SMS app
+        * receives the SMS_DELIVER_ACTION broadcast when the user receives an SMS
+        *
+        * More from Android official docs https://developer.android.com/reference/android/provider/Telephony.Sms.Intents#SMS_DELIVER_ACTION
+        * SMS_DELIVER_ACTION
+        * This intent will only be delivered to the default sms app.
+        *
+        * So our Android SMS server app (non default sms app) has no way to get report whether sms successfully delivered or not
+        * only the app can report whether sms was successfully sent or not
+        *
+        * */
+
+        try
+        {
+            // whether we pass delieveredPI or null delivery will never be reported by android os to this app :(
+            if(parts.size() > 1)
+                smsManager.sendMultipartTextMessage(phone, null, parts, sentIntents, null);
+            else
+                smsManager.sendTextMessage(phone, null, parts.get(0), sentIntents.get(0), null);
+
+        } catch (Exception e)
+        {
+            registration.dispose();
+            throw e;
+        }
+
+        return registration;
+    }
+
+    private static SmsManager getSmsManager(int subscriptionId)
+    {
+        if(subscriptionId != SMSSender.DEFAULT_SUBSCRIPTION && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP_MR1)
+            return SmsManager.getSmsManagerForSubscriptionId(subscriptionId);
+
+        return SmsManager.getDefault();
+    }
+}
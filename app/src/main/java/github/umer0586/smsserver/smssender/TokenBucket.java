@@ -0,0 +1,124 @@
+package github.umer0586.smsserver.smssender;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Token bucket used to pace sends below the rate at which Android (SMS_OUTGOING_CHECK_MAX_COUNT) and
+ * carriers start rejecting sms with RESULT_ERROR_LIMIT_EXCEEDED.
+ * Bucket refills at a steady rate and holds at most "burst" tokens, so short bursts go out immediately
+ * while sustained traffic is smoothed to the configured rate.
+ *
+ * Tokens are reserved in advance (token count may go negative), which gives every caller a fair
+ * position in line and lets us tell how long a queued sms will wait.
+ * */
+public class TokenBucket {
+
+    private final double tokensPerNano;
+    private final int burst;
+
+    private double tokens;
+    private long lastRefillNanos;
+
+    /**
+     * @param permitsPerMinute sustained number of sends allowed per minute
+     * @param burst maximum number of sends allowed back to back
+     */
+    public TokenBucket(int permitsPerMinute, int burst)
+    {
+        if(permitsPerMinute <= 0)
+            throw new IllegalArgumentException("permitsPerMinute must be positive");
+
+        this.tokensPerNano = permitsPerMinute / (double) TimeUnit.MINUTES.toNanos(1);
+        this.burst = Math.max(1, burst);
+        this.tokens = this.burst;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * Blocks until a token is available and consumes it
+     */
+    public void acquire() throws InterruptedException
+    {
+        long waitNanos = reserve();
+
+        if(waitNanos <= 0)
+            return;
+
+        try
+        {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+
+        } catch (InterruptedException e)
+        {
+            // token won't be used, callers reserving after us shouldn't wait for it
+            cancelReservation();
+            throw e;
+        }
+    }
+
+    /**
+     * Consumes a token which may not be available yet
+     *
+     * @return nanoseconds caller must wait before the reserved token becomes available
+     */
+    public synchronized long reserve()
+    {
+        refill();
+        tokens -= 1;
+
+        return tokens >= 0 ? 0 : (long) (-tokens / tokensPerNano);
+    }
+
+    /**
+     * Gives back a token reserved by {@link #reserve()} which caller won't use
+     */
+    public synchronized void cancelReservation()
+    {
+        refill();
+        tokens = Math.min(burst, tokens + 1);
+    }
+
+    /**
+     * Consumes a token only if one is available now
+     *
+     * @return true when token was consumed
+     */
+    public synchronized boolean tryAcquire()
+    {
+        refill();
+
+        if(tokens < 1)
+            return false;
+
+        tokens -= 1;
+        return true;
+    }
+
+    /**
+     * @return estimated milliseconds until {@code count} more tokens can be consumed, without consuming them
+     */
+    public synchronized long estimateWaitMillis(int count)
+    {
+        refill();
+        double deficit = count - tokens;
+
+        return deficit <= 0 ? 0 : TimeUnit.NANOSECONDS.toMillis((long) (deficit / tokensPerNano));
+    }
+
+    public int getPermitsPerMinute()
+    {
+        return (int) Math.round(tokensPerNano * TimeUnit.MINUTES.toNanos(1));
+    }
+
+    public int getBurst()
+    {
+        return burst;
+    }
+
+    private void refill()
+    {
+        long now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (now - lastRefillNanos) * tokensPerNano);
+        lastRefillNanos = now;
+    }
+}
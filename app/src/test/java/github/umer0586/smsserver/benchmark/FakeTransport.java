@@ -0,0 +1,70 @@
+package github.umer0586.smsserver.benchmark;
+
+import android.app.Activity;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import github.umer0586.smsserver.smssender.SMSTransport;
+import io.reactivex.rxjava3.disposables.Disposable;
+
+/*
+ * Stands in for SmsManager : every part is reported sent (or failed with given result code) right away,
+ * on the sending thread, so benchmarks measure only what happens above the radio
+ * */
+class FakeTransport implements SMSTransport {
+
+    private static final int SINGLE_PART_LENGTH = 160;
+    private static final int MULTIPART_PART_LENGTH = 153;
+
+    private final int resultCode;
+    private final AtomicLong sentPartCount = new AtomicLong();
+
+    FakeTransport()
+    {
+        this(Activity.RESULT_OK);
+    }
+
+    FakeTransport(int resultCode)
+    {
+        this.resultCode = resultCode;
+    }
+
+    @NonNull
+    @Override
+    public ArrayList<String> divideMessage(int subscriptionId, @NonNull String message)
+    {
+        ArrayList<String> parts = new ArrayList<>();
+
+        if(message.length() <= SINGLE_PART_LENGTH)
+        {
+            parts.add(message);
+            return parts;
+        }
+
+        for (int start = 0; start < message.length(); start += MULTIPART_PART_LENGTH)
+            parts.add(message.substring(start, Math.min(message.length(), start + MULTIPART_PART_LENGTH)));
+
+        return parts;
+    }
+
+    @NonNull
+    @Override
+    public Disposable send(int subscriptionId, @NonNull String phone, @NonNull ArrayList<String> parts, @NonNull OnPartSentListener onPartSentListener)
+    {
+        for (int i = 0; i < parts.size(); i++)
+        {
+            sentPartCount.incrementAndGet();
+            onPartSentListener.onPartSent(i, resultCode);
+        }
+
+        return Disposable.empty();
+    }
+
+    long getSentPartCount()
+    {
+        return sentPartCount.get();
+    }
+}
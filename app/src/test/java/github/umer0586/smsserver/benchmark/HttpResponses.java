@@ -0,0 +1,53 @@
+package github.umer0586.smsserver.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/*
+ * Minimal HTTP/1.1 response reading for benchmarks talking to the server over a socket
+ * */
+class HttpResponses {
+
+    private HttpResponses()
+    {
+    }
+
+    /**
+     * Reads one complete response (headers and Content-Length framed body)
+     *
+     * @return HTTP status code
+     */
+    static int readStatus(InputStream inputStream) throws IOException
+    {
+        String statusLine = readLine(inputStream);
+        int contentLength = 0;
+
+        for (String header = readLine(inputStream); !header.isEmpty(); header = readLine(inputStream))
+        {
+            if(header.toLowerCase().startsWith("content-length:"))
+                contentLength = Integer.parseInt(header.substring("content-length:".length()).trim());
+        }
+
+        for (int i = 0; i < contentLength; i++)
+            if(inputStream.read() == -1)
+                throw new IOException("connection closed in the middle of response body");
+
+        return Integer.parseInt(statusLine.split(" ")[1]);
+    }
+
+    private static String readLine(InputStream inputStream) throws IOException
+    {
+        StringBuilder line = new StringBuilder();
+
+        for (int c = inputStream.read(); c != '\n'; c = inputStream.read())
+        {
+            if(c == -1)
+                throw new IOException("connection closed");
+
+            if(c != '\r')
+                line.append((char) c);
+        }
+
+        return line.toString();
+    }
+}
@@ -0,0 +1,152 @@
+package github.umer0586.smsserver.benchmark;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import android.app.Application;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import github.umer0586.smsserver.httpserver.SMSServer;
+
+/*
+ * Measures requests/sec over loopback with a new connection per request, a persistent (keep-alive)
+ * connection and a pipelined persistent connection.
+ * Requests go to an unknown path so that only HTTP handling is measured, no sms is sent.
+ *
+ * Runs under Robolectric since server logs through android.util.Log, local unit tests get android.jar stubs which throw.
+ *
+ * Run with : ./gradlew :app:testDebugUnitTest -Pbenchmarks=true --tests '*KeepAliveBenchmark*' -i
+ * */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 33)
+public class KeepAliveBenchmark {
+
+    private static final int WARMUP_REQUESTS = 500;
+    private static final int REQUESTS = 5000;
+    private static final int PIPELINE_DEPTH = 16;
+
+    private static final String BODY = "phone=03001234567&message=benchmark";
+
+    private SMSServer smsServer;
+
+    @BeforeClass
+    public static void assumeEnabled()
+    {
+        assumeTrue("benchmarks run with -Pbenchmarks=true", Boolean.getBoolean("benchmarks"));
+    }
+
+    @Before
+    public void startServer() throws IOException
+    {
+        Application application = RuntimeEnvironment.getApplication();
+
+        smsServer = new SMSServer(application, "127.0.0.1", 0);
+        smsServer.start();
+    }
+
+    @After
+    public void stopServer()
+    {
+        smsServer.stop();
+    }
+
+    @Test
+    public void newConnectionPerRequest() throws IOException
+    {
+        runNewConnectionPerRequest(WARMUP_REQUESTS);
+
+        long start = System.nanoTime();
+        runNewConnectionPerRequest(REQUESTS);
+        report("new connection per request", REQUESTS, System.nanoTime() - start);
+    }
+
+    @Test
+    public void keepAlive() throws IOException
+    {
+        runKeepAlive(WARMUP_REQUESTS, 1);
+
+        long start = System.nanoTime();
+        runKeepAlive(REQUESTS, 1);
+        report("keep-alive", REQUESTS, System.nanoTime() - start);
+    }
+
+    @Test
+    public void keepAlivePipelined() throws IOException
+    {
+        runKeepAlive(WARMUP_REQUESTS, PIPELINE_DEPTH);
+
+        long start = System.nanoTime();
+        runKeepAlive(REQUESTS, PIPELINE_DEPTH);
+        report("keep-alive pipelined x" + PIPELINE_DEPTH, REQUESTS, System.nanoTime() - start);
+    }
+
+    private void runNewConnectionPerRequest(int requests) throws IOException
+    {
+        for (int i = 0; i < requests; i++)
+        {
+            try (Socket socket = new Socket("127.0.0.1", smsServer.getListeningPort()))
+            {
+                socket.getOutputStream().write(request(true));
+                assertEquals(404, HttpResponses.readStatus(new BufferedInputStream(socket.getInputStream())));
+            }
+        }
+    }
+
+    private void runKeepAlive(int requests, int pipelineDepth) throws IOException
+    {
+        try (Socket socket = new Socket("127.0.0.1", smsServer.getListeningPort()))
+        {
+            socket.setTcpNoDelay(true);
+
+            OutputStream outputStream = socket.getOutputStream();
+            InputStream inputStream = new BufferedInputStream(socket.getInputStream());
+
+            byte[] request = request(false);
+            byte[] pipeline = new byte[request.length * pipelineDepth];
+
+            for (int i = 0; i < pipelineDepth; i++)
+                System.arraycopy(request, 0, pipeline, i * request.length, request.length);
+
+            for (int sent = 0; sent < requests; sent += pipelineDepth)
+            {
+                // all requests of a pipeline are written before reading any response
+                outputStream.write(pipeline);
+                outputStream.flush();
+
+                for (int i = 0; i < pipelineDepth; i++)
+                    assertEquals(404, HttpResponses.readStatus(inputStream));
+            }
+        }
+    }
+
+    private static byte[] request(boolean closeConnection)
+    {
+        return ("POST /benchmark HTTP/1.1\r\n"
+                + "Host: 127.0.0.1\r\n"
+                + "Content-Type: application/x-www-form-urlencoded\r\n"
+                + "Content-Length: " + BODY.length() + "\r\n"
+                + (closeConnection ? "Connection: close\r\n" : "")
+                + "\r\n"
+                + BODY).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static void report(String name, int requests, long elapsedNanos)
+    {
+        System.out.printf("%-30s %8.0f requests/sec%n", name, requests / (elapsedNanos / 1e9));
+    }
+}
@@ -0,0 +1,52 @@
+package github.umer0586.smsserver.benchmark;
+
+import java.util.Arrays;
+
+/*
+ * Latency of every request of a benchmark run, reported along with throughput as exact p50 and p99.
+ * Can be shared by client threads
+ * */
+class LatencyRecorder {
+
+    private final long[] latencies;
+    private int count = 0;
+    private long startNanos;
+
+    LatencyRecorder(int requests)
+    {
+        this.latencies = new long[requests];
+    }
+
+    void start()
+    {
+        count = 0;
+        startNanos = System.nanoTime();
+    }
+
+    synchronized void record(long latencyNanos)
+    {
+        latencies[count++] = latencyNanos;
+    }
+
+    synchronized void report(String name)
+    {
+        final long elapsedNanos = System.nanoTime() - startNanos;
+        final long[] sorted = Arrays.copyOf(latencies, count);
+
+        Arrays.sort(sorted);
+
+        System.out.printf("%-36s %9.0f requests/sec   p50 %8.1fus   p99 %8.1fus%n",
+                name,
+                count / (elapsedNanos / 1e9),
+                percentile(sorted, 0.50) / 1e3,
+                percentile(sorted, 0.99) / 1e3);
+    }
+
+    private static long percentile(long[] sorted, double quantile)
+    {
+        if(sorted.length == 0)
+            return 0;
+
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(quantile * sorted.length) - 1)];
+    }
+}
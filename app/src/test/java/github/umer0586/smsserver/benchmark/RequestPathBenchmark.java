@@ -0,0 +1,237 @@
+package github.umer0586.smsserver.benchmark;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.Manifest;
+import android.app.Application;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+
+import javax.net.ssl.SSLContext;
+
+import fi.iki.elonen.NanoHTTPD;
+import github.umer0586.smsserver.httpserver.AuthFailureThrottle;
+import github.umer0586.smsserver.httpserver.SMSServer;
+import github.umer0586.smsserver.smssender.SMSSender;
+
+/*
+ * Measures throughput and p50/p99 latency of SMSServer.serve() for /sendSMS form and JSON requests and
+ * /sendSMSBatch requests, with and without password check, and of a client guessing passwords. Requests are handed to serve() in process
+ * (no socket, no HTTP parsing, see TlsBenchmark for those) and sms go to a FakeTransport which reports every
+ * part sent right away, so what is measured is routing, body parsing, validation, password check, SIM selection,
+ * SMSSender bookkeeping, status store, events and response building.
+ *
+ * Runs under Robolectric so that org.json and android.util.JsonReader are the real ones, not android.jar stubs.
+ *
+ * Run with : ./gradlew :app:testDebugUnitTest -Pbenchmarks=true --tests '*RequestPathBenchmark*' -i
+ * */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 33)
+public class RequestPathBenchmark {
+
+    private static final int WARMUP_REQUESTS = 5000;
+    private static final int REQUESTS = 20000;
+    private static final int BATCH_SIZE = 10;
+
+    private static final String PASSWORD = "1234";
+
+    private static final String FORM = "application/x-www-form-urlencoded";
+    private static final String JSON = "application/json";
+
+    private SMSServer smsServer;
+    private FakeTransport fakeTransport;
+
+    @BeforeClass
+    public static void assumeEnabled()
+    {
+        assumeTrue("benchmarks run with -Pbenchmarks=true", Boolean.getBoolean("benchmarks"));
+    }
+
+    @Before
+    public void setUp()
+    {
+        Application application = RuntimeEnvironment.getApplication();
+        shadowOf(application).grantPermissions(Manifest.permission.SEND_SMS);
+
+        fakeTransport = new FakeTransport();
+        SMSSender.setTransport(fakeTransport);
+
+        smsServer = new SMSServer(application, "127.0.0.1", 0);
+    }
+
+    @After
+    public void tearDown()
+    {
+        smsServer.stop();
+        SMSSender.setTransport(null);
+    }
+
+    @Test
+    public void form() throws Exception
+    {
+        startServer(false);
+        run("form", "/sendSMS", null, FORM, formBody(false), 1);
+    }
+
+    @Test
+    public void formWithPassword() throws Exception
+    {
+        startServer(true);
+        run("form + password", "/sendSMS", null, FORM, formBody(true), 1);
+    }
+
+    @Test
+    public void json() throws Exception
+    {
+        startServer(false);
+        run("json", "/sendSMS", null, JSON, jsonBody(false), 1);
+    }
+
+    @Test
+    public void jsonWithPassword() throws Exception
+    {
+        startServer(true);
+        run("json + password", "/sendSMS", null, JSON, jsonBody(true), 1);
+    }
+
+    @Test
+    public void batch() throws Exception
+    {
+        startServer(false);
+        run("batch x" + BATCH_SIZE, "/sendSMSBatch", null, JSON, batchBody(), BATCH_SIZE);
+    }
+
+    @Test
+    public void batchWithPassword() throws Exception
+    {
+        startServer(true);
+        run("batch x" + BATCH_SIZE + " + password", "/sendSMSBatch", "password=" + PASSWORD, JSON, batchBody(), BATCH_SIZE);
+    }
+
+    @Test
+    public void wrongPassword() throws Exception
+    {
+        startServer(true);
+
+        final byte[] body = ("phone=03001234567&message=benchmark+message&password=wrong").getBytes(StandardCharsets.UTF_8);
+
+        // first few are answered 401, after that client is turned away before its body is read
+        for (int i = 0; i < AuthFailureThrottle.DEFAULT_MAX_FAILURES; i++)
+            assertEquals(401, serve("/sendSMS", null, FORM, body));
+
+        final LatencyRecorder latencyRecorder = new LatencyRecorder(REQUESTS);
+
+        latencyRecorder.start();
+
+        for (int i = 0; i < REQUESTS; i++)
+        {
+            final long start = System.nanoTime();
+            final int status = serve("/sendSMS", null, FORM, body);
+            latencyRecorder.record(System.nanoTime() - start);
+
+            assertEquals(429, status);
+        }
+
+        latencyRecorder.report("wrong password, throttled");
+
+        // right password too, until window ends
+        assertEquals(429, serve("/sendSMS", null, FORM, formBody(true)));
+        assertEquals(0, fakeTransport.getSentPartCount());
+    }
+
+    private void startServer(boolean withPassword) throws IOException, GeneralSecurityException
+    {
+        if(withPassword)
+        {
+            // password is only checked by a secure server, no socket is opened here so any SSLContext will do
+            smsServer.makeSecure(SSLContext.getDefault());
+            smsServer.enablePassword();
+            smsServer.setPassword(PASSWORD);
+        }
+
+        smsServer.start();
+    }
+
+    private void run(String name, String uri, String queryString, String contentType, byte[] body, int smsPerRequest) throws IOException
+    {
+        for (int i = 0; i < WARMUP_REQUESTS; i++)
+            assertEquals(200, serve(uri, queryString, contentType, body));
+
+        final long sentPartCount = fakeTransport.getSentPartCount();
+        final LatencyRecorder latencyRecorder = new LatencyRecorder(REQUESTS);
+
+        latencyRecorder.start();
+
+        for (int i = 0; i < REQUESTS; i++)
+        {
+            final long start = System.nanoTime();
+            final int status = serve(uri, queryString, contentType, body);
+            latencyRecorder.record(System.nanoTime() - start);
+
+            assertEquals(200, status);
+        }
+
+        latencyRecorder.report(name);
+
+        // every request really went down to transport
+        assertEquals((long) REQUESTS * smsPerRequest, fakeTransport.getSentPartCount() - sentPartCount);
+    }
+
+    /**
+     * @return status code, after reading whole response body as NanoHTTPD would
+     */
+    private int serve(String uri, String queryString, String contentType, byte[] body) throws IOException
+    {
+        NanoHTTPD.Response response = smsServer.serve(new StubSession(NanoHTTPD.Method.POST, uri, queryString, contentType, body));
+
+        try (InputStream data = response.getData())
+        {
+            while (data.read() != -1)
+                ;
+        }
+
+        return response.getStatus().getRequestStatus();
+    }
+
+    private static byte[] formBody(boolean withPassword)
+    {
+        return ("phone=03001234567&message=benchmark+message" + (withPassword ? "&password=" + PASSWORD : ""))
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] jsonBody(boolean withPassword)
+    {
+        return ("{\"phone\" : \"03001234567\", \"message\" : \"benchmark message\""
+                + (withPassword ? ", \"password\" : \"" + PASSWORD + "\"" : "") + "}")
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] batchBody()
+    {
+        StringBuilder body = new StringBuilder("[");
+
+        for (int i = 0; i < BATCH_SIZE; i++)
+        {
+            if(i > 0)
+                body.append(',');
+
+            body.append("{\"phone\" : \"0300123456").append(i).append("\", \"message\" : \"benchmark message ").append(i).append("\"}");
+        }
+
+        return body.append(']').toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,196 @@
+package github.umer0586.smsserver.benchmark;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.Manifest;
+import android.app.Application;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import fi.iki.elonen.NanoHTTPD;
+import github.umer0586.smsserver.httpserver.SMSServer;
+import github.umer0586.smsserver.smssender.SMSSender;
+import github.umer0586.smsserver.smssender.SMSSimulatorTransport;
+
+/*
+ * Many clients sending /sendSMS at once, each request waiting for its sms like a real client does, with sms
+ * going to SMSSimulatorTransport : every part takes a few milliseconds and some fail or get rate limited.
+ * Shows how throughput and latency of the synchronous path hold up when sending is slow and unreliable,
+ * i.e contention in SMSSender, SIM selection, status store and metrics rather than raw parsing speed
+ * (see RequestPathBenchmark for that).
+ *
+ * Run with : ./gradlew :app:testDebugUnitTest -Pbenchmarks=true --tests '*SimulatorLoadBenchmark*' -i
+ * */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 33)
+public class SimulatorLoadBenchmark {
+
+    private static final int CLIENTS = 256;
+    private static final int WARMUP_REQUESTS = 5000;
+    private static final int REQUESTS = 50000;
+
+    private static final int MIN_LATENCY_MILLIS = 1;
+    private static final int MAX_LATENCY_MILLIS = 5;
+
+    private static final byte[] BODY = "phone=03001234567&message=benchmark+message".getBytes(StandardCharsets.UTF_8);
+
+    private SMSServer smsServer;
+    private SMSSimulatorTransport simulatorTransport;
+
+    @BeforeClass
+    public static void assumeEnabled()
+    {
+        assumeTrue("benchmarks run with -Pbenchmarks=true", Boolean.getBoolean("benchmarks"));
+    }
+
+    @Before
+    public void setUp() throws IOException
+    {
+        Application application = RuntimeEnvironment.getApplication();
+        shadowOf(application).grantPermissions(Manifest.permission.SEND_SMS);
+
+        simulatorTransport = new SMSSimulatorTransport(MIN_LATENCY_MILLIS, MAX_LATENCY_MILLIS);
+        SMSSender.setTransport(simulatorTransport);
+
+        // let every client have its sms outstanding, otherwise default window is what gets measured
+        SMSSender.setMaxOutstandingSends(CLIENTS);
+
+        smsServer = new SMSServer(application, "127.0.0.1", 0);
+        smsServer.start();
+    }
+
+    @After
+    public void tearDown()
+    {
+        smsServer.stop();
+        SMSSender.setTransport(null);
+        SMSSender.setMaxOutstandingSends(SMSSender.DEFAULT_MAX_OUTSTANDING_SENDS);
+    }
+
+    @Test
+    public void allSent() throws Exception
+    {
+        run(WARMUP_REQUESTS, new LatencyRecorder(WARMUP_REQUESTS));
+
+        final int[] statusCounts = report("simulator, all sent");
+
+        assertEquals(REQUESTS, statusCounts[200]);
+    }
+
+    @Test
+    public void failuresAndCarrierLimit() throws Exception
+    {
+        simulatorTransport.setFailures(1);
+        simulatorTransport.setRateLimit(60 * 2000);
+
+        run(WARMUP_REQUESTS, new LatencyRecorder(WARMUP_REQUESTS));
+
+        final long failedPartCount = simulatorTransport.getFailedPartCount();
+        final int[] statusCounts = report("simulator, 1% failed, 2000/s limit");
+
+        // failed sends are answered with 500, one per failed part since every message fits a single part
+        assertEquals(REQUESTS, statusCounts[200] + statusCounts[500]);
+        assertEquals(simulatorTransport.getFailedPartCount() - failedPartCount, statusCounts[500]);
+        assertTrue(statusCounts[500] > 0);
+    }
+
+    /**
+     * @return number of responses indexed by status code
+     */
+    private int[] report(String name) throws Exception
+    {
+        final LatencyRecorder latencyRecorder = new LatencyRecorder(REQUESTS);
+
+        latencyRecorder.start();
+        final int[] statusCounts = run(REQUESTS, latencyRecorder);
+        latencyRecorder.report(name);
+
+        System.out.printf("%-36s %d ok, %d failed%n", "", statusCounts[200], REQUESTS - statusCounts[200]);
+
+        return statusCounts;
+    }
+
+    private int[] run(int requests, LatencyRecorder latencyRecorder) throws Exception
+    {
+        final AtomicInteger remaining = new AtomicInteger(requests);
+        final AtomicInteger[] statusCounts = new AtomicInteger[600];
+        final List<Throwable> errors = new ArrayList<>();
+
+        for (int i = 0; i < statusCounts.length; i++)
+            statusCounts[i] = new AtomicInteger();
+
+        final List<Thread> clients = new ArrayList<>(CLIENTS);
+
+        for (int i = 0; i < CLIENTS; i++)
+        {
+            Thread client = new Thread(() -> {
+
+                try
+                {
+                    while (remaining.getAndDecrement() > 0)
+                    {
+                        final long start = System.nanoTime();
+                        final int status = serve();
+                        latencyRecorder.record(System.nanoTime() - start);
+
+                        statusCounts[status].incrementAndGet();
+                    }
+
+                } catch (Throwable e)
+                {
+                    synchronized (errors)
+                    {
+                        errors.add(e);
+                    }
+                }
+
+            }, "Client-" + i);
+
+            clients.add(client);
+            client.start();
+        }
+
+        for (Thread client : clients)
+            client.join();
+
+        if(!errors.isEmpty())
+            throw new AssertionError(errors.get(0));
+
+        final int[] counts = new int[statusCounts.length];
+
+        for (int i = 0; i < counts.length; i++)
+            counts[i] = statusCounts[i].get();
+
+        return counts;
+    }
+
+    private int serve() throws IOException
+    {
+        NanoHTTPD.Response response = smsServer.serve(new StubSession(NanoHTTPD.Method.POST, "/sendSMS", null, "application/x-www-form-urlencoded", BODY));
+
+        try (InputStream data = response.getData())
+        {
+            while (data.read() != -1)
+                ;
+        }
+
+        return response.getStatus().getRequestStatus();
+    }
+}
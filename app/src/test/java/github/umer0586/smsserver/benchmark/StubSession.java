@@ -0,0 +1,157 @@
+package github.umer0586.smsserver.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import fi.iki.elonen.NanoHTTPD;
+
+/*
+ * In memory request handed straight to SMSServer.serve(), without socket or HTTP parsing.
+ * Behaves like NanoHTTPD's session for what SMSServer uses : lower case header names, query parameters,
+ * body readable once through getInputStream() and raw body under "postData" after parseBody()
+ * */
+class StubSession implements NanoHTTPD.IHTTPSession {
+
+    private final NanoHTTPD.Method method;
+    private final String uri;
+    private final String queryString;
+    private final Map<String, String> headers = new HashMap<>();
+    private final Map<String, List<String>> parameters = new HashMap<>();
+    private final byte[] body;
+    private final InputStream inputStream;
+
+    StubSession(NanoHTTPD.Method method, String uri, String queryString, String contentType, byte[] body)
+    {
+        this.method = method;
+        this.uri = uri;
+        this.queryString = queryString;
+        this.body = body;
+        this.inputStream = new ByteArrayInputStream(body);
+
+        headers.put("host", "127.0.0.1");
+        headers.put("remote-addr", "127.0.0.1");
+        headers.put("content-length", String.valueOf(body.length));
+
+        if(contentType != null)
+            headers.put("content-type", contentType);
+
+        if(queryString != null)
+            parseQuery(queryString);
+    }
+
+    private void parseQuery(String queryString)
+    {
+        for (String parameter : queryString.split("&"))
+        {
+            final int equals = parameter.indexOf('=');
+            final String name = decode(equals < 0 ? parameter : parameter.substring(0, equals));
+            final String value = equals < 0 ? "" : decode(parameter.substring(equals + 1));
+
+            List<String> values = parameters.get(name);
+
+            if(values == null)
+            {
+                values = new ArrayList<>();
+                parameters.put(name, values);
+            }
+
+            values.add(value);
+        }
+    }
+
+    private static String decode(String encoded)
+    {
+        try
+        {
+            return URLDecoder.decode(encoded, "UTF-8");
+        } catch (UnsupportedEncodingException e)
+        {
+            throw new AssertionError(e);
+        }
+    }
+
+    @Override
+    public void execute()
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public NanoHTTPD.CookieHandler getCookies()
+    {
+        return null;
+    }
+
+    @Override
+    public Map<String, String> getHeaders()
+    {
+        return headers;
+    }
+
+    @Override
+    public InputStream getInputStream()
+    {
+        return inputStream;
+    }
+
+    @Override
+    public NanoHTTPD.Method getMethod()
+    {
+        return method;
+    }
+
+    @Override
+    @Deprecated
+    public Map<String, String> getParms()
+    {
+        Map<String, String> parms = new HashMap<>();
+
+        for (Map.Entry<String, List<String>> entry : parameters.entrySet())
+            parms.put(entry.getKey(), entry.getValue().get(0));
+
+        return parms;
+    }
+
+    @Override
+    public Map<String, List<String>> getParameters()
+    {
+        return parameters;
+    }
+
+    @Override
+    public String getQueryParameterString()
+    {
+        return queryString;
+    }
+
+    @Override
+    public String getUri()
+    {
+        return uri;
+    }
+
+    @Override
+    public void parseBody(Map<String, String> files)
+    {
+        files.put("postData", new String(body, StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public String getRemoteIpAddress()
+    {
+        return "127.0.0.1";
+    }
+
+    @Override
+    public String getRemoteHostName()
+    {
+        return "localhost";
+    }
+}
@@ -0,0 +1,255 @@
+package github.umer0586.smsserver.benchmark;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.Manifest;
+import android.app.Application;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+
+import javax.net.SocketFactory;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+
+import github.umer0586.smsserver.httpserver.SMSServer;
+import github.umer0586.smsserver.httpserver.SSLContextCache;
+import github.umer0586.smsserver.smssender.SMSSender;
+
+/*
+ * Measures throughput and p50/p99 latency of /sendSMS form requests over loopback, plain and over TLS :
+ * a new connection per request (full handshake, or resumed session when client reuses its session cache)
+ * and a persistent connection. Server uses the app's own keystore, sms go to a FakeTransport.
+ *
+ * Run with : ./gradlew :app:testDebugUnitTest -Pbenchmarks=true --tests '*TlsBenchmark*' -i
+ * */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 33)
+public class TlsBenchmark {
+
+    private static final int WARMUP_REQUESTS = 200;
+    private static final int REQUESTS = 2000;
+
+    // relative to app module, which is working directory of unit tests
+    private static final String KEYSTORE_FILE = "src/main/assets/keystore.bks";
+    private static final String KEYSTORE_PASSWORD = "12345";
+
+    private static final String BODY = "phone=03001234567&message=benchmark+message";
+
+    private SMSServer smsServer;
+
+    @BeforeClass
+    public static void assumeEnabled()
+    {
+        assumeTrue("benchmarks run with -Pbenchmarks=true", Boolean.getBoolean("benchmarks"));
+    }
+
+    @Before
+    public void setUp()
+    {
+        Application application = RuntimeEnvironment.getApplication();
+        shadowOf(application).grantPermissions(Manifest.permission.SEND_SMS);
+
+        SMSSender.setTransport(new FakeTransport());
+
+        smsServer = new SMSServer(application, "127.0.0.1", 0);
+    }
+
+    @After
+    public void tearDown()
+    {
+        smsServer.stop();
+        SMSSender.setTransport(null);
+    }
+
+    @Test
+    public void plainNewConnectionPerRequest() throws Exception
+    {
+        smsServer.start();
+
+        final SocketFactory socketFactory = SocketFactory.getDefault();
+
+        runNewConnectionPerRequest(WARMUP_REQUESTS, () -> socketFactory, new LatencyRecorder(WARMUP_REQUESTS));
+        report("plain new connection", latencyRecorder -> runNewConnectionPerRequest(REQUESTS, () -> socketFactory, latencyRecorder));
+    }
+
+    @Test
+    public void tlsFullHandshakePerRequest() throws Exception
+    {
+        startSecureServer();
+
+        // a fresh client context has no session to resume
+        runNewConnectionPerRequest(WARMUP_REQUESTS, () -> newClientSSLContext().getSocketFactory(), new LatencyRecorder(WARMUP_REQUESTS));
+        report("tls full handshake per request", latencyRecorder -> runNewConnectionPerRequest(REQUESTS, () -> newClientSSLContext().getSocketFactory(), latencyRecorder));
+    }
+
+    @Test
+    public void tlsResumedSessionPerRequest() throws Exception
+    {
+        startSecureServer();
+
+        final SocketFactory socketFactory = newClientSSLContext().getSocketFactory();
+
+        runNewConnectionPerRequest(WARMUP_REQUESTS, () -> socketFactory, new LatencyRecorder(WARMUP_REQUESTS));
+        report("tls resumed session per request", latencyRecorder -> runNewConnectionPerRequest(REQUESTS, () -> socketFactory, latencyRecorder));
+    }
+
+    @Test
+    public void tlsKeepAlive() throws Exception
+    {
+        startSecureServer();
+
+        final SocketFactory socketFactory = newClientSSLContext().getSocketFactory();
+
+        runKeepAlive(WARMUP_REQUESTS, socketFactory, new LatencyRecorder(WARMUP_REQUESTS));
+        report("tls keep-alive", latencyRecorder -> runKeepAlive(REQUESTS, socketFactory, latencyRecorder));
+    }
+
+    private void startSecureServer() throws IOException, GeneralSecurityException
+    {
+        // keystore is BKS, which only Android reads out of the box
+        KeyStore keystore = KeyStore.getInstance("BKS", new BouncyCastleProvider());
+
+        try (InputStream keystoreStream = new FileInputStream(KEYSTORE_FILE))
+        {
+            keystore.load(keystoreStream, KEYSTORE_PASSWORD.toCharArray());
+        }
+
+        KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagerFactory.init(keystore, KEYSTORE_PASSWORD.toCharArray());
+
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(keyManagerFactory.getKeyManagers(), null, null);
+        SSLContextCache.configureSessionCache(sslContext);
+
+        smsServer.makeSecure(sslContext);
+        smsServer.start();
+    }
+
+    private static SSLContext newClientSSLContext() throws GeneralSecurityException
+    {
+        // server certificate is self signed
+        TrustManager trustAll = new X509TrustManager() {
+
+            @Override
+            public void checkClientTrusted(X509Certificate[] chain, String authType)
+            {
+            }
+
+            @Override
+            public void checkServerTrusted(X509Certificate[] chain, String authType)
+            {
+            }
+
+            @Override
+            public X509Certificate[] getAcceptedIssuers()
+            {
+                return new X509Certificate[0];
+            }
+        };
+
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(null, new TrustManager[]{trustAll}, null);
+
+        return sslContext;
+    }
+
+    private void runNewConnectionPerRequest(int requests, SocketFactorySource socketFactorySource, LatencyRecorder latencyRecorder) throws Exception
+    {
+        final byte[] request = request(true);
+
+        for (int i = 0; i < requests; i++)
+        {
+            final SocketFactory socketFactory = socketFactorySource.get();
+            final long start = System.nanoTime();
+
+            try (Socket socket = socketFactory.createSocket("127.0.0.1", smsServer.getListeningPort()))
+            {
+                socket.setTcpNoDelay(true);
+
+                if(socket instanceof SSLSocket)
+                    ((SSLSocket) socket).startHandshake();
+
+                socket.getOutputStream().write(request);
+                assertEquals(200, HttpResponses.readStatus(new BufferedInputStream(socket.getInputStream())));
+            }
+
+            latencyRecorder.record(System.nanoTime() - start);
+        }
+    }
+
+    private void runKeepAlive(int requests, SocketFactory socketFactory, LatencyRecorder latencyRecorder) throws IOException
+    {
+        final byte[] request = request(false);
+
+        try (Socket socket = socketFactory.createSocket("127.0.0.1", smsServer.getListeningPort()))
+        {
+            socket.setTcpNoDelay(true);
+
+            OutputStream outputStream = socket.getOutputStream();
+            InputStream inputStream = new BufferedInputStream(socket.getInputStream());
+
+            for (int i = 0; i < requests; i++)
+            {
+                final long start = System.nanoTime();
+
+                outputStream.write(request);
+                outputStream.flush();
+                assertEquals(200, HttpResponses.readStatus(inputStream));
+
+                latencyRecorder.record(System.nanoTime() - start);
+            }
+        }
+    }
+
+    private static void report(String name, Run run) throws Exception
+    {
+        final LatencyRecorder latencyRecorder = new LatencyRecorder(REQUESTS);
+
+        latencyRecorder.start();
+        run.run(latencyRecorder);
+        latencyRecorder.report(name);
+    }
+
+    private static byte[] request(boolean closeConnection)
+    {
+        return ("POST /sendSMS HTTP/1.1\r\n"
+                + "Host: 127.0.0.1\r\n"
+                + "Content-Type: application/x-www-form-urlencoded\r\n"
+                + "Content-Length: " + BODY.length() + "\r\n"
+                + (closeConnection ? "Connection: close\r\n" : "")
+                + "\r\n"
+                + BODY).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private interface SocketFactorySource {
+        SocketFactory get() throws GeneralSecurityException;
+    }
+
+    private interface Run {
+        void run(LatencyRecorder latencyRecorder) throws Exception;
+    }
+}
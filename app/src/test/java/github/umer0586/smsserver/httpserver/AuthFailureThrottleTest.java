@@ -0,0 +1,89 @@
+package github.umer0586.smsserver.httpserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class AuthFailureThrottleTest {
+
+    @Test
+    public void clientIsTurnedAwayAfterMaxFailures()
+    {
+        AuthFailureThrottle throttle = new AuthFailureThrottle(3, 60_000);
+
+        throttle.onFailure("10.0.0.1");
+        throttle.onFailure("10.0.0.1");
+        assertEquals(0, throttle.getBlockedMillis("10.0.0.1"));
+
+        throttle.onFailure("10.0.0.1");
+
+        final long blockedMillis = throttle.getBlockedMillis("10.0.0.1");
+        assertTrue(blockedMillis > 59_000 && blockedMillis <= 60_000);
+        assertEquals(1, throttle.getBlockedCount());
+    }
+
+    @Test
+    public void clientsAreCountedSeparately()
+    {
+        AuthFailureThrottle throttle = new AuthFailureThrottle(2, 60_000);
+
+        throttle.onFailure("10.0.0.1");
+        throttle.onFailure("10.0.0.1");
+        throttle.onFailure("10.0.0.2");
+
+        assertTrue(throttle.getBlockedMillis("10.0.0.1") > 0);
+        assertEquals(0, throttle.getBlockedMillis("10.0.0.2"));
+        assertEquals(0, throttle.getBlockedMillis("10.0.0.3"));
+    }
+
+    @Test
+    public void successForgetsFailures()
+    {
+        AuthFailureThrottle throttle = new AuthFailureThrottle(2, 60_000);
+
+        throttle.onFailure("10.0.0.1");
+        throttle.onSuccess("10.0.0.1");
+        throttle.onFailure("10.0.0.1");
+
+        assertEquals(0, throttle.getBlockedMillis("10.0.0.1"));
+    }
+
+    @Test
+    public void blockEndsWithWindow() throws InterruptedException
+    {
+        AuthFailureThrottle throttle = new AuthFailureThrottle(2, 50);
+
+        throttle.onFailure("10.0.0.1");
+        throttle.onFailure("10.0.0.1");
+        assertTrue(throttle.getBlockedMillis("10.0.0.1") > 0);
+
+        Thread.sleep(70);
+
+        assertEquals(0, throttle.getBlockedMillis("10.0.0.1"));
+        assertEquals(0, throttle.getBlockedCount());
+    }
+
+    @Test
+    public void failuresOfEndedWindowDecay() throws InterruptedException
+    {
+        AuthFailureThrottle throttle = new AuthFailureThrottle(2, 50);
+
+        throttle.onFailure("10.0.0.1");
+
+        Thread.sleep(70);
+
+        // new window starts with this failure, old one is not added to it
+        throttle.onFailure("10.0.0.1");
+        assertEquals(0, throttle.getBlockedMillis("10.0.0.1"));
+
+        throttle.onFailure("10.0.0.1");
+        assertTrue(throttle.getBlockedMillis("10.0.0.1") > 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonPositiveLimits()
+    {
+        new AuthFailureThrottle(0, 60_000);
+    }
+}
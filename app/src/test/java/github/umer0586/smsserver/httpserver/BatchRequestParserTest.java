@@ -0,0 +1,84 @@
+package github.umer0586.smsserver.httpserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+
+import github.umer0586.smsserver.smssender.SMSPriority;
+import github.umer0586.smsserver.smssender.SMSRequest;
+import github.umer0586.smsserver.smssender.SMSSenderPool;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 33)
+public class BatchRequestParserTest {
+
+    @Test
+    public void validItemsAreParsed()
+    {
+        BatchRequestParser parser = BatchRequestParser.parseJson("[" +
+                "{\"phone\":\"03001234567\",\"message\":\"hello\"}," +
+                "{\"phone\":\"03007654321\",\"message\":\"bye\",\"sim\":2,\"priority\":\"high\"}]");
+
+        assertFalse(parser.hasErrors());
+        assertEquals(2, parser.getSMSRequests().size());
+
+        SMSRequest first = parser.getSMSRequests().get(0);
+        assertEquals(SMSSenderPool.ANY_SIM, first.getSim());
+        assertNull(first.getCallbackUrl());
+
+        SMSRequest second = parser.getSMSRequests().get(1);
+        assertEquals(2, second.getSim());
+        assertEquals(SMSPriority.HIGH, second.getPriority());
+    }
+
+    @Test
+    public void jsonNullIsTreatedAsMissing()
+    {
+        BatchRequestParser parser = BatchRequestParser.parseJson("[" +
+                "{\"phone\":null,\"message\":\"hello\"}," +
+                "{\"phone\":\"03001234567\",\"message\":null}," +
+                "{\"phone\":\"03001234567\",\"message\":\"hello\",\"sim\":null,\"callback_url\":null,\"priority\":null}]");
+
+        assertEquals(Arrays.asList("item 0 : <phone> missing", "item 1 : <message> missing"), parser.getErrors());
+
+        SMSRequest smsRequest = parser.getSMSRequests().get(0);
+        assertEquals(SMSSenderPool.ANY_SIM, smsRequest.getSim());
+        assertNull(smsRequest.getCallbackUrl());
+        assertEquals(SMSPriority.NORMAL, smsRequest.getPriority());
+    }
+
+    @Test
+    public void simMustBeWholeNumber()
+    {
+        BatchRequestParser parser = BatchRequestParser.parseNdjson(
+                "{\"phone\":\"03001234567\",\"message\":\"a\",\"sim\":\"abc\"}\n" +
+                "{\"phone\":\"03001234567\",\"message\":\"b\",\"sim\":1.5}\n" +
+                "{\"phone\":\"03001234567\",\"message\":\"c\",\"sim\":true}\n" +
+                "{\"phone\":\"03001234567\",\"message\":\"d\",\"sim\":\"2\"}\n");
+
+        assertEquals(Arrays.asList(
+                "item 0 : <sim> must be a SIM slot number",
+                "item 1 : <sim> must be a SIM slot number",
+                "item 2 : <sim> must be a SIM slot number"), parser.getErrors());
+
+        assertEquals(1, parser.getSMSRequests().size());
+        assertEquals(2, parser.getSMSRequests().get(0).getSim());
+    }
+
+    @Test
+    public void nonObjectItemIsReported()
+    {
+        BatchRequestParser parser = BatchRequestParser.parseJson("[1, {\"phone\":\"03001234567\",\"message\":\"hello\"}]");
+
+        assertTrue(parser.hasErrors());
+        assertEquals(Arrays.asList("item 0 : not a JSON object"), parser.getErrors());
+    }
+}
@@ -0,0 +1,118 @@
+package github.umer0586.smsserver.httpserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import fi.iki.elonen.NanoHTTPD;
+
+public class IdempotencyCacheTest {
+
+    private static final byte[] FINGERPRINT = IdempotencyCache.fingerprint("03001234567", "hello", "0", "NORMAL", null);
+
+    @Test
+    public void retryGetsResponseOfFirstRequest()
+    {
+        IdempotencyCache idempotencyCache = new IdempotencyCache();
+
+        assertNull(idempotencyCache.begin("key", FINGERPRINT, "id-1"));
+
+        // retry while first request is still sending
+        IdempotencyCache.Record inFlight = idempotencyCache.begin("key", FINGERPRINT, "id-2");
+
+        assertNotNull(inFlight);
+        assertFalse(inFlight.isCompleted());
+        assertEquals("id-1", inFlight.getMessageId());
+
+        idempotencyCache.complete("key", NanoHTTPD.Response.Status.OK, "{\"status\":\"SENT\"}");
+
+        IdempotencyCache.Record completed = idempotencyCache.begin("key", FINGERPRINT, "id-3");
+
+        assertNotNull(completed);
+        assertTrue(completed.isCompleted());
+        assertTrue(completed.matches(FINGERPRINT));
+        assertEquals(NanoHTTPD.Response.Status.OK, completed.getStatus());
+        assertEquals("{\"status\":\"SENT\"}", completed.getBody());
+        assertEquals("id-1", completed.getMessageId());
+    }
+
+    @Test
+    public void keyReusedForDifferentRequestDoesNotMatch()
+    {
+        IdempotencyCache idempotencyCache = new IdempotencyCache();
+        idempotencyCache.begin("key", FINGERPRINT, "id-1");
+
+        byte[] otherMessage = IdempotencyCache.fingerprint("03001234567", "bye", "0", "NORMAL", null);
+        IdempotencyCache.Record earlier = idempotencyCache.begin("key", otherMessage, "id-2");
+
+        assertNotNull(earlier);
+        assertFalse(earlier.matches(otherMessage));
+    }
+
+    @Test
+    public void fingerprintCoversEveryField()
+    {
+        assertFalse(same(FINGERPRINT, IdempotencyCache.fingerprint("03001234568", "hello", "0", "NORMAL", null)));
+        assertFalse(same(FINGERPRINT, IdempotencyCache.fingerprint("03001234567", "hello", "1", "NORMAL", null)));
+        assertFalse(same(FINGERPRINT, IdempotencyCache.fingerprint("03001234567", "hello", "0", "HIGH", null)));
+        assertFalse(same(FINGERPRINT, IdempotencyCache.fingerprint("03001234567", "hello", "0", "NORMAL", "https://example.com/")));
+
+        assertTrue(same(FINGERPRINT, IdempotencyCache.fingerprint("03001234567", "hello", "0", "NORMAL", null)));
+    }
+
+    @Test
+    public void fingerprintKeepsFieldBoundaries()
+    {
+        assertFalse(same(IdempotencyCache.fingerprint("ab", "c"), IdempotencyCache.fingerprint("a", "bc")));
+        assertFalse(same(IdempotencyCache.fingerprint("a\n", "b"), IdempotencyCache.fingerprint("a", "\nb")));
+        assertFalse(same(IdempotencyCache.fingerprint("a", null), IdempotencyCache.fingerprint("a", "")));
+    }
+
+    @Test
+    public void abandonedKeyCanBeClaimedAgain()
+    {
+        IdempotencyCache idempotencyCache = new IdempotencyCache();
+
+        assertNull(idempotencyCache.begin("key", FINGERPRINT, "id-1"));
+        idempotencyCache.abandon("key");
+
+        assertNull(idempotencyCache.begin("key", FINGERPRINT, "id-2"));
+    }
+
+    @Test
+    public void keysAreForgottenAfterWindow() throws InterruptedException
+    {
+        IdempotencyCache idempotencyCache = new IdempotencyCache(100, 50);
+
+        assertNull(idempotencyCache.begin("key", FINGERPRINT, "id-1"));
+        assertNotNull(idempotencyCache.begin("key", FINGERPRINT, "id-2"));
+
+        Thread.sleep(60);
+
+        assertNull(idempotencyCache.begin("key", FINGERPRINT, "id-3"));
+    }
+
+    @Test
+    public void oldestKeyIsEvictedBeyondMaxEntries()
+    {
+        IdempotencyCache idempotencyCache = new IdempotencyCache(2, IdempotencyCache.DEFAULT_WINDOW_MILLIS);
+
+        idempotencyCache.begin("key 1", FINGERPRINT, "id-1");
+        idempotencyCache.begin("key 2", FINGERPRINT, "id-2");
+        idempotencyCache.begin("key 3", FINGERPRINT, "id-3");
+
+        assertNull(idempotencyCache.begin("key 1", FINGERPRINT, "id-4"));
+        assertNotNull(idempotencyCache.begin("key 3", FINGERPRINT, "id-5"));
+    }
+
+    private static boolean same(byte[] a, byte[] b)
+    {
+        return Arrays.equals(a, b);
+    }
+}
@@ -0,0 +1,87 @@
+package github.umer0586.smsserver.httpserver;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class PasswordVerifierTest {
+
+    @Test
+    public void acceptsOnlyConfiguredPassword()
+    {
+        PasswordVerifier passwordVerifier = new PasswordVerifier("s3cret");
+
+        assertTrue(passwordVerifier.matches("s3cret"));
+
+        assertFalse(passwordVerifier.matches("S3cret"));
+        assertFalse(passwordVerifier.matches("s3cre"));
+        assertFalse(passwordVerifier.matches("s3cret "));
+        assertFalse(passwordVerifier.matches(""));
+    }
+
+    @Test
+    public void handlesNonAsciiPasswords()
+    {
+        PasswordVerifier passwordVerifier = new PasswordVerifier("p\u00e4ssw\u00f6rd");
+
+        assertTrue(passwordVerifier.matches("p\u00e4ssw\u00f6rd"));
+        assertFalse(passwordVerifier.matches("passwort"));
+    }
+
+    @Test
+    public void emptyPasswordMatchesOnlyEmpty()
+    {
+        PasswordVerifier passwordVerifier = new PasswordVerifier("");
+
+        assertTrue(passwordVerifier.matches(""));
+        assertFalse(passwordVerifier.matches(" "));
+    }
+
+    @Test
+    public void verifiersOfSamePasswordAgree()
+    {
+        // salts differ, answers don't
+        PasswordVerifier first = new PasswordVerifier("1234");
+        PasswordVerifier second = new PasswordVerifier("1234");
+
+        assertTrue(first.matches("1234"));
+        assertTrue(second.matches("1234"));
+        assertFalse(second.matches("12345"));
+    }
+
+    @Test
+    public void isSafeToUseFromManyThreads() throws InterruptedException
+    {
+        final PasswordVerifier passwordVerifier = new PasswordVerifier("1234");
+        final boolean[] wrong = new boolean[1];
+
+        Thread[] threads = new Thread[8];
+
+        for (int i = 0; i < threads.length; i++)
+        {
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 1000; j++)
+                {
+                    if(!passwordVerifier.matches("1234") || passwordVerifier.matches("4321"))
+                    {
+                        synchronized (wrong)
+                        {
+                            wrong[0] = true;
+                        }
+                    }
+                }
+            });
+
+            threads[i].start();
+        }
+
+        for (Thread thread : threads)
+            thread.join();
+
+        synchronized (wrong)
+        {
+            assertFalse(wrong[0]);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package github.umer0586.smsserver.smssender;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.telephony.SmsManager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 33)
+public class SMSRetrySchedulerTest {
+
+    private SMSRetryScheduler retryScheduler;
+
+    @Before
+    public void setUp()
+    {
+        // nothing becomes due within a test, backoff is 2.5 seconds at least
+        retryScheduler = new SMSRetryScheduler(smsRequest -> true);
+        retryScheduler.start();
+    }
+
+    @After
+    public void tearDown()
+    {
+        retryScheduler.stop();
+    }
+
+    @Test
+    public void backoffDoublesWithinJitterBounds()
+    {
+        final SMSRequest smsRequest = new SMSRequest("03001234567", "hello");
+        final SMSResult noService = newFailure(SmsManager.RESULT_ERROR_NO_SERVICE);
+
+        // no service starts at 30 seconds, half of it fixed and half random
+        assertBetween(15_000, 30_000, retryScheduler.schedule(smsRequest, noService));
+        assertBetween(30_000, 60_000, retryScheduler.schedule(smsRequest, noService));
+        assertBetween(60_000, 120_000, retryScheduler.schedule(smsRequest, noService));
+
+        assertEquals(3, retryScheduler.getRetryCount(smsRequest.getId()));
+        assertEquals(3, retryScheduler.getWaitingCount());
+    }
+
+    @Test
+    public void backoffIsCappedAtPolicyMaximum()
+    {
+        retryScheduler.setMaxRetries(10);
+
+        final SMSRequest smsRequest = new SMSRequest("03001234567", "hello");
+        final SMSResult limitExceeded = newFailure(SmsManager.RESULT_ERROR_LIMIT_EXCEEDED);
+
+        long delayMillis = 0;
+
+        for (int i = 0; i < 10; i++)
+            delayMillis = retryScheduler.schedule(smsRequest, limitExceeded);
+
+        // carrier rate limit backs off to 15 minutes at most
+        assertBetween(7 * 60_000 + 30_000, 15 * 60_000, delayMillis);
+    }
+
+    @Test
+    public void stopsAfterMaxRetries()
+    {
+        retryScheduler.setMaxRetries(2);
+
+        final SMSRequest smsRequest = new SMSRequest("03001234567", "hello");
+        final SMSResult radioOff = newFailure(SmsManager.RESULT_ERROR_RADIO_OFF);
+
+        assertTrue(retryScheduler.schedule(smsRequest, radioOff) > 0);
+        assertTrue(retryScheduler.schedule(smsRequest, radioOff) > 0);
+        assertEquals(-1, retryScheduler.schedule(smsRequest, radioOff));
+    }
+
+    @Test
+    public void genericFailureIsRetriedOnce()
+    {
+        final SMSRequest smsRequest = new SMSRequest("03001234567", "hello");
+        final SMSResult genericFailure = newFailure(SmsManager.RESULT_ERROR_GENERIC_FAILURE);
+
+        assertBetween(5_000, 10_000, retryScheduler.schedule(smsRequest, genericFailure));
+        assertEquals(-1, retryScheduler.schedule(smsRequest, genericFailure));
+    }
+
+    @Test
+    public void permanentFailureIsNotRetried()
+    {
+        final SMSRequest smsRequest = new SMSRequest("03001234567", "hello");
+
+        assertEquals(-1, retryScheduler.schedule(smsRequest, newFailure(SmsManager.RESULT_ERROR_NULL_PDU)));
+        assertEquals(0, retryScheduler.getWaitingCount());
+    }
+
+    @Test
+    public void zeroMaxRetriesDisablesRetries()
+    {
+        retryScheduler.setMaxRetries(0);
+
+        final SMSRequest smsRequest = new SMSRequest("03001234567", "hello");
+
+        assertEquals(-1, retryScheduler.schedule(smsRequest, newFailure(SmsManager.RESULT_ERROR_NO_SERVICE)));
+    }
+
+    @Test
+    public void completedRequestStartsOver()
+    {
+        retryScheduler.setMaxRetries(1);
+
+        final SMSRequest smsRequest = new SMSRequest("03001234567", "hello");
+        final SMSResult noService = newFailure(SmsManager.RESULT_ERROR_NO_SERVICE);
+
+        assertTrue(retryScheduler.schedule(smsRequest, noService) > 0);
+        assertEquals(-1, retryScheduler.schedule(smsRequest, noService));
+
+        retryScheduler.onCompleted(smsRequest);
+
+        assertEquals(0, retryScheduler.getRetryCount(smsRequest.getId()));
+        assertTrue(retryScheduler.schedule(smsRequest, noService) > 0);
+    }
+
+    @Test
+    public void nothingIsScheduledOnceStopped()
+    {
+        retryScheduler.stop();
+
+        final SMSRequest smsRequest = new SMSRequest("03001234567", "hello");
+
+        assertEquals(-1, retryScheduler.schedule(smsRequest, newFailure(SmsManager.RESULT_ERROR_NO_SERVICE)));
+    }
+
+    private static SMSResult newFailure(int errorCode)
+    {
+        SMSResult result = new SMSResult();
+        result.setStatus(SMSResult.STATUS_SENT_FAIL);
+        result.setErrorCode(errorCode);
+        return result;
+    }
+
+    private static void assertBetween(long min, long max, long actual)
+    {
+        assertTrue(actual + " not between " + min + " and " + max, actual >= min && actual <= max);
+    }
+}
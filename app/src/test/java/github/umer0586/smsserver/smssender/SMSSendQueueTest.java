@@ -0,0 +1,124 @@
+package github.umer0586.smsserver.smssender;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class SMSSendQueueTest {
+
+    @Test
+    public void highIsAlwaysTakenFirst() throws InterruptedException
+    {
+        SMSSendQueue queue = new SMSSendQueue(10);
+
+        queue.offer(newRequest("bulk", SMSPriority.BULK));
+        queue.offer(newRequest("normal", SMSPriority.NORMAL));
+        queue.offer(newRequest("high 1", SMSPriority.HIGH));
+        queue.offer(newRequest("high 2", SMSPriority.HIGH));
+
+        assertEquals("high 1", queue.take().getMessage());
+        assertEquals("high 2", queue.take().getMessage());
+        assertEquals(2, queue.size());
+    }
+
+    @Test
+    public void normalAndBulkShareByWeight() throws InterruptedException
+    {
+        SMSSendQueue queue = new SMSSendQueue(100);
+
+        for (int i = 0; i < 50; i++)
+        {
+            queue.offer(newRequest("normal " + i, SMSPriority.NORMAL));
+            queue.offer(newRequest("bulk " + i, SMSPriority.BULK));
+        }
+
+        int normal = 0;
+        int bulk = 0;
+
+        for (int i = 0; i < 50; i++)
+        {
+            if(queue.take().getPriority() == SMSPriority.NORMAL)
+                normal++;
+            else
+                bulk++;
+        }
+
+        assertEquals(40, normal);
+        assertEquals(10, bulk);
+    }
+
+    @Test
+    public void bulkIsNotStarvedByNormal() throws InterruptedException
+    {
+        SMSSendQueue queue = new SMSSendQueue(100);
+
+        for (int i = 0; i < 20; i++)
+            queue.offer(newRequest("normal " + i, SMSPriority.NORMAL));
+
+        queue.offer(newRequest("bulk", SMSPriority.BULK));
+
+        for (int i = 0; i < 5; i++)
+        {
+            if(queue.take().getPriority() == SMSPriority.BULK)
+                return;
+        }
+
+        throw new AssertionError("bulk sms not taken within 5 sms");
+    }
+
+    @Test
+    public void eachLaneIsFifo() throws InterruptedException
+    {
+        SMSSendQueue queue = new SMSSendQueue(10);
+
+        for (int i = 0; i < 5; i++)
+            queue.offer(newRequest(String.valueOf(i), SMSPriority.NORMAL));
+
+        for (int i = 0; i < 5; i++)
+            assertEquals(String.valueOf(i), queue.take().getMessage());
+    }
+
+    @Test
+    public void fullLaneDoesNotRejectOtherLanes()
+    {
+        SMSSendQueue queue = new SMSSendQueue(2);
+
+        assertTrue(queue.offer(newRequest("bulk 1", SMSPriority.BULK)));
+        assertTrue(queue.offer(newRequest("bulk 2", SMSPriority.BULK)));
+        assertFalse(queue.offer(newRequest("bulk 3", SMSPriority.BULK)));
+
+        assertTrue(queue.offer(newRequest("normal", SMSPriority.NORMAL)));
+        assertTrue(queue.offer(newRequest("high", SMSPriority.HIGH)));
+
+        assertEquals(2, queue.size(SMSPriority.BULK));
+        assertEquals(4, queue.size());
+    }
+
+    @Test
+    public void countAheadFollowsPriority()
+    {
+        SMSSendQueue queue = new SMSSendQueue(100);
+
+        for (int i = 0; i < 3; i++)
+            queue.offer(newRequest("high " + i, SMSPriority.HIGH));
+
+        for (int i = 0; i < 8; i++)
+            queue.offer(newRequest("normal " + i, SMSPriority.NORMAL));
+
+        for (int i = 0; i < 8; i++)
+            queue.offer(newRequest("bulk " + i, SMSPriority.BULK));
+
+        assertEquals(3, queue.countAhead(SMSPriority.HIGH));
+
+        // every normal sms plus one bulk sms per 4 normal ones
+        assertEquals(3 + 8 + 2, queue.countAhead(SMSPriority.NORMAL));
+        assertEquals(3 + 8 + 8, queue.countAhead(SMSPriority.BULK));
+    }
+
+    private static SMSRequest newRequest(String message, SMSPriority priority)
+    {
+        return new SMSRequest("03001234567", message, SMSSenderPool.ANY_SIM, null, priority);
+    }
+}
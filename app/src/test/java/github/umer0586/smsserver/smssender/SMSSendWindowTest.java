@@ -0,0 +1,208 @@
+package github.umer0586.smsserver.smssender;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SMSSendWindowTest {
+
+    private static final long TIMEOUT_SECONDS = 5;
+
+    private SMSSendWindow sendWindow;
+
+    @After
+    public void tearDown()
+    {
+        if(sendWindow != null)
+            sendWindow.shutdown();
+    }
+
+    @Test
+    public void sameRecipientIsSentInOrderOneAtATime() throws InterruptedException
+    {
+        final List<String> sent = Collections.synchronizedList(new ArrayList<>());
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        final CountDownLatch allSent = new CountDownLatch(5);
+
+        sendWindow = new SMSSendWindow(4, 100, smsRequest -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            sleep(10);
+            sent.add(smsRequest.getMessage());
+            inFlight.decrementAndGet();
+            allSent.countDown();
+            return false;
+        });
+
+        // same number written differently
+        final String[] phones = {"+92 300 1234567", "+923001234567", "+92-300-1234567", "+92 (300) 1234567", "+923001234567"};
+
+        for (int i = 0; i < phones.length; i++)
+            send(new SMSRequest(phones[i], String.valueOf(i)));
+
+        assertTrue(allSent.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("0", "1", "2", "3", "4"), sent);
+        assertEquals(1, maxInFlight.get());
+    }
+
+    @Test
+    public void differentRecipientsAreSentInParallel() throws InterruptedException
+    {
+        final CountDownLatch allStarted = new CountDownLatch(3);
+        final CountDownLatch finish = new CountDownLatch(1);
+
+        sendWindow = new SMSSendWindow(3, 100, smsRequest -> {
+            allStarted.countDown();
+            await(finish);
+            return false;
+        });
+
+        send(new SMSRequest("0300000001", "a"));
+        send(new SMSRequest("0300000002", "b"));
+        send(new SMSRequest("0300000003", "c"));
+
+        assertTrue(allStarted.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(3, sendWindow.getInFlightCount());
+
+        finish.countDown();
+    }
+
+    @Test
+    public void acquireBlocksOnceParkedLimitIsReached() throws InterruptedException
+    {
+        final CountDownLatch finish = new CountDownLatch(1);
+
+        sendWindow = new SMSSendWindow(4, 2, smsRequest -> {
+            await(finish);
+            return false;
+        });
+
+        send(new SMSRequest("0300000001", "in flight"));
+        send(new SMSRequest("0300000001", "parked 1"));
+        send(new SMSRequest("0300000001", "parked 2"));
+
+        assertEquals(2, sendWindow.getParkedCount());
+
+        final CountDownLatch acquired = new CountDownLatch(1);
+
+        Thread dispatcher = new Thread(() -> {
+            try
+            {
+                sendWindow.acquire();
+                acquired.countDown();
+                sendWindow.release();
+            } catch (InterruptedException e)
+            {
+                // test failed
+            }
+        });
+
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+
+        assertFalse(acquired.await(200, TimeUnit.MILLISECONDS));
+
+        finish.countDown();
+
+        assertTrue(acquired.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void smsParkedBehindRetryDoNotCountTowardLimit() throws InterruptedException
+    {
+        final SMSRequest first = new SMSRequest("0300000001", "retried");
+        final List<String> sent = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch retryScheduled = new CountDownLatch(1);
+        final CountDownLatch allSent = new CountDownLatch(4);
+
+        sendWindow = new SMSSendWindow(4, 2, smsRequest -> {
+
+            // first attempt of first sms fails and waits for a retry
+            if(smsRequest == first && retryScheduled.getCount() > 0)
+            {
+                retryScheduled.countDown();
+                return true;
+            }
+
+            sent.add(smsRequest.getMessage());
+            allSent.countDown();
+            return false;
+        });
+
+        send(first);
+        assertTrue(retryScheduled.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        // wait for sender thread to mark recipient as waiting for retry and give its slot back
+        for (int i = 0; i < 100 && sendWindow.getInFlightCount() > 0; i++)
+            Thread.sleep(10);
+
+        // more than maxParked behind retried sms, none of them may block the dispatcher
+        send(new SMSRequest("0300000001", "parked 1"));
+        send(new SMSRequest("0300000001", "parked 2"));
+        send(new SMSRequest("0300000001", "parked 3"));
+
+        assertEquals(3, sendWindow.getParkedCount());
+        assertTrue(sent.isEmpty());
+
+        assertTrue(sendWindow.resume(first));
+        assertTrue(allSent.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        assertEquals(Arrays.asList("retried", "parked 1", "parked 2", "parked 3"), sent);
+        assertEquals(0, sendWindow.getParkedCount());
+    }
+
+    private void send(SMSRequest smsRequest) throws InterruptedException
+    {
+        final CountDownLatch acquired = new CountDownLatch(1);
+
+        Thread dispatcher = new Thread(() -> {
+            try
+            {
+                sendWindow.acquire();
+                sendWindow.submit(smsRequest);
+                acquired.countDown();
+            } catch (InterruptedException e)
+            {
+                // test failed
+            }
+        });
+
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+
+        assertTrue("dispatcher blocked", acquired.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    private static void await(CountDownLatch latch)
+    {
+        try
+        {
+            latch.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sleep(long millis)
+    {
+        try
+        {
+            Thread.sleep(millis);
+        } catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
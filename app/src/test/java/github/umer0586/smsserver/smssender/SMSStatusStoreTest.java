@@ -0,0 +1,190 @@
+package github.umer0586.smsserver.smssender;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class SMSStatusStoreTest {
+
+    private static final long MINUTE = 60 * 1000;
+
+    // start of a minute, so tests know which bucket each status lands in
+    private static final long START = 1000 * MINUTE;
+
+    @Test
+    public void updateKeepsRecordedTimeAndLatestStatus()
+    {
+        FakeClockStore store = new FakeClockStore(10, 60 * MINUTE);
+        SMSRequest smsRequest = new SMSRequest("03001234567", "hello");
+
+        store.update(smsRequest, "QUEUED", null);
+        store.now += 1000;
+
+        SMSResult result = new SMSResult();
+        result.setStatus(SMSResult.STATUS_SENT_FAIL);
+        result.setReason("no service");
+        store.update(smsRequest, result.getStatusName(), result);
+
+        SMSStatusStore.SMSStatus smsStatus = store.get(smsRequest.getId());
+
+        assertNotNull(smsStatus);
+        assertEquals("FAILED", smsStatus.getStatus());
+        assertEquals("no service", smsStatus.getReason());
+        assertEquals(START, smsStatus.getRecordedAt());
+        assertEquals(START + 1000, smsStatus.getUpdatedAt());
+        assertEquals(1, store.size());
+    }
+
+    @Test
+    public void leastRecentlyUsedIsEvictedBeyondMaxEntries()
+    {
+        FakeClockStore store = new FakeClockStore(3, 60 * MINUTE);
+
+        SMSRequest a = add(store, "0300000001");
+        SMSRequest b = add(store, "0300000002");
+        SMSRequest c = add(store, "0300000003");
+
+        // a becomes most recently used, b is now least recently used
+        assertNotNull(store.get(a.getId()));
+
+        SMSRequest d = add(store, "0300000004");
+
+        assertEquals(3, store.size());
+        assertNull(store.get(b.getId()));
+        assertNotNull(store.get(a.getId()));
+        assertNotNull(store.get(c.getId()));
+        assertNotNull(store.get(d.getId()));
+
+        // evicted status is gone from phone and time lookups too
+        assertEquals(0, store.findByPhone("0300000002", 0, 10).size());
+        assertEquals(3, store.findSince(0, 10).size());
+    }
+
+    @Test
+    public void phoneLookupIgnoresFormatting()
+    {
+        FakeClockStore store = new FakeClockStore(10, 60 * MINUTE);
+
+        SMSRequest first = add(store, "+923001234567");
+        store.now += 1000;
+        SMSRequest second = add(store, "+92 300 1234567");
+        store.now += 1000;
+        add(store, "+923009999999");
+
+        List<SMSStatusStore.SMSStatus> statuses = store.findByPhone("+92 (300) 123-4567", 0, 10);
+
+        assertEquals(ids(second, first), idsOf(statuses));
+
+        // phone is reported as client sent it
+        assertEquals("+92 300 1234567", statuses.get(0).getPhone());
+    }
+
+    @Test
+    public void phoneLookupHonoursSinceAndLimit()
+    {
+        FakeClockStore store = new FakeClockStore(10, 60 * MINUTE);
+
+        add(store, "0300000001");
+        store.now += 1000;
+        SMSRequest second = add(store, "0300000001");
+        store.now += 1000;
+        SMSRequest third = add(store, "0300000001");
+
+        assertEquals(ids(third, second), idsOf(store.findByPhone("0300000001", START + 1000, 10)));
+        assertEquals(ids(third), idsOf(store.findByPhone("0300000001", 0, 1)));
+    }
+
+    @Test
+    public void findSinceWalksMinuteBucketsNewestFirst()
+    {
+        FakeClockStore store = new FakeClockStore(10, 60 * MINUTE);
+
+        SMSRequest a = add(store, "0300000001");
+        store.now += 30 * 1000;
+        SMSRequest b = add(store, "0300000002");
+        store.now = START + 2 * MINUTE;
+        SMSRequest c = add(store, "0300000003");
+        store.now += 1000;
+        SMSRequest d = add(store, "0300000004");
+
+        assertEquals(ids(d, c, b, a), idsOf(store.findSince(0, 10)));
+
+        // since falls in the middle of first bucket
+        assertEquals(ids(d, c, b), idsOf(store.findSince(START + 1000, 10)));
+        assertEquals(ids(d, c), idsOf(store.findSince(START + MINUTE, 10)));
+        assertEquals(ids(d, c, b), idsOf(store.findSince(0, 3)));
+    }
+
+    @Test
+    public void expiredMinutesAreEvictedWhole()
+    {
+        FakeClockStore store = new FakeClockStore(10, 5 * MINUTE);
+
+        SMSRequest a = add(store, "0300000001");
+        store.now += 59 * 1000;
+        SMSRequest b = add(store, "0300000001");
+        store.now = START + 2 * MINUTE;
+        SMSRequest c = add(store, "0300000001");
+
+        // first minute is still within max age as a bucket
+        store.now = START + 5 * MINUTE + 59 * 1000;
+        assertEquals(3, store.size());
+
+        store.now = START + 6 * MINUTE;
+
+        assertNull(store.get(a.getId()));
+        assertNull(store.get(b.getId()));
+        assertNotNull(store.get(c.getId()));
+        assertEquals(1, store.size());
+        assertEquals(ids(c), idsOf(store.findByPhone("0300000001", 0, 10)));
+        assertEquals(ids(c), idsOf(store.findSince(0, 10)));
+    }
+
+    private static SMSRequest add(SMSStatusStore store, String phone)
+    {
+        SMSRequest smsRequest = new SMSRequest(phone, "hello");
+        store.update(smsRequest, "QUEUED", null);
+        return smsRequest;
+    }
+
+    private static List<String> ids(SMSRequest... smsRequests)
+    {
+        List<String> ids = new ArrayList<>();
+
+        for (SMSRequest smsRequest : smsRequests)
+            ids.add(smsRequest.getId());
+
+        return ids;
+    }
+
+    private static List<String> idsOf(List<SMSStatusStore.SMSStatus> statuses)
+    {
+        List<String> ids = new ArrayList<>();
+
+        for (SMSStatusStore.SMSStatus smsStatus : statuses)
+            ids.add(smsStatus.getId());
+
+        return ids;
+    }
+
+    private static class FakeClockStore extends SMSStatusStore {
+
+        private long now = START;
+
+        private FakeClockStore(int maxEntries, long maxAgeMillis)
+        {
+            super(maxEntries, maxAgeMillis);
+        }
+
+        @Override
+        long currentTimeMillis()
+        {
+            return now;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package github.umer0586.smsserver.smssender;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class TokenBucketTest {
+
+    @Test
+    public void burstIsAvailableRightAway()
+    {
+        TokenBucket tokenBucket = new TokenBucket(60, 3);
+
+        assertTrue(tokenBucket.tryAcquire());
+        assertTrue(tokenBucket.tryAcquire());
+        assertTrue(tokenBucket.tryAcquire());
+        assertFalse(tokenBucket.tryAcquire());
+    }
+
+    @Test
+    public void reservationBeyondBurstWaitsForRefill()
+    {
+        // one token per second
+        TokenBucket tokenBucket = new TokenBucket(60, 1);
+
+        assertEquals(0, tokenBucket.reserve());
+
+        final long firstWaitMillis = TimeUnit.NANOSECONDS.toMillis(tokenBucket.reserve());
+        final long secondWaitMillis = TimeUnit.NANOSECONDS.toMillis(tokenBucket.reserve());
+
+        assertTrue(firstWaitMillis > 900 && firstWaitMillis <= 1000);
+        assertTrue(secondWaitMillis > 1900 && secondWaitMillis <= 2000);
+    }
+
+    @Test
+    public void refillsAtConfiguredRate() throws InterruptedException
+    {
+        // one token per millisecond
+        TokenBucket tokenBucket = new TokenBucket(60_000, 1);
+
+        assertTrue(tokenBucket.tryAcquire());
+        assertFalse(tokenBucket.tryAcquire());
+
+        Thread.sleep(20);
+
+        assertTrue(tokenBucket.tryAcquire());
+    }
+
+    @Test
+    public void refillNeverExceedsBurst() throws InterruptedException
+    {
+        TokenBucket tokenBucket = new TokenBucket(60_000, 2);
+
+        Thread.sleep(20);
+
+        assertTrue(tokenBucket.tryAcquire());
+        assertTrue(tokenBucket.tryAcquire());
+        assertFalse(tokenBucket.tryAcquire());
+    }
+
+    @Test
+    public void estimateDoesNotConsume()
+    {
+        TokenBucket tokenBucket = new TokenBucket(60, 2);
+
+        assertEquals(0, tokenBucket.estimateWaitMillis(2));
+        assertTrue(tokenBucket.estimateWaitMillis(3) > 900);
+        assertTrue(tokenBucket.tryAcquire());
+        assertTrue(tokenBucket.tryAcquire());
+    }
+
+    @Test
+    public void interruptedAcquireGivesTokenBack() throws InterruptedException
+    {
+        TokenBucket tokenBucket = new TokenBucket(60, 1);
+        assertTrue(tokenBucket.tryAcquire());
+
+        final CountDownLatch waiting = new CountDownLatch(1);
+        final AtomicBoolean interrupted = new AtomicBoolean();
+
+        Thread thread = new Thread(() -> {
+            try
+            {
+                waiting.countDown();
+                tokenBucket.acquire();
+            } catch (InterruptedException e)
+            {
+                interrupted.set(true);
+            }
+        });
+
+        thread.start();
+        waiting.await();
+        Thread.sleep(50);
+        thread.interrupt();
+        thread.join();
+
+        assertTrue(interrupted.get());
+
+        // only the token taken by tryAcquire() is missing, not the abandoned reservation
+        assertTrue(tokenBucket.estimateWaitMillis(1) <= 1000);
+    }
+}